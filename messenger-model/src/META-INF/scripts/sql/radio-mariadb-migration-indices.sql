@@ -0,0 +1,24 @@
+-- MariaDB migration script replacing the radio schema's single column indices
+-- with composite indices matching the REST service's query predicates and sort
+-- orders; InnoDB secondary indices implicitly contain the primary key, which
+-- makes them covering for identity queries
+-- best import using MariaDB client command "source <path to this file>"
+
+SET CHARACTER SET utf8;
+USE radio;
+
+ALTER TABLE Person
+	ADD INDEX IF NOT EXISTS personName (surname, forename, email);
+
+ALTER TABLE Album
+	ADD INDEX IF NOT EXISTS albumTitle (title, albumIdentity),
+	ADD INDEX IF NOT EXISTS albumRelease (releaseYear, trackCount, title, albumIdentity);
+
+ALTER TABLE Track
+	ADD INDEX IF NOT EXISTS trackGenre (genre, artist, name, trackIdentity),
+	ADD INDEX IF NOT EXISTS trackArtist (artist, name, trackIdentity),
+	ADD INDEX IF NOT EXISTS trackName (name, trackIdentity),
+	DROP INDEX IF EXISTS artist,
+	DROP INDEX IF EXISTS genre;
+
+ANALYZE TABLE BaseEntity, Document, Person, Album, Track;
@@ -0,0 +1,11 @@
+-- MariaDB migration script adding the integrated loudness and sample peak of
+-- audio documents to the radio schema; existing recordings remain unanalyzed,
+-- and are therefore not normalized upon playback until stored again
+-- best import using MariaDB client command "source <path to this file>"
+
+SET CHARACTER SET utf8;
+USE radio;
+
+ALTER TABLE Document
+	ADD COLUMN IF NOT EXISTS loudness DOUBLE NULL AFTER content,
+	ADD COLUMN IF NOT EXISTS peak DOUBLE NULL AFTER loudness;
@@ -0,0 +1,14 @@
+-- MariaDB migration script adding precomputed waveform summaries of audio
+-- documents to the radio schema, keyed by their content hash; summaries of
+-- existing recordings are generated in the background after server start
+-- best import using MariaDB client command "source <path to this file>"
+
+SET CHARACTER SET utf8;
+USE radio;
+
+CREATE TABLE IF NOT EXISTS Waveform (
+	contentHash BINARY(32) NOT NULL,
+	content MEDIUMBLOB NOT NULL,
+	PRIMARY KEY (contentHash),
+	FOREIGN KEY (contentHash) REFERENCES Document (contentHash) ON DELETE CASCADE ON UPDATE RESTRICT
+);
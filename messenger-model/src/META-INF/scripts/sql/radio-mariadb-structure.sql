@@ -21,11 +21,20 @@ CREATE TABLE Document (
 	contentHash BINARY(32) NOT NULL,
 	contentType VARCHAR(63) NOT NULL,
 	content LONGBLOB NOT NULL,
+	loudness DOUBLE NULL,
+	peak DOUBLE NULL,
 	PRIMARY KEY (documentIdentity),
 	UNIQUE KEY (contentHash),
 	FOREIGN KEY (documentIdentity) REFERENCES BaseEntity (identity) ON DELETE CASCADE ON UPDATE CASCADE
 );
 
+CREATE TABLE Waveform (
+	contentHash BINARY(32) NOT NULL,
+	content MEDIUMBLOB NOT NULL,
+	PRIMARY KEY (contentHash),
+	FOREIGN KEY (contentHash) REFERENCES Document (contentHash) ON DELETE CASCADE ON UPDATE RESTRICT
+);
+
 CREATE TABLE Person (
 	personIdentity BIGINT NOT NULL,
 	avatarReference BIGINT NOT NULL,
@@ -38,6 +47,7 @@ CREATE TABLE Person (
 	lastTransmissionAddress VARCHAR(63) NULL,
 	PRIMARY KEY (personIdentity),
 	UNIQUE KEY (email),
+	KEY personName (surname, forename, email),
 	FOREIGN KEY (personIdentity) REFERENCES BaseEntity (identity) ON DELETE CASCADE ON UPDATE CASCADE,
 	FOREIGN KEY (avatarReference) REFERENCES Document (documentIdentity) ON DELETE RESTRICT ON UPDATE CASCADE
 );
@@ -49,6 +59,8 @@ CREATE TABLE Album (
 	releaseYear SMALLINT NOT NULL,
 	trackCount TINYINT NOT NULL,
 	PRIMARY KEY (albumIdentity),
+	KEY albumTitle (title, albumIdentity),
+	KEY albumRelease (releaseYear, trackCount, title, albumIdentity),
 	FOREIGN KEY (albumIdentity) REFERENCES BaseEntity (identity) ON DELETE CASCADE ON UPDATE CASCADE,
 	FOREIGN KEY (coverReference) REFERENCES Document (documentIdentity) ON DELETE CASCADE ON UPDATE CASCADE
 );
@@ -67,8 +79,9 @@ CREATE TABLE Track (
 	FOREIGN KEY (albumReference) REFERENCES Album (albumIdentity) ON DELETE CASCADE ON UPDATE CASCADE,
 	FOREIGN KEY (ownerReference) REFERENCES Person (personIdentity) ON DELETE CASCADE ON UPDATE CASCADE,
 	FOREIGN KEY (recordingReference) REFERENCES Document (documentIdentity) ON DELETE CASCADE ON UPDATE CASCADE,
-	KEY (artist),
-	KEY (genre)
+	KEY trackGenre (genre, artist, name, trackIdentity),
+	KEY trackArtist (artist, name, trackIdentity),
+	KEY trackName (name, trackIdentity)
 );
 
 -- define views
@@ -1,5 +1,6 @@
 package de.sb.radio.persistence;
 
+import static javax.persistence.FetchType.LAZY;
 import java.util.Collections;
 import java.util.Set;
 import javax.json.bind.annotation.JsonbProperty;
@@ -47,10 +48,13 @@ public class Album extends BaseEntity {
 	@Column(nullable = false, updatable = true)
 	private byte trackCount;
 
-	@ManyToOne(optional = false)
+	@ManyToOne(optional = false, fetch = LAZY)
 	@JoinColumn(name = "coverReference", nullable = false, updatable = true)
 	private Document cover;
 
+	@Column(name = "coverReference", nullable = false, insertable = false, updatable = false)
+	private long coverReference;
+
 	@NotNull
 	@OneToMany(mappedBy = "album", cascade = { CascadeType.REMOVE, CascadeType.REFRESH })
 	private Set<Track> tracks;
@@ -66,6 +70,7 @@ public class Album extends BaseEntity {
 
 	public Album(Document cover) {
 		this.cover = cover;
+		this.coverReference = cover == null ? 0 : cover.getIdentity();
 		this.tracks = Collections.emptySet(); // fuer die mappedBy Seite
 	}
 
@@ -111,6 +116,7 @@ public class Album extends BaseEntity {
 
 	public void setCover (final Document cover) {
 		this.cover = cover;
+		this.coverReference = cover == null ? 0 : cover.getIdentity();
 	}
 
 
@@ -122,7 +128,14 @@ public class Album extends BaseEntity {
 
 	@JsonbProperty
 	protected long getCoverReference () {
-		return this.cover.getIdentity();
+		if (this.coverReference != 0) return this.coverReference;
+		return this.cover == null ? 0 : this.cover.getIdentity();
+	}
+
+
+	@JsonbProperty
+	protected String getCoverLocation () {
+		return Document.contentLocation(this.getCoverReference());
 	}
 
 
@@ -1,5 +1,6 @@
 package de.sb.radio.persistence;
 
+import static javax.persistence.FetchType.LAZY;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
@@ -10,6 +11,7 @@ import javax.imageio.ImageIO;
 import javax.json.bind.annotation.JsonbProperty;
 import javax.json.bind.annotation.JsonbTransient;
 import javax.json.bind.annotation.JsonbVisibility;
+import javax.persistence.Basic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.PrimaryKeyJoinColumn;
@@ -99,9 +101,16 @@ public class Document extends BaseEntity {
 
 	@NotNull
 	@Size(min = 1)
+	@Basic(fetch = LAZY)
 	@Column(nullable = false, updatable = true)
 	private byte[] content;
 
+	@Column(nullable = true, updatable = true)
+	private Double loudness;
+
+	@Column(nullable = true, updatable = true)
+	private Double peak;
+
 
 	/**
 	 * Creates a new instance.
@@ -124,6 +133,56 @@ public class Document extends BaseEntity {
 	}
 
 
+	/**
+	 * Returns the content location, i.e. the service relative path of this
+	 * document's content. As this path is derived from the content hash, it
+	 * never references different content, which allows clients and proxies to
+	 * cache it's content permanently.
+	 * 
+	 * @return the content location
+	 */
+	@JsonbProperty
+	public String getContentLocation () {
+		return "documents/by-hash/" + HashTools.toHexString(this.contentHash);
+	}
+
+
+	/**
+	 * Returns the content location of the document with the given identity,
+	 * i.e. the service relative path of it's content addressed by identity.
+	 * This allows entities referencing documents to expose said location
+	 * using just their foreign key, without loading the document. Note that
+	 * this deliberately deviates from the content addressed location returned
+	 * by {@link #getContentLocation()}, as the latter would require each
+	 * referenced document's content hash, and therefore an additional query
+	 * per marshaled entity. A document's content never changes either, which
+	 * is why the identity addressed location is served with the same entity
+	 * tag and permanent caching as the content addressed one.
+	 * 
+	 * @param documentIdentity
+	 *            the document identity
+	 * @return the content location, or {@code null} if the given identity is
+	 *         zero
+	 */
+	static public String contentLocation (final long documentIdentity) {
+		return documentIdentity == 0 ? null : "documents/" + documentIdentity;
+	}
+
+
+	/**
+	 * Returns the waveform location, i.e. the service relative path of this
+	 * document's waveform summary, provided it's content is audio. Like the
+	 * content location, it is derived from the content hash.
+	 * 
+	 * @return the waveform location, or {@code null} if the content is not
+	 *         audio
+	 */
+	@JsonbProperty
+	public String getWaveformLocation () {
+		return this.contentType.startsWith("audio/") ? "waveforms/" + HashTools.toHexString(this.contentHash) : null;
+	}
+
+
 	/**
 	 * Returns the content type.
 	 * 
@@ -147,7 +206,9 @@ public class Document extends BaseEntity {
 
 
 	/**
-	 * Returns the content.
+	 * Returns the content. Note that the content is fetched lazily upon first
+	 * access, provided the entity classes are woven; therefore, loading
+	 * documents as part of other entities only transfers their metadata.
 	 * 
 	 * @return the content
 	 */
@@ -166,6 +227,56 @@ public class Document extends BaseEntity {
 	public void setContent (final byte[] content) {
 		this.content = content;
 		this.contentHash = HashTools.sha256HashCode(content);
+		this.loudness = null;
+		this.peak = null;
+	}
+
+
+	/**
+	 * Returns the integrated loudness of audio content according to EBU R128,
+	 * which is analyzed once when the content is stored.
+	 * 
+	 * @return the integrated loudness in LUFS, or {@code null} if the content
+	 *         is not audio, has not been analyzed, or is silent
+	 */
+	@JsonbProperty
+	public Double getLoudness () {
+		return this.loudness;
+	}
+
+
+	/**
+	 * Sets the integrated loudness of audio content.
+	 * 
+	 * @param loudness
+	 *            the integrated loudness in LUFS, or {@code null} for none
+	 */
+	public void setLoudness (final Double loudness) {
+		this.loudness = loudness;
+	}
+
+
+	/**
+	 * Returns the sample peak of audio content, which is analyzed once when
+	 * the content is stored.
+	 * 
+	 * @return the sample peak within range [0, 1], or {@code null} if the
+	 *         content is not audio, or has not been analyzed
+	 */
+	@JsonbProperty
+	public Double getPeak () {
+		return this.peak;
+	}
+
+
+	/**
+	 * Sets the sample peak of audio content.
+	 * 
+	 * @param peak
+	 *            the sample peak within range [0, 1], or {@code null} for none
+	 */
+	public void setPeak (final Double peak) {
+		this.peak = peak;
 	}
 
 
@@ -223,4 +334,4 @@ public class Document extends BaseEntity {
 			throw new AssertionError(exception);
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -13,6 +13,7 @@ import de.sb.toolbox.Copyright;
 public final class HashTools {
 
 	static private byte[] DEFAULT = sha256HashCode(new byte[0]);
+	static private final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
 
 	/**
@@ -43,6 +44,51 @@ public final class HashTools {
 	}
 
 
+	/**
+	 * Returns the lower case hexadecimal representation of the given hash code.
+	 * 
+	 * @param hashCode
+	 *            the hash code
+	 * @return the corresponding hexadecimal text
+	 * @throws NullPointerException
+	 *             if the given hash code is {@code null}
+	 */
+	static public String toHexString (final byte[] hashCode) throws NullPointerException {
+		final char[] digits = new char[hashCode.length << 1];
+		for (int index = 0; index < hashCode.length; ++index) {
+			digits[(index << 1) + 0] = HEX_DIGITS[(hashCode[index] >>> 4) & 0x0F];
+			digits[(index << 1) + 1] = HEX_DIGITS[(hashCode[index] >>> 0) & 0x0F];
+		}
+		return new String(digits);
+	}
+
+
+	/**
+	 * Returns the hash code represented by the given hexadecimal text.
+	 * 
+	 * @param text
+	 *            the hexadecimal text, in upper or lower case
+	 * @return the corresponding hash code
+	 * @throws NullPointerException
+	 *             if the given text is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the given text has an odd length, or contains characters
+	 *             that are not hexadecimal digits
+	 */
+	static public byte[] parseHexString (final String text) throws NullPointerException, IllegalArgumentException {
+		if ((text.length() & 1) == 1) throw new IllegalArgumentException(text);
+
+		final byte[] hashCode = new byte[text.length() >> 1];
+		for (int index = 0; index < hashCode.length; ++index) {
+			final int high = Character.digit(text.charAt((index << 1) + 0), 16);
+			final int low = Character.digit(text.charAt((index << 1) + 1), 16);
+			if (high == -1 | low == -1) throw new IllegalArgumentException(text);
+			hashCode[index] = (byte) ((high << 4) | low);
+		}
+		return hashCode;
+	}
+
+
 	/**
 	 * Prevents external instantiation.
 	 */
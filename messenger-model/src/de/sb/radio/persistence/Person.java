@@ -2,6 +2,7 @@ package de.sb.radio.persistence;
 
 import static de.sb.radio.persistence.Person.Group.USER;
 import static javax.persistence.EnumType.STRING;
+import static javax.persistence.FetchType.LAZY;
 import java.util.Collections;
 import java.util.Set;
 import javax.json.bind.annotation.JsonbProperty;
@@ -65,10 +66,13 @@ public class Person extends BaseEntity {
 	@Column(nullable = false, updatable = true, length = 31)
 	private String surname;
 
-	@ManyToOne(optional = false) // einzige änderbare Reference
+	@ManyToOne(optional = false, fetch = LAZY) // einzige änderbare Reference
 	@JoinColumn(name = "avatarReference", nullable = false, updatable = true)
 	private Document avatar;
 
+	@Column(name = "avatarReference", nullable = false, insertable = false, updatable = false)
+	private long avatarReference;
+
 	@NotNull
 	@OneToMany(mappedBy = "owner", cascade = { CascadeType.REMOVE, CascadeType.REFRESH })
 	private Set<Track> tracks;
@@ -93,6 +97,7 @@ public class Person extends BaseEntity {
 		this.passwordHash = DEFAULT_HASH;
 		this.group = USER;
 		this.avatar = avatar;
+		this.avatarReference = avatar == null ? 0 : avatar.getIdentity();
 		this.tracks = Collections.emptySet();
 	}
 
@@ -209,16 +214,32 @@ public class Person extends BaseEntity {
 
 	/**
 	 * Returns the avatar reference. This operation is provided solely for
-	 * marshaling purposes.
+	 * marshaling purposes, and reads the foreign key column instead of the
+	 * lazily fetched avatar unless the latter has not been persisted yet.
 	 * 
 	 * @return the identity of the *:1 related avatar, or {@code 0} for none
 	 */
 	@JsonbProperty
 	protected long getAvatarReference () {
+		if (this.avatarReference != 0) return this.avatarReference;
 		return this.avatar == null ? 0 : this.avatar.getIdentity();
 	}
 
 
+	/**
+	 * Returns the avatar's content location. This operation is provided solely
+	 * for marshaling purposes, and is derived from the foreign key column in
+	 * order not to load the lazily fetched avatar.
+	 * 
+	 * @return the content location of the *:1 related avatar, or {@code null}
+	 *         for none
+	 */
+	@JsonbProperty
+	protected String getAvatarLocation () {
+		return Document.contentLocation(this.getAvatarReference());
+	}
+
+
 	/**
 	 * Returns the avatar.
 	 * 
@@ -238,6 +259,7 @@ public class Person extends BaseEntity {
 	 */
 	public void setAvatar (final Document avatar) {
 		this.avatar = avatar;
+		this.avatarReference = avatar == null ? 0 : avatar.getIdentity();
 	}
 
 
@@ -249,7 +271,7 @@ public class Person extends BaseEntity {
 
 	@JsonbProperty
 	protected long getAvatarReferece () {
-		return avatar.getIdentity();
+		return this.getAvatarReference();
 	}
 
 
@@ -1,5 +1,6 @@
 package de.sb.radio.persistence;
 
+import static javax.persistence.FetchType.LAZY;
 import javax.json.bind.annotation.JsonbProperty;
 import javax.json.bind.annotation.JsonbTransient;
 import javax.json.bind.annotation.JsonbVisibility;
@@ -50,10 +51,13 @@ public class Track extends BaseEntity {
 	@JoinColumn(name = "ownerReference", nullable = false, updatable = true)
 	private Person owner;
 
-	@ManyToOne(optional = false)
+	@ManyToOne(optional = false, fetch = LAZY)
 	@JoinColumn(name = "recordingReference", nullable = false, updatable = true)
 	private Document recording;
 
+	@Column(name = "recordingReference", nullable = false, insertable = false, updatable = false)
+	private long recordingReference;
+
 
 	protected Track() {
 		this(null, null, null);
@@ -62,6 +66,7 @@ public class Track extends BaseEntity {
 
 	public Track (Document recording, Album album, Person owner) {
 		this.recording = recording;
+		this.recordingReference = recording == null ? 0 : recording.getIdentity();
 		this.album = album;
 		this.owner = owner;
 	}
@@ -145,6 +150,7 @@ public class Track extends BaseEntity {
 
 	public void setRecording (final Document recording) {
 		this.recording = recording;
+		this.recordingReference = recording == null ? 0 : recording.getIdentity();
 	}
 
 
@@ -162,6 +168,13 @@ public class Track extends BaseEntity {
 
 	@JsonbProperty
 	protected long getRecordingReference () {
-		return recording.getIdentity();
+		if (this.recordingReference != 0) return this.recordingReference;
+		return this.recording == null ? 0 : this.recording.getIdentity();
+	}
+
+
+	@JsonbProperty
+	protected String getRecordingLocation () {
+		return Document.contentLocation(this.getRecordingReference());
 	}
 }
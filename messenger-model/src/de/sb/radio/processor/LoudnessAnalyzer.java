@@ -0,0 +1,231 @@
+package de.sb.radio.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+
+/**
+ * Frame-wise loudness analyzer according to EBU R128 (ITU-R BS.1770), which
+ * measures the integrated loudness of audio in LUFS, and it's sample peak.
+ * Frames are K-weighted using two cascaded biquad filters, and the mean
+ * squares of overlapping 400ms gating blocks are gated with an absolute
+ * threshold of -70 LUFS, and a relative threshold of -10 LU below the
+ * absolutely gated loudness. The analyzer does not modify the frames passed,
+ * and can therefore be part of a processor chain.
+ * @see #normalizationGain(double, double, double)
+ */
+public class LoudnessAnalyzer implements Processor {
+	static private final double ABSOLUTE_GATE = -70;
+	static private final double RELATIVE_GATE = -10;
+
+	private final double[] channelWeights;
+	private final double[][] filterStates;
+	private final double[] shelfCoefficients;
+	private final double[] highpassCoefficients;
+	private final double[][] stepEnergies;
+	private final int stepFrameCount;
+	private double[] blockEnergies;
+	private int blockCount;
+	private int stepCount;
+	private int stepFrameIndex;
+	private double peak;
+
+
+	/**
+	 * Creates a new instance.
+	 * @param sampleRate the sample rate in Hz
+	 * @param channelCount the number of channels, where six channels are
+	 *        assumed to be in 5.1 layout, with the LFE channel ignored and
+	 *        the surround channels weighted by +1.5dB
+	 * @throws IllegalArgumentException if the given sample rate or channel
+	 *         count is not positive
+	 */
+	public LoudnessAnalyzer (final double sampleRate, final int channelCount) throws IllegalArgumentException {
+		if (sampleRate <= 0 | channelCount <= 0) throw new IllegalArgumentException();
+
+		this.channelWeights = new double[channelCount];
+		Arrays.fill(this.channelWeights, 1);
+		if (channelCount == 6) {
+			this.channelWeights[3] = 0;
+			this.channelWeights[4] = this.channelWeights[5] = 1.41;
+		}
+
+		// high shelf modelling the head's acoustic effect, and RLB highpass
+		final double shelfK = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+		final double shelfQ = 0.7071752369554196;
+		final double shelfVh = Math.pow(10, 3.999843853973347 / 20);
+		final double shelfVb = Math.pow(shelfVh, 0.4996667741545416);
+		final double shelfA0 = 1 + shelfK / shelfQ + shelfK * shelfK;
+		this.shelfCoefficients = new double[] {
+			(shelfVh + shelfVb * shelfK / shelfQ + shelfK * shelfK) / shelfA0,
+			2 * (shelfK * shelfK - shelfVh) / shelfA0,
+			(shelfVh - shelfVb * shelfK / shelfQ + shelfK * shelfK) / shelfA0,
+			2 * (shelfK * shelfK - 1) / shelfA0,
+			(1 - shelfK / shelfQ + shelfK * shelfK) / shelfA0
+		};
+
+		final double highpassK = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+		final double highpassQ = 0.5003270373238773;
+		final double highpassA0 = 1 + highpassK / highpassQ + highpassK * highpassK;
+		this.highpassCoefficients = new double[] {
+			1,
+			-2,
+			1,
+			2 * (highpassK * highpassK - 1) / highpassA0,
+			(1 - highpassK / highpassQ + highpassK * highpassK) / highpassA0
+		};
+
+		this.filterStates = new double[channelCount][4];
+		this.stepFrameCount = Math.max(1, (int) Math.round(sampleRate / 10));
+		this.stepEnergies = new double[4][channelCount];
+		this.blockEnergies = new double[64];
+	}
+
+
+	/**
+	 * Returns a new analyzer that has processed the given audio content,
+	 * which must be decodable by the Java Sound API.
+	 * @param content the audio content, for example a WAV file
+	 * @return the analyzer
+	 * @throws NullPointerException if the given content is {@code null}
+	 * @throws UnsupportedAudioFileException if the given content's audio
+	 *         format is not supported
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public LoudnessAnalyzer analyze (final byte[] content) throws NullPointerException, UnsupportedAudioFileException, IOException {
+		try (AudioInputStream audioSource = PcmSamples.decode(new ByteArrayInputStream(content))) {
+			final AudioFormat audioFormat = audioSource.getFormat();
+			final LoudnessAnalyzer analyzer = new LoudnessAnalyzer(audioFormat.getSampleRate(), audioFormat.getChannels());
+			PcmSamples.process(audioSource, analyzer, null);
+			return analyzer;
+		}
+	}
+
+
+	/**
+	 * Returns the gain that normalizes audio of the given integrated loudness
+	 * to the given target loudness, limited so that the given sample peak is
+	 * not amplified beyond full scale. Playback can apply it using a
+	 * {@link Volume} processor, without analyzing the audio again.
+	 * @param loudness the integrated loudness in LUFS
+	 * @param peak the sample peak within range [0, 1]
+	 * @param targetLoudness the target loudness in LUFS
+	 * @return the gain factor
+	 */
+	static public double normalizationGain (final double loudness, final double peak, final double targetLoudness) {
+		final double gain = Math.pow(10, (targetLoudness - loudness) / 20);
+		return peak > 0 ? Math.min(gain, 1 / peak) : gain;
+	}
+
+
+	/**
+	 * Returns the integrated loudness of the frames processed so far.
+	 * @return the integrated loudness in LUFS, or negative infinity if the
+	 *         audio is silent, or shorter than a gating block
+	 */
+	public double getIntegratedLoudness () {
+		double energySum = 0;
+		int energyCount = 0;
+		for (int index = 0; index < this.blockCount; ++index) {
+			if (loudness(this.blockEnergies[index]) > ABSOLUTE_GATE) {
+				energySum += this.blockEnergies[index];
+				energyCount += 1;
+			}
+		}
+		if (energyCount == 0) return Double.NEGATIVE_INFINITY;
+
+		final double relativeGate = loudness(energySum / energyCount) + RELATIVE_GATE;
+		energySum = 0;
+		energyCount = 0;
+		for (int index = 0; index < this.blockCount; ++index) {
+			final double blockLoudness = loudness(this.blockEnergies[index]);
+			if (blockLoudness > ABSOLUTE_GATE & blockLoudness > relativeGate) {
+				energySum += this.blockEnergies[index];
+				energyCount += 1;
+			}
+		}
+		return energyCount == 0 ? Double.NEGATIVE_INFINITY : loudness(energySum / energyCount);
+	}
+
+
+	/**
+	 * Returns the sample peak of the frames processed so far.
+	 * @return the sample peak within range [0, 1]
+	 */
+	public double getPeak () {
+		return this.peak;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void process (final double[] frame) throws NullPointerException {
+		final double[] stepEnergies = this.stepEnergies[this.stepCount & 3];
+		for (int channel = 0; channel < this.channelWeights.length; ++channel) {
+			final double sample = frame[channel];
+			this.peak = Math.max(this.peak, Math.abs(sample));
+
+			final double[] filterState = this.filterStates[channel];
+			final double shelfSample = biquad(this.shelfCoefficients, filterState, 0, sample);
+			final double weightedSample = biquad(this.highpassCoefficients, filterState, 2, shelfSample);
+			stepEnergies[channel] += weightedSample * weightedSample;
+		}
+
+		if (++this.stepFrameIndex == this.stepFrameCount) {
+			this.stepFrameIndex = 0;
+			if (++this.stepCount >= 4) this.addBlock();
+			Arrays.fill(this.stepEnergies[this.stepCount & 3], 0);
+		}
+	}
+
+
+	/**
+	 * Adds a gating block consisting of the last four 100ms steps, i.e. a
+	 * 400ms block overlapping it's predecessor by 75%.
+	 */
+	private void addBlock () {
+		double energy = 0;
+		for (int channel = 0; channel < this.channelWeights.length; ++channel) {
+			double channelEnergy = 0;
+			for (final double[] stepEnergies : this.stepEnergies)
+				channelEnergy += stepEnergies[channel];
+			energy += this.channelWeights[channel] * channelEnergy;
+		}
+
+		if (this.blockCount == this.blockEnergies.length) this.blockEnergies = Arrays.copyOf(this.blockEnergies, this.blockCount << 1);
+		this.blockEnergies[this.blockCount++] = energy / (4 * this.stepFrameCount);
+	}
+
+
+	/**
+	 * Returns the loudness corresponding to the given weighted mean square.
+	 * @param energy the weighted mean square
+	 * @return the loudness in LUFS
+	 */
+	static private double loudness (final double energy) {
+		return -0.691 + 10 * Math.log10(energy);
+	}
+
+
+	/**
+	 * Filters the given sample using a biquad in direct form II, with
+	 * coefficients b0, b1, b2, a1 and a2.
+	 * @param coefficients the filter coefficients
+	 * @param state the filter state
+	 * @param offset the offset of the filter's two state variables
+	 * @param sample the input sample
+	 * @return the output sample
+	 */
+	static private double biquad (final double[] coefficients, final double[] state, final int offset, final double sample) {
+		final double value = sample - coefficients[3] * state[offset] - coefficients[4] * state[offset + 1];
+		final double result = coefficients[0] * value + coefficients[1] * state[offset] + coefficients[2] * state[offset + 1];
+		state[offset + 1] = state[offset];
+		state[offset] = value;
+		return result;
+	}
+}
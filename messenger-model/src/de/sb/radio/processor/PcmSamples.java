@@ -0,0 +1,154 @@
+package de.sb.radio.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+
+/**
+ * Static PCM sample transcoding routines for signed 16-bit little-endian
+ * audio frames, converting between packed samples and normalized sample
+ * values within range [-1, +1], decoding audio content into such frames, and
+ * running them through processors.
+ */
+public final class PcmSamples {
+
+	/**
+	 * Unpacks a normalized sample value within range [-1, +1] from the given
+	 * frame buffer.
+	 * @param frameBuffer the frame buffer
+	 * @param offset the sample offset
+	 * @return the unpacked and normalized sample
+	 * @throws NullPointerException if the given frame buffer is {@code null}
+	 * @throws ArrayIndexOutOfBoundsException if the given offset is out of bounds
+	 */
+	static public double unpackNormalizedSample (final byte[] frameBuffer, final int offset) throws NullPointerException, ArrayIndexOutOfBoundsException {
+		final double sample = (frameBuffer[offset] & 0xFF) + (frameBuffer[offset + 1] << 8);
+		return sample >= 0 ? +sample / Short.MAX_VALUE : -sample / Short.MIN_VALUE;
+	}
+
+
+	/**
+	 * Packs a normalized sample value within range [-1, +1] into the given
+	 * frame buffer, clipping it if necessary.
+	 * @param frameBuffer the frame buffer
+	 * @param offset the sample offset
+	 * @param sample the normalized sample to be packed
+	 * @throws NullPointerException if the given frame buffer is {@code null}
+	 * @throws ArrayIndexOutOfBoundsException if the given offset is out of bounds
+	 */
+	static public void packNormalizedSample (final byte[] frameBuffer, final int offset, double sample) throws NullPointerException, ArrayIndexOutOfBoundsException {
+		sample = sample >= -1 ? (sample <= +1 ? sample : +1) : -1;
+
+		final long value = Math.round(sample >= 0 ? +sample * Short.MAX_VALUE : -sample * Short.MIN_VALUE);
+		frameBuffer[offset] = (byte) (value >>> 0);
+		frameBuffer[offset + 1] = (byte) (value >>> 8);
+	}
+
+
+	/**
+	 * Returns an audio input stream of signed 16-bit little-endian frames
+	 * decoded from the given audio content, using the Java Sound API's
+	 * installed file readers and format converters. The sample rate and
+	 * channel count of the content are retained.
+	 * @param byteSource the audio content, which must support mark and reset
+	 * @return the audio input stream
+	 * @throws NullPointerException if the given byte source is {@code null}
+	 * @throws UnsupportedAudioFileException if the content's audio format is
+	 *         not supported
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public AudioInputStream decode (final InputStream byteSource) throws NullPointerException, UnsupportedAudioFileException, IOException {
+		final AudioInputStream audioSource = AudioSystem.getAudioInputStream(byteSource);
+		final AudioFormat sourceFormat = audioSource.getFormat();
+		final AudioFormat targetFormat = new AudioFormat(sourceFormat.getSampleRate(), 16, sourceFormat.getChannels(), true, false);
+		if (targetFormat.matches(sourceFormat)) return audioSource;
+
+		try {
+			return AudioSystem.getAudioInputStream(targetFormat, audioSource);
+		} catch (final IllegalArgumentException exception) {
+			audioSource.close();
+			throw new UnsupportedAudioFileException(exception.getMessage());
+		}
+	}
+
+
+	/**
+	 * Runs the frames of the given audio input stream through the given
+	 * processor, and optionally writes the processed frames into the given
+	 * byte sink.
+	 * @param audioSource the audio source, providing signed 16-bit
+	 *        little-endian frames
+	 * @param processor the processor
+	 * @param byteSink the byte sink, or {@code null} for none
+	 * @return the number of frames processed
+	 * @throws NullPointerException if the given audio source or processor is
+	 *         {@code null}
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public long process (final AudioInputStream audioSource, final Processor processor, final OutputStream byteSink) throws NullPointerException, IOException {
+		final int frameSize = audioSource.getFormat().getFrameSize();
+		final byte[] buffer = new byte[frameSize << 10];
+		final double[] frame = new double[audioSource.getFormat().getChannels()];
+
+		long frameCount = 0;
+		int bufferLimit = 0;
+		for (int bytesRead = audioSource.read(buffer); bytesRead != -1; bytesRead = audioSource.read(buffer, bufferLimit, buffer.length - bufferLimit)) {
+			bufferLimit += bytesRead;
+			final int frameLimit = bufferLimit - bufferLimit % frameSize;
+
+			for (int offset = 0; offset < frameLimit; offset += frameSize) {
+				for (int channel = 0; channel < frame.length; ++channel)
+					frame[channel] = unpackNormalizedSample(buffer, offset + (channel << 1));
+				processor.process(frame);
+				if (byteSink != null)
+					for (int channel = 0; channel < frame.length; ++channel)
+						packNormalizedSample(buffer, offset + (channel << 1), frame[channel]);
+			}
+
+			if (byteSink != null) byteSink.write(buffer, 0, frameLimit);
+			System.arraycopy(buffer, frameLimit, buffer, 0, bufferLimit - frameLimit);
+			bufferLimit -= frameLimit;
+			frameCount += frameLimit / frameSize;
+		}
+		return frameCount;
+	}
+
+
+	/**
+	 * Writes a canonical WAV header for signed 16-bit little-endian frames of
+	 * the given format into the given byte sink.
+	 * @param byteSink the byte sink
+	 * @param audioFormat the audio format
+	 * @param frameCount the number of frames to follow, or
+	 *        {@link AudioSystem#NOT_SPECIFIED} if unknown, in which case the
+	 *        maximum data size is announced, as is common for streaming
+	 * @throws NullPointerException if any of the given arguments is
+	 *         {@code null}
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public void writeWaveHeader (final OutputStream byteSink, final AudioFormat audioFormat, final long frameCount) throws NullPointerException, IOException {
+		final int channelCount = audioFormat.getChannels();
+		final int sampleRate = Math.round(audioFormat.getSampleRate());
+		final long dataSize = frameCount == AudioSystem.NOT_SPECIFIED ? 0xFFFFFFFFL - 36 : Math.min(frameCount * channelCount * 2, 0xFFFFFFFFL - 36);
+
+		final ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0x46464952).putInt((int) (dataSize + 36)).putInt(0x45564157);
+		header.putInt(0x20746D66).putInt(16).putShort((short) 1).putShort((short) channelCount).putInt(sampleRate).putInt(sampleRate * channelCount * 2).putShort((short) (channelCount * 2)).putShort((short) 16);
+		header.putInt(0x61746164).putInt((int) dataSize);
+		byteSink.write(header.array());
+	}
+
+
+	/**
+	 * Prevents external instantiation.
+	 */
+	private PcmSamples () {
+	}
+}
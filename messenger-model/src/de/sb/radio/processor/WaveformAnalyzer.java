@@ -0,0 +1,205 @@
+package de.sb.radio.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+
+/**
+ * Frame-wise waveform analyzer, which summarizes audio into a multi-resolution
+ * pyramid of min/max peaks suitable for drawing waveforms and scrubbers.
+ * The finest level contains one bucket per {@link #BUCKET_FRAME_COUNT} frames,
+ * and every coarser level merges two buckets of it's predecessor, down to at
+ * most {@link #MIN_BUCKET_COUNT} buckets. A bucket consists of the minimum and
+ * maximum sample across all channels, each quantized into a signed byte, with
+ * the minimum rounded down and the maximum rounded up. The analyzer does not
+ * modify the frames passed, and can therefore be part of a processor chain.
+ * <p>The binary summary format is big-endian, and consists of the sample rate
+ * (float), the total frame count (long), the number of frames per bucket of
+ * the first level (int), and the number of levels (byte); every level follows
+ * with it's bucket count (int), and the min/max byte pairs of it's buckets.
+ * Each level's frames per bucket are twice those of the level before.</p>
+ * @see #select(byte[], int)
+ */
+public class WaveformAnalyzer implements Processor {
+	static public final int BUCKET_FRAME_COUNT = 256;
+	static public final int MIN_BUCKET_COUNT = 64;
+
+	private final float sampleRate;
+	private byte[] buckets;
+	private int bucketCount;
+	private long frameCount;
+	private int bucketFrameIndex;
+	private double bucketMin;
+	private double bucketMax;
+
+
+	/**
+	 * Creates a new instance.
+	 * @param sampleRate the sample rate in Hz
+	 */
+	public WaveformAnalyzer (final float sampleRate) {
+		this.sampleRate = sampleRate;
+		this.buckets = new byte[1024];
+		this.bucketMin = Double.POSITIVE_INFINITY;
+		this.bucketMax = Double.NEGATIVE_INFINITY;
+	}
+
+
+	/**
+	 * Returns a new analyzer that has processed the given audio content,
+	 * which must be decodable by the Java Sound API.
+	 * @param content the audio content, for example a WAV file
+	 * @return the analyzer
+	 * @throws NullPointerException if the given content is {@code null}
+	 * @throws UnsupportedAudioFileException if the given content's audio
+	 *         format is not supported
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public WaveformAnalyzer analyze (final byte[] content) throws NullPointerException, UnsupportedAudioFileException, IOException {
+		try (AudioInputStream audioSource = PcmSamples.decode(new ByteArrayInputStream(content))) {
+			final AudioFormat audioFormat = audioSource.getFormat();
+			final WaveformAnalyzer analyzer = new WaveformAnalyzer(audioFormat.getSampleRate());
+			PcmSamples.process(audioSource, analyzer, null);
+			return analyzer;
+		}
+	}
+
+
+	/**
+	 * Returns a summary containing only the coarsest level of the given
+	 * summary that still has at least the given number of buckets, or the
+	 * finest level if none has. This allows clients to fetch just enough
+	 * resolution for their display width.
+	 * @param summary the summary
+	 * @param minBucketCount the minimum number of buckets
+	 * @return the single level summary
+	 * @throws NullPointerException if the given summary is {@code null}
+	 * @throws IllegalArgumentException if the given summary is malformed
+	 */
+	static public byte[] select (final byte[] summary, final int minBucketCount) throws NullPointerException, IllegalArgumentException {
+		try (DataInputStream dataSource = new DataInputStream(new ByteArrayInputStream(summary))) {
+			final float sampleRate = dataSource.readFloat();
+			final long frameCount = dataSource.readLong();
+			final int bucketFrameCount = dataSource.readInt();
+			final int levelCount = dataSource.readUnsignedByte();
+
+			int levelOffset = 17, levelBucketCount = 0, selectedLevel = -1, selectedOffset = 0, selectedBucketCount = 0;
+			for (int level = 0; level < levelCount; ++level, levelOffset += 4 + 2 * levelBucketCount) {
+				levelBucketCount = dataSource.readInt();
+				if (level == 0 || levelBucketCount >= minBucketCount) {
+					selectedLevel = level;
+					selectedOffset = levelOffset + 4;
+					selectedBucketCount = levelBucketCount;
+				}
+				dataSource.skipBytes(2 * levelBucketCount);
+			}
+			if (selectedLevel == -1 || selectedOffset + 2 * selectedBucketCount > summary.length) throw new IllegalArgumentException();
+
+			final ByteArrayOutputStream byteSink = new ByteArrayOutputStream(22 + 2 * selectedBucketCount);
+			try (DataOutputStream dataSink = new DataOutputStream(byteSink)) {
+				dataSink.writeFloat(sampleRate);
+				dataSink.writeLong(frameCount);
+				dataSink.writeInt(bucketFrameCount << selectedLevel);
+				dataSink.writeByte(1);
+				dataSink.writeInt(selectedBucketCount);
+				dataSink.write(summary, selectedOffset, 2 * selectedBucketCount);
+			}
+			return byteSink.toByteArray();
+		} catch (final IOException exception) {
+			throw new IllegalArgumentException(exception);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void process (final double[] frame) throws NullPointerException {
+		for (final double sample : frame) {
+			if (sample < this.bucketMin) this.bucketMin = sample;
+			if (sample > this.bucketMax) this.bucketMax = sample;
+		}
+
+		this.frameCount += 1;
+		if (++this.bucketFrameIndex == BUCKET_FRAME_COUNT) this.addBucket();
+	}
+
+
+	/**
+	 * Returns the binary summary of the frames processed so far, including a
+	 * partial last bucket.
+	 * @return the summary
+	 */
+	public byte[] toByteArray () {
+		byte[] levelBuckets = Arrays.copyOf(this.buckets, 2 * this.bucketCount + 2);
+		int levelBucketCount = this.bucketCount;
+		if (this.bucketFrameIndex > 0) {
+			levelBuckets[2 * levelBucketCount] = quantize(Math.floor(this.bucketMin * Byte.MAX_VALUE));
+			levelBuckets[2 * levelBucketCount + 1] = quantize(Math.ceil(this.bucketMax * Byte.MAX_VALUE));
+			levelBucketCount += 1;
+		}
+
+		final ByteArrayOutputStream byteSink = new ByteArrayOutputStream(32 + 4 * levelBucketCount);
+		try (DataOutputStream dataSink = new DataOutputStream(byteSink)) {
+			int levelCount = 1;
+			for (int count = levelBucketCount; count > MIN_BUCKET_COUNT; count = (count + 1) >> 1)
+				levelCount += 1;
+
+			dataSink.writeFloat(this.sampleRate);
+			dataSink.writeLong(this.frameCount);
+			dataSink.writeInt(BUCKET_FRAME_COUNT);
+			dataSink.writeByte(levelCount);
+			for (int level = 0; level < levelCount; ++level) {
+				dataSink.writeInt(levelBucketCount);
+				dataSink.write(levelBuckets, 0, 2 * levelBucketCount);
+
+				// merge bucket pairs in place, a trailing odd bucket remains as is
+				final int nextBucketCount = (levelBucketCount + 1) >> 1;
+				for (int bucket = 0; bucket < nextBucketCount; ++bucket) {
+					final int left = 4 * bucket, right = left + 2;
+					final boolean paired = 2 * bucket + 1 < levelBucketCount;
+					levelBuckets[2 * bucket] = paired ? (byte) Math.min(levelBuckets[left], levelBuckets[right]) : levelBuckets[left];
+					levelBuckets[2 * bucket + 1] = paired ? (byte) Math.max(levelBuckets[left + 1], levelBuckets[right + 1]) : levelBuckets[left + 1];
+				}
+				levelBucketCount = nextBucketCount;
+			}
+		} catch (final IOException exception) {
+			// there should never be I/O errors with byte array based I/O
+			// streams
+			throw new AssertionError(exception);
+		}
+		return byteSink.toByteArray();
+	}
+
+
+	/**
+	 * Adds the current bucket, and resets it.
+	 */
+	private void addBucket () {
+		if (2 * this.bucketCount == this.buckets.length) this.buckets = Arrays.copyOf(this.buckets, this.buckets.length << 1);
+		this.buckets[2 * this.bucketCount] = quantize(Math.floor(this.bucketMin * Byte.MAX_VALUE));
+		this.buckets[2 * this.bucketCount + 1] = quantize(Math.ceil(this.bucketMax * Byte.MAX_VALUE));
+		this.bucketCount += 1;
+
+		this.bucketFrameIndex = 0;
+		this.bucketMin = Double.POSITIVE_INFINITY;
+		this.bucketMax = Double.NEGATIVE_INFINITY;
+	}
+
+
+	/**
+	 * Returns the given value clipped into the range of a signed byte.
+	 * @param value the value
+	 * @return the byte value
+	 */
+	static private byte quantize (final double value) {
+		return (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, value));
+	}
+}
@@ -0,0 +1,77 @@
+package de.sb.radio.rest;
+
+import static de.sb.radio.persistence.Person.Group.ADMIN;
+import static de.sb.radio.rest.BasicAuthenticationFilter.REQUESTER_IDENTITY;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.validation.constraints.Positive;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import de.sb.radio.persistence.Person;
+
+
+/**
+ * JAX-RS based REST service implementation for administrative resources,
+ * defining the following path and method combinations:
+ * <ul>
+ * <li>GET admin/statistics: Returns the current values of all registered
+ * service gauges.</li>
+ * <li>GET admin/metrics: Returns the per-endpoint request statistics and all
+ * registered service gauges in the Prometheus text exposition format.</li>
+ * </ul>
+ */
+@Path("admin")
+public class AdminService {
+	static private final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Returns the current values of all gauges registered with
+	 * {@link ServiceMetrics}, sorted by name.
+	 *
+	 * @param requesterIdentity
+	 *            the authenticated requester identity
+	 * @return the gauge values mapped by their names (HTTP 200)
+	 * @throws ClientErrorException
+	 *             (HTTP 403) if the given requester is not an administrator
+	 */
+	@GET
+	@Path("statistics")
+	@Produces(APPLICATION_JSON)
+	public Map<String, Number> queryStatistics (@HeaderParam(REQUESTER_IDENTITY) @Positive final long requesterIdentity) {
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+		final Person requester = radioManager.find(Person.class, requesterIdentity);
+		if (requester == null || requester.getGroup() != ADMIN)
+			throw new ClientErrorException(FORBIDDEN);
+
+		return ServiceMetrics.snapshot();
+	}
+
+
+	/**
+	 * Returns the request statistics recorded with {@link RequestMetrics},
+	 * together with all gauges registered with {@link ServiceMetrics}, in the
+	 * Prometheus text exposition format.
+	 *
+	 * @param requesterIdentity
+	 *            the authenticated requester identity
+	 * @return the exposition text (HTTP 200)
+	 * @throws ClientErrorException
+	 *             (HTTP 403) if the given requester is not an administrator
+	 */
+	@GET
+	@Path("metrics")
+	@Produces(PROMETHEUS_TEXT)
+	public String queryMetrics (@HeaderParam(REQUESTER_IDENTITY) @Positive final long requesterIdentity) {
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+		final Person requester = radioManager.find(Person.class, requesterIdentity);
+		if (requester == null || requester.getGroup() != ADMIN)
+			throw new ClientErrorException(FORBIDDEN);
+
+		return RequestMetrics.exposition();
+	}
+}
@@ -19,7 +19,6 @@ import de.sb.radio.persistence.Person;
 import de.sb.toolbox.Copyright;
 import de.sb.toolbox.net.HttpCredentials;
 import de.sb.toolbox.net.RestCredentials;
-import de.sb.toolbox.net.RestJpaLifecycleProvider;
 
 
 /**
@@ -64,7 +63,7 @@ public class BasicAuthenticationFilter implements ContainerRequestFilter {
 		if (textCredentials != null) {
 			final HttpCredentials.Basic credentials = RestCredentials.newBasicInstance(textCredentials);
 
-			final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+			final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 			final List<Person> people = radioManager.createQuery("select p from Person as p where p.email = :email", Person.class).setParameter("email", credentials.getUsername()).getResultList();
 
 			if (people.size() == 1) {
@@ -0,0 +1,262 @@
+package de.sb.radio.rest;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Size bounded cache for document content, keyed by hexadecimal content hash.
+ * Content is stored outside of the Java heap within direct byte buffers, which
+ * keeps multi-megabyte documents from crowding the heap and the 2nd level
+ * cache, and allows the content to be written to channels without further
+ * copying into heap arrays. Eviction follows a segmented LRU policy: new
+ * entries enter a probationary segment, and are promoted into a protected
+ * segment once they're hit again; therefore a scan of one-time requests can
+ * never flush frequently requested content like avatars or popular recordings.
+ * Note that the direct memory of evicted entries is released once the garbage
+ * collector reclaims their buffers, so the JVM's maximum direct memory size
+ * should exceed the cache capacity with some headroom.
+ */
+public class ContentCache {
+
+	private final long capacity;
+	private final long protectedCapacity;
+	private final long maximumEntrySize;
+	private final Map<String, ByteBuffer> probationSegment;
+	private final Map<String, ByteBuffer> protectedSegment;
+	private final Set<String> pendingKeys;
+	private final AtomicLong hitCount;
+	private final AtomicLong missCount;
+	private long probationSize;
+	private long protectedSize;
+
+
+	/**
+	 * Creates a new instance, and registers it's gauges using the given name
+	 * as metric name prefix. The protected segment is granted 80% of the given
+	 * capacity, and entries larger than 1/16 of the given capacity are never
+	 * cached.
+	 *
+	 * @param name
+	 *            the metric name prefix
+	 * @param capacity
+	 *            the capacity in bytes
+	 * @throws NullPointerException
+	 *             if the given name is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the given capacity is negative
+	 */
+	public ContentCache (final String name, final long capacity) throws NullPointerException, IllegalArgumentException {
+		if (name == null) throw new NullPointerException();
+		if (capacity < 0) throw new IllegalArgumentException();
+
+		this.capacity = capacity;
+		this.protectedCapacity = capacity / 5 * 4;
+		this.maximumEntrySize = capacity / 16;
+		this.probationSegment = new LinkedHashMap<>(64, 0.75f, true);
+		this.protectedSegment = new LinkedHashMap<>(64, 0.75f, true);
+		this.pendingKeys = new HashSet<>();
+		this.hitCount = new AtomicLong();
+		this.missCount = new AtomicLong();
+
+		ServiceMetrics.register(name + "_capacity_bytes", this::getCapacity);
+		ServiceMetrics.register(name + "_resident_bytes", this::getResidentSize);
+		ServiceMetrics.register(name + "_entries", this::getEntryCount);
+		ServiceMetrics.register(name + "_hits_total", this.hitCount::get);
+		ServiceMetrics.register(name + "_misses_total", this.missCount::get);
+		ServiceMetrics.register(name + "_hit_ratio", this::getHitRatio);
+	}
+
+
+	/**
+	 * Returns the capacity.
+	 *
+	 * @return the capacity in bytes
+	 */
+	public long getCapacity () {
+		return this.capacity;
+	}
+
+
+	/**
+	 * Returns the number of content bytes currently resident in this cache.
+	 *
+	 * @return the resident size in bytes
+	 */
+	public synchronized long getResidentSize () {
+		return this.probationSize + this.protectedSize;
+	}
+
+
+	/**
+	 * Returns the number of entries currently resident in this cache.
+	 *
+	 * @return the entry count
+	 */
+	public synchronized int getEntryCount () {
+		return this.probationSegment.size() + this.protectedSegment.size();
+	}
+
+
+	/**
+	 * Returns the ratio of cache hits to all cache lookups.
+	 *
+	 * @return the hit ratio within range [0, 1]
+	 */
+	public double getHitRatio () {
+		final long hitCount = this.hitCount.get();
+		final long lookupCount = hitCount + this.missCount.get();
+		return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+	}
+
+
+	/**
+	 * Returns whether or not content of the given size would be admitted into
+	 * this cache.
+	 *
+	 * @param size
+	 *            the content size in bytes
+	 * @return {@code true} if the given size is cacheable, {@code false}
+	 *         otherwise
+	 */
+	public boolean isCacheable (final long size) {
+		return size <= this.maximumEntrySize;
+	}
+
+
+	/**
+	 * Returns the content matching the given key, and promotes it into the
+	 * protected segment if it is hit for the second time.
+	 *
+	 * @param key
+	 *            the hexadecimal content hash
+	 * @return a read-only view of the cached content, or {@code null} for none
+	 * @throws NullPointerException
+	 *             if the given key is {@code null}
+	 */
+	public ByteBuffer get (final String key) throws NullPointerException {
+		if (key == null) throw new NullPointerException();
+
+		final ByteBuffer content;
+		synchronized (this) {
+			ByteBuffer buffer = this.protectedSegment.get(key);
+			if (buffer == null) {
+				buffer = this.probationSegment.remove(key);
+				if (buffer != null) {
+					this.probationSize -= buffer.capacity();
+					this.protectedSegment.put(key, buffer);
+					this.protectedSize += buffer.capacity();
+					this.demoteProtectedEntries();
+				}
+			}
+			content = buffer == null ? null : buffer.asReadOnlyBuffer();
+		}
+
+		(content == null ? this.missCount : this.hitCount).incrementAndGet();
+		return content;
+	}
+
+
+	/**
+	 * Copies the given content outside of the Java heap, and associates it
+	 * with the given key, unless content is associated with said key already.
+	 * The key is reserved while copying, so that concurrent misses of the same
+	 * content allocate direct memory only once; content that is not cacheable,
+	 * or whose key is reserved by another thread, is ignored.
+	 *
+	 * @param key
+	 *            the hexadecimal content hash
+	 * @param content
+	 *            the content
+	 * @return a read-only view of the cached content, or {@code null} if the
+	 *         content is not cacheable, or currently being copied by another
+	 *         thread
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 */
+	public ByteBuffer put (final String key, final byte[] content) throws NullPointerException {
+		if (key == null | content == null) throw new NullPointerException();
+		if (!this.isCacheable(content.length)) return null;
+
+		synchronized (this) {
+			final ByteBuffer buffer = this.protectedSegment.containsKey(key) ? this.protectedSegment.get(key) : this.probationSegment.get(key);
+			if (buffer != null) return buffer.asReadOnlyBuffer();
+			if (!this.pendingKeys.add(key)) return null;
+		}
+
+		// copy outside of the monitor, as it may take a while for large content
+		ByteBuffer buffer = null;
+		try {
+			buffer = ByteBuffer.allocateDirect(content.length);
+			buffer.put(content).flip();
+		} finally {
+			synchronized (this) {
+				this.pendingKeys.remove(key);
+				if (buffer != null) {
+					this.probationSegment.put(key, buffer);
+					this.probationSize += buffer.capacity();
+					this.evictEntries();
+				}
+			}
+		}
+		return buffer.asReadOnlyBuffer();
+	}
+
+
+	/**
+	 * Removes the content matching the given key.
+	 *
+	 * @param key
+	 *            the hexadecimal content hash
+	 * @throws NullPointerException
+	 *             if the given key is {@code null}
+	 */
+	public synchronized void remove (final String key) throws NullPointerException {
+		if (key == null) throw new NullPointerException();
+
+		final ByteBuffer probationBuffer = this.probationSegment.remove(key);
+		if (probationBuffer != null) this.probationSize -= probationBuffer.capacity();
+		final ByteBuffer protectedBuffer = this.protectedSegment.remove(key);
+		if (protectedBuffer != null) this.protectedSize -= protectedBuffer.capacity();
+	}
+
+
+	/**
+	 * Demotes the least recently used protected entries into the probationary
+	 * segment until the protected segment fits it's capacity again. Must be
+	 * called while holding this cache's monitor.
+	 */
+	private void demoteProtectedEntries () {
+		for (final Iterator<Map.Entry<String, ByteBuffer>> iterator = this.protectedSegment.entrySet().iterator(); this.protectedSize > this.protectedCapacity && iterator.hasNext();) {
+			final Map.Entry<String, ByteBuffer> entry = iterator.next();
+			iterator.remove();
+			this.protectedSize -= entry.getValue().capacity();
+			this.probationSegment.put(entry.getKey(), entry.getValue());
+			this.probationSize += entry.getValue().capacity();
+		}
+		this.evictEntries();
+	}
+
+
+	/**
+	 * Evicts the least recently used probationary entries, and if need be
+	 * protected entries, until this cache fits it's capacity again. Must be
+	 * called while holding this cache's monitor.
+	 */
+	private void evictEntries () {
+		for (final Iterator<ByteBuffer> iterator = this.probationSegment.values().iterator(); this.probationSize + this.protectedSize > this.capacity && iterator.hasNext();) {
+			this.probationSize -= iterator.next().capacity();
+			iterator.remove();
+		}
+
+		for (final Iterator<ByteBuffer> iterator = this.protectedSegment.values().iterator(); this.probationSize + this.protectedSize > this.capacity && iterator.hasNext();) {
+			this.protectedSize -= iterator.next().capacity();
+			iterator.remove();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package de.sb.radio.rest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This facade provides thread pools based on a fixed number of daemon threads,
+ * which time out when idle. They suit work handed off by services, like
+ * document transfers, audio rendering or waveform generation, which must
+ * never keep the JVM alive, and should not hold on to threads while there is
+ * nothing to do.
+ */
+public final class DaemonExecutors {
+
+	/**
+	 * Returns a new thread pool based on the given number of daemon threads of
+	 * normal priority, and an unbounded queue.
+	 *
+	 * @param name
+	 *            the thread name prefix
+	 * @param threadCount
+	 *            the maximum number of threads
+	 * @return the thread pool created
+	 * @throws NullPointerException
+	 *             if the given name is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the given thread count is not positive
+	 */
+	static public ThreadPoolExecutor newInstance (final String name, final int threadCount) throws NullPointerException, IllegalArgumentException {
+		return newInstance(name, threadCount, Integer.MAX_VALUE, Thread.NORM_PRIORITY);
+	}
+
+
+	/**
+	 * Returns a new thread pool based on the given number of daemon threads of
+	 * the given priority, and a queue of the given capacity. Tasks exceeding
+	 * the latter are passed to the pool's rejected execution handler, which
+	 * throws a {@link java.util.concurrent.RejectedExecutionException} unless
+	 * replaced.
+	 *
+	 * @param name
+	 *            the thread name prefix
+	 * @param threadCount
+	 *            the maximum number of threads
+	 * @param queueCapacity
+	 *            the maximum number of queued tasks, or
+	 *            {@link Integer#MAX_VALUE} for an unbounded queue
+	 * @param threadPriority
+	 *            the thread priority
+	 * @return the thread pool created
+	 * @throws NullPointerException
+	 *             if the given name is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the given thread count or queue capacity is not positive,
+	 *             or if the given priority is out of range
+	 */
+	static public ThreadPoolExecutor newInstance (final String name, final int threadCount, final int queueCapacity, final int threadPriority) throws NullPointerException, IllegalArgumentException {
+		if (name == null) throw new NullPointerException();
+		if (threadCount <= 0 | queueCapacity <= 0 | threadPriority < Thread.MIN_PRIORITY | threadPriority > Thread.MAX_PRIORITY) throw new IllegalArgumentException();
+
+		final BlockingQueue<Runnable> queue = queueCapacity == Integer.MAX_VALUE ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(queueCapacity);
+		final AtomicInteger threadNumber = new AtomicInteger();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS, queue, runnable -> {
+			final Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(threadPriority);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+
+	/**
+	 * Prevents external instantiation.
+	 */
+	private DaemonExecutors () {
+	}
+}
@@ -2,25 +2,49 @@ package de.sb.radio.rest;
 
 import static de.sb.radio.persistence.Person.Group.*;
 import static de.sb.radio.rest.BasicAuthenticationFilter.REQUESTER_IDENTITY;
+import static javax.ws.rs.core.HttpHeaders.CACHE_CONTROL;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_LENGTH;
+import static javax.ws.rs.core.HttpHeaders.RETRY_AFTER;
 import static javax.ws.rs.core.MediaType.*;
 import static javax.ws.rs.core.MediaType.APPLICATION_XML;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.FORBIDDEN;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
-import javax.persistence.RollbackException;
 import javax.persistence.TypedQuery;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Positive;
 import javax.validation.constraints.PositiveOrZero;
 import javax.ws.rs.ClientErrorException;
@@ -33,17 +57,29 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import de.sb.radio.persistence.Album;
 import de.sb.radio.persistence.BaseEntity;
 import de.sb.radio.persistence.Document;
 import de.sb.radio.persistence.HashTools;
 import de.sb.radio.persistence.Person;
 import de.sb.radio.persistence.Track;
+import de.sb.radio.processor.Compressor;
+import de.sb.radio.processor.LoudnessAnalyzer;
+import de.sb.radio.processor.PcmSamples;
+import de.sb.radio.processor.Processor;
+import de.sb.radio.processor.Volume;
 import de.sb.toolbox.Copyright;
-import de.sb.toolbox.net.RestJpaLifecycleProvider;
 import de.sb.toolbox.val.NotEqual;
 
 
@@ -51,6 +87,7 @@ import de.sb.toolbox.val.NotEqual;
  * JAX-RS based REST service implementation for polymorphic entity resources,
  * defining the following path and method combinations:
  * <ul>
+ * <li>GET entities: Returns the entities matching the given identities.</li>
  * <li>GET entities/{id}: Returns the entity matching the given identity.</li>
  * <li>DELETE entities/{id}: Deletes the entity matching the given
  * identity.</li>
@@ -66,31 +103,71 @@ public class EntityService {
 
 	static private final Set<String> EMPTY_WORD_SINGLETON = Collections.singleton("");
 	static private final Set<Byte> EMPTY_BYTE_SINGLETON = Collections.singleton(Byte.valueOf((byte) -1));
+	static private final String QUERY_ENTITIES = "select e from BaseEntity as e where e.identity in :identities";
+	static private final String QUERY_ENTITY_DISCRIMINATOR = "select discriminator from radio.BaseEntity where identity = ?1";
+	static private final String QUERY_DOCUMENT_EXISTS = "select count(d.identity) from Document as d where d.identity = :identity";
+	static private final int MAX_ENTITY_BATCH_SIZE = 100;
 	static private final String QUERY_DOCUMENT_BY_HASH = "select d.identity from Document as d where d.contentHash = :contentHash";
+	static private final String QUERY_DOCUMENT_METADATA = "select d.contentHash, d.contentType, d.creationTimestamp, d.loudness, d.peak from Document as d where d.identity = :identity";
+	static private final String QUERY_DOCUMENT_METADATA_BY_HASH = "select d.contentHash, d.contentType, d.creationTimestamp, d.loudness, d.peak from Document as d where d.contentHash = :contentHash";
+	static private final String QUERY_DOCUMENT_CONTENT = "select d.content from Document as d where d.contentHash = :contentHash";
 	static private final String QUERY_ALBUMS = "select a.identity from Album as a where " 
 			+ "((:title is null) or (a.title = :title)) and " 
 			+ "((:releaseYear is null) or (a.releaseYear = :releaseYear)) and "
-			+ "((:trackCount is null) or (a.trackCount = :trackCount))";
+			+ "((:trackCount is null) or (a.trackCount = :trackCount)) "
+			+ "order by a.title, a.identity";
 	static private final String QUERY_TRACKS = "select t.identity from Track as t where " 
 			+ "((:name is null) or (t.name = :name)) and " 
 			+ "((:artist is null) or (t.artist = :artist)) and "
 			+ "((:ignoreGenres = true) or (t.genre in :genres)) and "
-			+ "((:ignoreOrdinals = true) or (t.ordinal in :ordinals))";
+			+ "((:ignoreOrdinals = true) or (t.ordinal in :ordinals)) "
+			+ "order by t.name, t.identity";
 	static private final String QUERY_PEOPLE = "select p.identity from Person p where " 
 			+ "((:surname is null) or (p.surname = :surname)) and " 
 			+ "((:forename is null) or (p.forename = :forename)) and " 
-			+ "((:email is null) or (p.email = :email))";
+			+ "((:email is null) or (p.email = :email)) "
+			+ "order by p.surname, p.forename, p.email";
 
 	static private final String QUERY_GENRES = "select distinct t.genre from Track as t";
 	static private final String QUERY_ARTISTS = "select distinct t.artist from Track as t";
 
+	// entities may change any time, and some are requester specific; therefore
+	// they must be revalidated using their entity tags. Document content never
+	// changes once stored, as it is identified by it's content hash.
+	static private final String ENTITY_CACHE_CONTROL = "private, no-cache";
+	static private final String DOCUMENT_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	// normalized recordings are played at this integrated loudness in LUFS
+	static private final double TARGET_LOUDNESS = Double.parseDouble(System.getProperty("radio.loudness.target", "-18"));
+
+	// hot document content is served from outside of the Java heap
+	static private final ContentCache CONTENT_CACHE = new ContentCache("radio_content_cache", Long.getLong("radio.content-cache.capacity", 256L << 20));
+
+	// processed audio is rendered once per parameter combination, and kept on disk;
+	// content that cannot be decoded is remembered, and served unprocessed
+	static private final RenditionCache RENDITION_CACHE = newRenditionCache();
+	static private final Set<String> UNDECODABLE_CONTENT_KEYS = newUndecodableContentKeys(Integer.getInteger("radio.rendition-cache.undecodable-capacity", 4096));
+
+	// document lookups are limited to roughly the connection pool size, while
+	// transfers to slow clients may take a while without touching the database;
+	// requests exceeding either queue are answered with HTTP 503 right away;
+	// uploads are analyzed beforehand by low priority threads, so decoding
+	// recordings never occupies lookup threads
+	static private final String DOCUMENT_RETRY_SECONDS = "1";
+	static private final ExecutorService DOCUMENT_ANALYZER_EXECUTOR = newDocumentExecutor("document-analyzer", Integer.getInteger("radio.document.analyzer-threads", Runtime.getRuntime().availableProcessors()), Integer.getInteger("radio.document.analyzer-queue", 64), Thread.MIN_PRIORITY);
+	static private final ExecutorService DOCUMENT_LOOKUP_EXECUTOR = newDocumentExecutor("document-lookup", Integer.getInteger("radio.document.lookup-threads", 16), Integer.getInteger("radio.document.lookup-queue", 1024), Thread.NORM_PRIORITY);
+	static private final ExecutorService DOCUMENT_TRANSFER_EXECUTOR = newDocumentExecutor("document-transfer", Integer.getInteger("radio.document.transfer-threads", 256), Integer.getInteger("radio.document.transfer-queue", 1024), Thread.NORM_PRIORITY);
+
 
 	/**
 	 * Returns the entity with the given identity.
 	 * 
+	 * @param request
+	 *            the HTTP request
 	 * @param entityIdentity
 	 *            the entity identity
-	 * @return the matching entity (HTTP 200)
+	 * @return the matching entity (HTTP 200), or none (HTTP 304) if the
+	 *         client's entity tag is still valid
 	 * @throws ClientErrorException
 	 *             (HTTP 404) if the given entity cannot be found
 	 * @throws PersistenceException
@@ -102,13 +179,67 @@ public class EntityService {
 	@GET
 	@Path("entities/{id}")
 	@Produces({ APPLICATION_JSON, APPLICATION_XML })
-	public BaseEntity queryEntity (@PathParam("id") @Positive final long entityIdentity) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
-		final BaseEntity entity = radioManager.find(BaseEntity.class, entityIdentity);
+	public Response queryEntity (@Context final Request request, @PathParam("id") @Positive final long entityIdentity) {
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+		final BaseEntity entity = findEntity(radioManager, entityIdentity);
 		if (entity == null)
 			throw new ClientErrorException(NOT_FOUND);
 
-		return entity;
+		return conditionalResponse(request, entity, ENTITY_CACHE_CONTROL);
+	}
+
+
+	/**
+	 * Returns the entities matching the given identities, using a single
+	 * polymorphic query across the entity hierarchy. Identities without a
+	 * matching entity are skipped; the remaining entities are returned in the
+	 * order of their first occurrence within the given identities. The entity
+	 * tag is derived from all entities' validators, see
+	 * {@link #entityValidator(BaseEntity)}.
+	 * 
+	 * @param request
+	 *            the HTTP request
+	 * @param entityIdentities
+	 *            the entity identities, passed as repeated "id" query
+	 *            parameters
+	 * @return the matching entities (HTTP 200), or none (HTTP 304) if the
+	 *         client's entity tag is still valid
+	 * @throws ClientErrorException
+	 *             (HTTP 400) if no identities or more than 100 distinct
+	 *             identities are given
+	 * @throws PersistenceException
+	 *             (HTTP 500) if there is a problem with the persistence layer
+	 * @throws IllegalStateException
+	 *             (HTTP 500) if the entity manager associated with the current
+	 *             thread is not open
+	 */
+	@GET
+	@Path("entities")
+	@Produces(APPLICATION_JSON)
+	public Response queryEntities (@Context final Request request, @QueryParam("id") @NotNull final List<@Positive Long> entityIdentities) {
+		final Set<Long> identities = new LinkedHashSet<>(entityIdentities);
+		if (identities.isEmpty() || identities.size() > MAX_ENTITY_BATCH_SIZE)
+			throw new ClientErrorException(Status.BAD_REQUEST);
+
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+		final Map<Long, BaseEntity> entityMap = new HashMap<>();
+		for (final BaseEntity entity : radioManager.createQuery(QUERY_ENTITIES, BaseEntity.class).setParameter("identities", identities).getResultList())
+			entityMap.put(entity.getIdentity(), entity);
+
+		final List<BaseEntity> entities = new ArrayList<>();
+		final StringBuilder validators = new StringBuilder();
+		for (final Long identity : identities) {
+			final BaseEntity entity = entityMap.get(identity);
+			if (entity == null) continue;
+
+			entities.add(entity);
+			validators.append(entityValidator(entity)).append(',');
+		}
+
+		final EntityTag entityTag = new EntityTag(HashTools.toHexString(HashTools.sha256HashCode(validators.toString())));
+		ResponseBuilder builder = request.evaluatePreconditions(entityTag);
+		if (builder == null) builder = Response.ok(new GenericEntity<List<BaseEntity>>(entities) {});
+		return builder.tag(entityTag).header(CACHE_CONTROL, ENTITY_CACHE_CONTROL).build();
 	}
 
 
@@ -138,24 +269,23 @@ public class EntityService {
 	@Path("entities/{id}")
 	public void deleteEntity (@HeaderParam(REQUESTER_IDENTITY) @Positive final long requesterIdentity, @PathParam("id") @Positive final long entityIdentity) {
 
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final Person requester = radioManager.find(Person.class, requesterIdentity);
 		if (requester == null || requester.getGroup() != ADMIN)
 			throw new ClientErrorException(FORBIDDEN);
 
-		// TODO: check if getReference() works once
-		// https://bugs.eclipse.org/bugs/show_bug.cgi?id=460063 is fixed.
-		final BaseEntity entity = radioManager.find(BaseEntity.class, entityIdentity);
+		final BaseEntity entity = findEntity(radioManager, entityIdentity);
 		if (entity == null)
 			throw new ClientErrorException(NOT_FOUND);
-		radioManager.remove(entity);
 
+		radioManager.getTransaction().begin();
 		try {
+			radioManager.remove(entity);
 			radioManager.getTransaction().commit();
-		} catch (final RollbackException exception) {
+		} catch (final PersistenceException exception) {
 			throw new ClientErrorException(CONFLICT);
 		} finally {
-			radioManager.getTransaction().begin();
+			if (radioManager.getTransaction().isActive()) radioManager.getTransaction().rollback();
 		}
 
 		radioManager.getEntityManagerFactory().getCache().evict(BaseEntity.class, entityIdentity);
@@ -173,7 +303,7 @@ public class EntityService {
 	@Path("people")
 	@Produces(APPLICATION_JSON)
 	public List<Person> returnPeople (@QueryParam("surname") String surname, @QueryParam("forename") String forename, @QueryParam("email") String email) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		
 		final TypedQuery<Long> query = radioManager.createQuery(QUERY_PEOPLE, Long.class);		
 		query.setParameter("surname", surname);
@@ -201,7 +331,7 @@ public class EntityService {
 	@Produces(TEXT_PLAIN)
 	public long createOrModifyPerson (@NotNull @Valid Person personTemplate, @HeaderParam(REQUESTER_IDENTITY) @PositiveOrZero final long requesterIdentity, @HeaderParam("Set-Password") final String password,
 			@QueryParam("avatarReference") final Long avatarReference) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final Person requester = radioManager.find(Person.class, requesterIdentity);
 
 		if (requester.getGroup() != ADMIN) {
@@ -215,7 +345,7 @@ public class EntityService {
 		final Person person;
 
 		if (insert) { // neue Person erstellen mit default Avatar
-			final Document defaultAvatar = radioManager.find(Document.class, 1L);
+			final Document defaultAvatar = documentReference(radioManager, 1L);
 			if (defaultAvatar == null)
 				throw new IllegalStateException(); // ErrorCode 500
 			person = new Person(defaultAvatar);
@@ -233,7 +363,7 @@ public class EntityService {
 			throw new ClientErrorException(FORBIDDEN);
 
 		if (avatarReference != null) {
-			final Document avatar = radioManager.find(Document.class, avatarReference);
+			final Document avatar = documentReference(radioManager, avatarReference);
 			if (avatar == null)
 				throw new ClientErrorException(Status.NOT_FOUND);
 			person.setAvatar(avatar);
@@ -250,19 +380,19 @@ public class EntityService {
 
 		// 3. Schritt
 
-		if (insert) {
-			radioManager.persist(person);
-		} else {
-			radioManager.flush(); // für alle veränderten Objekte im 1st Level
-									// Cache
-		}
-
+		radioManager.getTransaction().begin();
 		try {
+			if (insert) {
+				radioManager.persist(person);
+			} else {
+				radioManager.flush(); // für alle veränderten Objekte im 1st Level
+										// Cache
+			}
 			radioManager.getTransaction().commit();
 		} catch (PersistenceException error) {
 			throw new ClientErrorException(Status.CONFLICT);
 		} finally {
-			radioManager.getTransaction().begin();
+			if (radioManager.getTransaction().isActive()) radioManager.getTransaction().rollback();
 		}
 		return person.getIdentity();
 	}
@@ -271,13 +401,13 @@ public class EntityService {
 	@GET
 	@Path("people/{id}")
 	@Produces(APPLICATION_JSON)
-	public Person queryPersonId (@PathParam("id") @PositiveOrZero final long personIdentity, @HeaderParam(REQUESTER_IDENTITY) @Positive final long requesterIdentity) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+	public Response queryPersonId (@Context final Request request, @PathParam("id") @PositiveOrZero final long personIdentity, @HeaderParam(REQUESTER_IDENTITY) @Positive final long requesterIdentity) {
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final long identity = personIdentity == 0 ? requesterIdentity : personIdentity;
 		final Person person = radioManager.find(Person.class, identity);
 		if (person == null)
 			throw new ClientErrorException(Status.NOT_FOUND);
-		return person;
+		return conditionalResponse(request, person, ENTITY_CACHE_CONTROL);
 	}
 
 
@@ -286,7 +416,7 @@ public class EntityService {
 	@Produces(APPLICATION_JSON)
 	public Collection<Album> queryAlbums (@QueryParam("resultOffset") int resultOffset, @QueryParam("resultLimit") int resultLimit, @QueryParam("title") String title, @QueryParam("releaseYear") Short releaseYear,
 			@QueryParam("trackCount") Byte trackCount) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final TypedQuery<Long> query = radioManager.createQuery(QUERY_ALBUMS, Long.class);
 		if (resultOffset > 0)
 			query.setFirstResult(resultOffset);
@@ -317,7 +447,7 @@ public class EntityService {
 			@HeaderParam(REQUESTER_IDENTITY) @PositiveOrZero final long requesterIdentity, 
 			@QueryParam("coverReference") final Long coverReference
 	) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final Person requester = radioManager.find(Person.class, requesterIdentity);
 
 		if (requester == null || requester.getGroup() != ADMIN)
@@ -339,23 +469,23 @@ public class EntityService {
 		album.setTrackCount(albumTemplate.getTrackCount());
 		
 		if (coverReference != null) {
-			final Document cover = radioManager.find(Document.class, coverReference);
+			final Document cover = documentReference(radioManager, coverReference);
 			if (cover == null) throw new ClientErrorException(NOT_FOUND);
 			album.setCover(cover);
 		}
 
-		if (insert) {
-			radioManager.persist(album);
-		} else {
-			radioManager.flush();
-		}
-
+		radioManager.getTransaction().begin();
 		try {
+			if (insert) {
+				radioManager.persist(album);
+			} else {
+				radioManager.flush();
+			}
 			radioManager.getTransaction().commit();
 		} catch (PersistenceException error) {
 			throw new ClientErrorException(Status.CONFLICT);
 		} finally {
-			radioManager.getTransaction().begin();
+			if (radioManager.getTransaction().isActive()) radioManager.getTransaction().rollback();
 		}
 		return album.getIdentity();
 	}
@@ -372,7 +502,7 @@ public class EntityService {
 			@QueryParam("genre") @NotNull Set<String> genres,
 			@QueryParam("ordinal") @NotNull Set<Byte> ordinals
 	) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final TypedQuery<Long> query = radioManager.createQuery(QUERY_TRACKS, Long.class);
 		
 		if (resultOffset > 0)
@@ -408,7 +538,7 @@ public class EntityService {
 			@QueryParam("recordingReference") final Long recordingReference,
 			@QueryParam("albumReference") final Long albumReference
 	) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final Person requester = radioManager.find(Person.class, requesterIdentity);		
 		if (requester == null) throw new ClientErrorException(NOT_FOUND);
 		if (requester.getGroup() != ADMIN) throw new ClientErrorException(FORBIDDEN);
@@ -430,7 +560,7 @@ public class EntityService {
 		track.setOrdinal(trackTemplate.getOrdinal());
 
 		if (recordingReference != null) {
-			final Document recording = radioManager.find(Document.class, recordingReference);
+			final Document recording = documentReference(radioManager, recordingReference);
 			if (recording == null) throw new ClientErrorException(NOT_FOUND);
 			track.setRecording(recording);
 		}
@@ -441,18 +571,18 @@ public class EntityService {
 			track.setAlbum(album);
 		}
 
-		if (insert) {
-			radioManager.persist(track);
-		} else {
-			radioManager.flush();
-		}
-
+		radioManager.getTransaction().begin();
 		try {
+			if (insert) {
+				radioManager.persist(track);
+			} else {
+				radioManager.flush();
+			}
 			radioManager.getTransaction().commit();
 		} catch (PersistenceException error) {
 			throw new ClientErrorException(Status.CONFLICT);
 		} finally {
-			radioManager.getTransaction().begin();
+			if (radioManager.getTransaction().isActive()) radioManager.getTransaction().rollback();
 		}
 
 		final Cache cache = radioManager.getEntityManagerFactory().getCache();
@@ -466,76 +596,162 @@ public class EntityService {
 	@GET
 	@Path("albums/{id}")
 	@Produces(APPLICATION_JSON)
-	public Album queryAlbum (@PathParam("id") @Positive final long albumIdentity) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+	public Response queryAlbum (@Context final Request request, @PathParam("id") @Positive final long albumIdentity) {
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final Album album = radioManager.find(Album.class, albumIdentity);
 		if (album == null)
 			throw new ClientErrorException(Status.NOT_FOUND);
-		return album;
+		return conditionalResponse(request, album, ENTITY_CACHE_CONTROL);
 	}
 
 
+	/**
+	 * Asynchronously returns the content of the document matching the given
+	 * identity. The metadata and content lookup happens on the document lookup
+	 * pool, and the content transfer on the document transfer pool, so neither
+	 * pins a server thread. Audio content may be rendered as WAV with it's
+	 * stored loudness normalized, and/or the given volume and compression
+	 * applied; normalization merely applies the gain stored upon upload, and
+	 * therefore doesn't analyze the recording again.
+	 * 
+	 * @param response
+	 *            the asynchronous response, resumed with the document content
+	 *            (HTTP 200), or none (HTTP 304) if the client's entity tag is
+	 *            still valid, or (HTTP 404) if the given document cannot be
+	 *            found, or (HTTP 503) if the document pools are saturated
+	 * @param request
+	 *            the HTTP request
+	 * @param documentIdentity
+	 *            the document identity
+	 * @param audioNormalize
+	 *            whether or not audio content shall be normalized to the
+	 *            target loudness
+	 * @param audioVolume
+	 *            the audio volume factor, or {@code null} for none
+	 * @param audioCompressionRatio
+	 *            the audio compression ratio, or {@code null} for none
+	 */
 	@GET
 	@Path("documents/{id}")
 	@Produces(WILDCARD)
-	public Response queryDocument (
+	public void queryDocument (
+			@Suspended final AsyncResponse response,
+			@Context final Request request,
 			@PathParam("id") final long documentIdentity,
 			@QueryParam("height") final Integer imgHeight,
 			@QueryParam("width") final Integer imgWidth,
-			@QueryParam("volume") final Double audioVolume,
-			@QueryParam("compressionRatio") final Double audioCompressionRatio,
+			@QueryParam("normalize") final boolean audioNormalize,
+			@QueryParam("volume") @PositiveOrZero final Double audioVolume,
+			@QueryParam("compressionRatio") @Positive final Double audioCompressionRatio,
 			@QueryParam("crossfadeDuration") final Double audioCrossfadeDuration
 	) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
-		final Document document = radioManager.find(Document.class, documentIdentity);
-		if (document == null)
-			throw new ClientErrorException(Status.NOT_FOUND);
-		return Response.ok(document.getContent(), document.getContentType()).build();
+		resumeAsync(response, () -> {
+			final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+			final List<Object[]> documents = radioManager
+				.createQuery(QUERY_DOCUMENT_METADATA, Object[].class)
+				.setParameter("identity", documentIdentity)
+				.getResultList();
+			if (documents.isEmpty())
+				throw new ClientErrorException(Status.NOT_FOUND);
+
+			return documentResponse(request, radioManager, documents.get(0), audioNormalize, audioVolume, audioCompressionRatio);
+		});
 	}
 
 
 	/**
-	 * POST /albums: Creates or updates an album from template data within the
-	 * HTTP request body in application/json format. The requesting user must be
-	 * an ADMIN, if not this operation shall be forbidden. It creates a new
-	 * album if the given template's identity is zero, otherwise it updates the
-	 * corresponding album with the given data. Optionally, a new cover
-	 * reference may be passed using the query parameter "coverReference".
-	 * Returns the affected album's identity as text/plain.
+	 * Asynchronously returns the content of the document matching the given
+	 * content hash. This content addressed URL never changes it's content, and
+	 * is therefore permanently cacheable by clients and proxies; documents
+	 * expose it as their content location. Entities referencing documents,
+	 * like albums, people and tracks, expose the identity addressed location
+	 * {@code documents/{id}} instead, which is cached alike, see
+	 * {@link Document#contentLocation(long)}.
 	 * 
-	 * @param albumTemplate
-	 * @param requesterIdentity
-	 * @return
+	 * @param response
+	 *            the asynchronous response, resumed with the document content
+	 *            (HTTP 200), or none (HTTP 304) if the client's entity tag is
+	 *            still valid, or (HTTP 404) if the given document cannot be
+	 *            found, or (HTTP 503) if the document pools are saturated
+	 * @param request
+	 *            the HTTP request
+	 * @param contentHash
+	 *            the hexadecimal SHA-256 content hash
+	 */
+	@GET
+	@Path("documents/by-hash/{hash}")
+	@Produces(WILDCARD)
+	public void queryDocumentByHash (
+			@Suspended final AsyncResponse response,
+			@Context final Request request,
+			@PathParam("hash") @NotNull @Pattern(regexp = "^[0-9a-fA-F]{64}$") final String contentHash
+	) {
+		resumeAsync(response, () -> {
+			final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+			final List<Object[]> documents = radioManager
+				.createQuery(QUERY_DOCUMENT_METADATA_BY_HASH, Object[].class)
+				.setParameter("contentHash", HashTools.parseHexString(contentHash))
+				.getResultList();
+			if (documents.isEmpty())
+				throw new ClientErrorException(Status.NOT_FOUND);
+
+			return documentResponse(request, radioManager, documents.get(0), false, null, null);
+		});
+	}
+
+
+	/**
+	 * POST /documents: Asynchronously stores the given content as a new
+	 * document, unless a document with the same content hash exists already.
+	 * Audio content is analyzed for it's loudness by the document analyzer
+	 * pool beforehand, and scheduled for waveform summary generation. Resumes
+	 * with the affected document's identity as text/plain.
+	 * 
+	 * @param response
+	 *            the asynchronous response, resumed with the identity of the
+	 *            new or existing document (HTTP 200), or (HTTP 409) if the
+	 *            document cannot be stored, or (HTTP 503) if the document
+	 *            pools are saturated
+	 * @param content
+	 *            the document content
+	 * @param contentType
+	 *            the document content type
 	 */
 	@POST
 	@Path("documents")
 	@Consumes(WILDCARD)
 	@Produces(TEXT_PLAIN)
-	public long createDocument (
+	public void createDocument (
+			@Suspended final AsyncResponse response,
 			@NotNull final byte[] content, 
 			@HeaderParam("Content-type") @NotNull final String contentType
 	) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
-		
-		final TypedQuery<Long> query = radioManager.createQuery(QUERY_DOCUMENT_BY_HASH, Long.class);
-		query.setParameter("contentHash", HashTools.sha256HashCode(content));
-		
-		final List<Long> documentReferences = query.getResultList();
-		if (!documentReferences.isEmpty()) return documentReferences.get(0);
-
 		final Document document = new Document();
 		document.setContent(content);
 		document.setContentType(contentType);
-		radioManager.persist(document);
 
-		try {
-			radioManager.getTransaction().commit();
-		} catch (PersistenceException error) {
-			throw new ClientErrorException(Status.CONFLICT);
-		} finally {
+		resumeAsync(response, () -> analyzeLoudness(document), () -> {
+			final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+			
+			final TypedQuery<Long> query = radioManager.createQuery(QUERY_DOCUMENT_BY_HASH, Long.class);
+			query.setParameter("contentHash", document.getContentHash());
+			
+			final List<Long> documentReferences = query.getResultList();
+			if (!documentReferences.isEmpty()) return documentReferences.get(0);
+
 			radioManager.getTransaction().begin();
-		}
-		return document.getIdentity();
+			try {
+				radioManager.persist(document);
+				radioManager.getTransaction().commit();
+			} catch (PersistenceException error) {
+				throw new ClientErrorException(Status.CONFLICT);
+			} finally {
+				if (radioManager.getTransaction().isActive()) radioManager.getTransaction().rollback();
+			}
+
+			if (contentType.startsWith("audio/")) WaveformService.schedule(document.getContentHash());
+			return document.getIdentity();
+		});
 	}
 	
 	@GET
@@ -545,7 +761,7 @@ public class EntityService {
 			@QueryParam("resultOffset") int resultOffset, 
 			@QueryParam("resultLimit") int resultLimit
 	) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final TypedQuery<String> query = radioManager.createQuery(QUERY_GENRES, String.class);
 		if (resultOffset > 0)
 			query.setFirstResult(resultOffset);
@@ -565,7 +781,7 @@ public class EntityService {
 			@QueryParam("resultOffset") int resultOffset, 
 			@QueryParam("resultLimit") int resultLimit
 	) {
-		final EntityManager radioManager = RestJpaLifecycleProvider.entityManager("radio");
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
 		final TypedQuery<String> query = radioManager.createQuery(QUERY_ARTISTS, String.class);
 		if (resultOffset > 0)
 			query.setFirstResult(resultOffset);
@@ -577,4 +793,648 @@ public class EntityService {
 		artistResults.sort(Comparator.naturalOrder());
 		return artistResults;
 	}
-}
\ No newline at end of file
+
+
+	/**
+	 * Analyzes the integrated loudness and sample peak of the given document's
+	 * content, and stores both with the document, provided the content is
+	 * audio in a format supported by the Java Sound API; otherwise both remain
+	 * {@code null}. This is intended to be called once before a recording is
+	 * persisted, so that playback can normalize it using the stored values
+	 * instead of analyzing it again.
+	 * 
+	 * @param document
+	 *            the document
+	 * @throws NullPointerException
+	 *             if the given document is {@code null}
+	 */
+	static public void analyzeLoudness (final Document document) throws NullPointerException {
+		if (!document.getContentType().startsWith("audio/")) return;
+
+		try {
+			final LoudnessAnalyzer analyzer = LoudnessAnalyzer.analyze(document.getContent());
+			final double loudness = analyzer.getIntegratedLoudness();
+			document.setLoudness(Double.isFinite(loudness) ? loudness : null);
+			document.setPeak(analyzer.getPeak());
+		} catch (final UnsupportedAudioFileException | IOException exception) {
+			// content is malformed or cannot be decoded, and will therefore
+			// never be normalized
+		}
+	}
+
+
+	/**
+	 * Resumes the given asynchronous response with the result of the given
+	 * lookup. The lookup is performed by the document lookup pool using it's
+	 * own entity manager, which is closed afterwards; the response is resumed
+	 * by the document transfer pool, which writes the response entity. Entity
+	 * managers bound to the calling thread are closed as well, as the request's
+	 * response filters will run on the transfer thread. Likewise, the
+	 * request's statement tally is moved from the calling thread to the lookup
+	 * thread. If either pool's queue is full, the response is resumed with
+	 * HTTP 503 instead.
+	 * 
+	 * @param response
+	 *            the asynchronous response
+	 * @param lookup
+	 *            the lookup returning the response entity, or throwing an
+	 *            exception to be mapped
+	 */
+	static private void resumeAsync (final AsyncResponse response, final Supplier<?> lookup) {
+		resumeAsync(response, null, lookup);
+	}
+
+
+	/**
+	 * Resumes the given asynchronous response with the result of the given
+	 * lookup, like {@link #resumeAsync(AsyncResponse, Supplier)}, but
+	 * performs the given CPU intensive preparation without database access
+	 * beforehand, using the low priority document analyzer pool. If the
+	 * preparation throws an exception, the lookup is skipped, and the
+	 * response is resumed with said exception.
+	 * 
+	 * @param response
+	 *            the asynchronous response
+	 * @param preparation
+	 *            the preparation, or {@code null} for none
+	 * @param lookup
+	 *            the lookup returning the response entity, or throwing an
+	 *            exception to be mapped
+	 */
+	static private void resumeAsync (final AsyncResponse response, final Runnable preparation, final Supplier<?> lookup) {
+		RestJpaContextProvider.closeEntityManagers();
+		final QueryProfiler.Tally tally = QueryProfiler.tally();
+		QueryProfiler.bind(null);
+
+		final DocumentTask task = new DocumentTask(response, preparation, lookup, tally);
+		(preparation == null ? DOCUMENT_LOOKUP_EXECUTOR : DOCUMENT_ANALYZER_EXECUTOR).execute(task);
+	}
+
+
+	/**
+	 * Returns a new document thread pool based on the given number of daemon
+	 * threads of the given priority, and a queue of the given capacity.
+	 * Document tasks exceeding the latter are rejected, which resumes their
+	 * response with HTTP 503.
+	 * 
+	 * @param name
+	 *            the thread name prefix
+	 * @param threadCount
+	 *            the maximum number of threads
+	 * @param queueCapacity
+	 *            the maximum number of queued tasks
+	 * @param threadPriority
+	 *            the thread priority
+	 * @return the thread pool created
+	 */
+	static private ExecutorService newDocumentExecutor (final String name, final int threadCount, final int queueCapacity, final int threadPriority) {
+		final ThreadPoolExecutor executor = DaemonExecutors.newInstance(name, threadCount, queueCapacity, threadPriority);
+		executor.setRejectedExecutionHandler((task, pool) -> ((DocumentTask) task).reject());
+		return executor;
+	}
+
+
+	/**
+	 * Returns a new thread-safe set of content keys with the given capacity,
+	 * which evicts it's least recently used key when exceeding the latter.
+	 * 
+	 * @param capacity
+	 *            the maximum number of keys
+	 * @return the set created
+	 */
+	@SuppressWarnings("serial")
+	static private Set<String> newUndecodableContentKeys (final int capacity) {
+		return Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry (final Map.Entry<String, Boolean> eldest) {
+				return this.size() > capacity;
+			}
+		}));
+	}
+
+
+	/**
+	 * Returns a new rendition cache, configured by the system properties
+	 * <tt>radio.rendition-cache.directory</tt> (default
+	 * <tt>radio-renditions</tt> within the temporary directory),
+	 * <tt>radio.rendition-cache.capacity</tt> (in bytes, default 4GB) and
+	 * <tt>radio.rendition-cache.threads</tt> (concurrent renders, default the
+	 * number of processors).
+	 * 
+	 * @return the rendition cache created
+	 * @throws UncheckedIOException
+	 *             if the cache directory cannot be prepared
+	 */
+	static private RenditionCache newRenditionCache () throws UncheckedIOException {
+		final String defaultDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "radio-renditions").toString();
+		try {
+			return new RenditionCache(
+				"radio_rendition_cache",
+				Paths.get(System.getProperty("radio.rendition-cache.directory", defaultDirectory)),
+				Long.getLong("radio.rendition-cache.capacity", 4L << 30),
+				Integer.getInteger("radio.rendition-cache.threads", Runtime.getRuntime().availableProcessors())
+			);
+		} catch (final IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+
+	/**
+	 * Returns the entity matching the given identity, or {@code null} for none.
+	 * Other than a polymorphic {@code find()}, which outer joins every table of
+	 * the entity hierarchy, this first reads the entity's discriminator from
+	 * the root table, and then finds the entity using it's concrete type, which
+	 * only joins the root table with the concrete type's table. Entities
+	 * resident in the 2nd level cache are returned without any query.
+	 * 
+	 * @param radioManager
+	 *            the radio entity manager
+	 * @param entityIdentity
+	 *            the entity identity
+	 * @return the entity, or {@code null} for none
+	 * @throws NullPointerException
+	 *             if the given entity manager is {@code null}
+	 * @throws PersistenceException
+	 *             if there is a problem with the persistence layer
+	 */
+	static private BaseEntity findEntity (final EntityManager radioManager, final long entityIdentity) throws NullPointerException, PersistenceException {
+		if (radioManager.getEntityManagerFactory().getCache().contains(BaseEntity.class, entityIdentity))
+			return radioManager.find(BaseEntity.class, entityIdentity);
+
+		final List<?> discriminators = radioManager
+			.createNativeQuery(QUERY_ENTITY_DISCRIMINATOR)
+			.setParameter(1, entityIdentity)
+			.getResultList();
+		if (discriminators.isEmpty()) return null;
+
+		final String discriminator = discriminators.get(0).toString();
+		final Class<? extends BaseEntity> entityType = radioManager.getMetamodel().getEntities().stream()
+			.filter(type -> type.getName().equals(discriminator) && BaseEntity.class.isAssignableFrom(type.getJavaType()))
+			.<Class<? extends BaseEntity>>map(type -> type.getJavaType().asSubclass(BaseEntity.class))
+			.findAny()
+			.orElse(BaseEntity.class);
+		return radioManager.find(entityType, entityIdentity);
+	}
+
+
+	/**
+	 * Returns a reference to the document matching the given identity, or
+	 * {@code null} for none. The document's existence is checked using a
+	 * count query that never touches it's content column, and the reference
+	 * returned is not initialized unless it is already resident in one of the
+	 * caches; therefore, it is suitable for associating documents with other
+	 * entities.
+	 * 
+	 * @param radioManager
+	 *            the radio entity manager
+	 * @param documentIdentity
+	 *            the document identity
+	 * @return the document reference, or {@code null} for none
+	 * @throws NullPointerException
+	 *             if the given entity manager is {@code null}
+	 * @throws PersistenceException
+	 *             if there is a problem with the persistence layer
+	 */
+	static private Document documentReference (final EntityManager radioManager, final long documentIdentity) throws NullPointerException, PersistenceException {
+		final long count = radioManager
+			.createQuery(QUERY_DOCUMENT_EXISTS, Long.class)
+			.setParameter("identity", documentIdentity)
+			.getSingleResult();
+		return count == 0 ? null : radioManager.getReference(Document.class, documentIdentity);
+	}
+
+
+	/**
+	 * Returns a conditional response for the given entity. The entity tag is
+	 * derived from the entity's validator, see
+	 * {@link #entityValidator(BaseEntity)}.
+	 * 
+	 * @param request
+	 *            the HTTP request
+	 * @param entity
+	 *            the entity
+	 * @param cacheControl
+	 *            the cache control policy
+	 * @return the entity (HTTP 200), or none (HTTP 304) if the request's
+	 *         "If-None-Match" header matches the entity's tag
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 */
+	static private Response conditionalResponse (final Request request, final BaseEntity entity, final String cacheControl) throws NullPointerException {
+		final EntityTag entityTag = new EntityTag(HashTools.toHexString(HashTools.sha256HashCode(entityValidator(entity))));
+		ResponseBuilder builder = request.evaluatePreconditions(entityTag);
+		if (builder == null) builder = Response.ok(entity);
+		return builder.tag(entityTag).header(CACHE_CONTROL, cacheControl).build();
+	}
+
+
+	/**
+	 * Returns a validator for the given entity's marshaled representation,
+	 * consisting of it's identity and version, and, for albums and people, the
+	 * identities and versions of their related tracks. The latter is required
+	 * because the track references are part of said representations, while
+	 * adding or removing a track doesn't increment it's album's or owner's
+	 * version.
+	 * 
+	 * @param entity
+	 *            the entity
+	 * @return the validator
+	 * @throws NullPointerException
+	 *             if the given entity is {@code null}
+	 */
+	static private String entityValidator (final BaseEntity entity) throws NullPointerException {
+		final Set<Track> tracks;
+		if (entity instanceof Album) {
+			tracks = ((Album) entity).getTracks();
+		} else if (entity instanceof Person) {
+			tracks = ((Person) entity).getTracks();
+		} else {
+			tracks = Collections.emptySet();
+		}
+
+		final StringBuilder builder = new StringBuilder().append(entity.getIdentity()).append('-').append(entity.getVersion());
+		tracks.stream()
+			.sorted()
+			.forEach(track -> builder.append(':').append(track.getIdentity()).append('-').append(track.getVersion()));
+		return builder.toString();
+	}
+
+
+	/**
+	 * Returns a conditional response for a document's content. The content
+	 * hash is a natural key of the content, and therefore serves both as a
+	 * strong entity tag that never needs to be invalidated, and as content
+	 * cache key. The content is only loaded from the database if it is neither
+	 * valid on the client side, nor resident in the content cache; in this
+	 * case it is queried without materializing the document entity, which
+	 * keeps the content out of the 2nd level cache. If audio processing is
+	 * requested, the content is rendered as signed 16-bit PCM WAV, and the
+	 * entity tag is extended by the processing parameters; the rendition is
+	 * served from the rendition cache, which renders it at most once, and
+	 * content is only loaded if the rendition is not resident yet. Content
+	 * that cannot be decoded is served unprocessed under it's plain content
+	 * hash tag instead, and it's hash is remembered so that later requests
+	 * neither copy nor decode it again.
+	 * 
+	 * @param request
+	 *            the HTTP request
+	 * @param radioManager
+	 *            the radio entity manager
+	 * @param metadata
+	 *            the document's content hash, content type, creation
+	 *            timestamp, loudness and peak
+	 * @param audioNormalize
+	 *            whether or not audio content shall be normalized to the
+	 *            target loudness
+	 * @param audioVolume
+	 *            the audio volume factor, or {@code null} for none
+	 * @param audioCompressionRatio
+	 *            the audio compression ratio, or {@code null} for none
+	 * @return the document content (HTTP 200), or none (HTTP 304) if the
+	 *         request's preconditions match the document
+	 * @throws NullPointerException
+	 *             if any of the given request, entity manager or metadata is
+	 *             {@code null}
+	 * @throws ClientErrorException
+	 *             (HTTP 404) if the document has been removed meanwhile
+	 */
+	static private Response documentResponse (final Request request, final EntityManager radioManager, final Object[] metadata, final boolean audioNormalize, final Double audioVolume, final Double audioCompressionRatio) throws NullPointerException, ClientErrorException {
+		final byte[] contentHash = (byte[]) metadata[0];
+		final String contentType = (String) metadata[1];
+		final Date lastModified = new Date((Long) metadata[2]);
+		final Double loudness = (Double) metadata[3];
+		final Double peak = (Double) metadata[4];
+		final String contentKey = HashTools.toHexString(contentHash);
+
+		double audioGain = audioVolume == null ? 1 : audioVolume;
+		if (audioNormalize & loudness != null) audioGain *= LoudnessAnalyzer.normalizationGain(loudness, peak == null ? 0 : peak, TARGET_LOUDNESS);
+		final boolean render = contentType.startsWith("audio/") & (audioGain != 1 | audioCompressionRatio != null) && !UNDECODABLE_CONTENT_KEYS.contains(contentKey);
+		EntityTag entityTag = new EntityTag(render ? contentKey + "-" + renditionKey(audioGain, audioCompressionRatio) : contentKey);
+
+		ResponseBuilder builder = request.evaluatePreconditions(lastModified, entityTag);
+		if (builder == null) {
+			InputStream renditionSource = null;
+			ByteBuffer content = null;
+			if (render) {
+				try {
+					renditionSource = RENDITION_CACHE.get(entityTag.getValue());
+					if (renditionSource == null) {
+						content = documentContent(radioManager, contentKey, contentHash);
+						final StreamingOutput renditionOutput = renditionOutput(content, audioGain, audioCompressionRatio);
+						if (renditionOutput != null) {
+							renditionSource = RENDITION_CACHE.put(entityTag.getValue(), renditionOutput);
+						} else {
+							UNDECODABLE_CONTENT_KEYS.add(contentKey);
+							entityTag = new EntityTag(contentKey);
+						}
+					}
+				} catch (final IOException exception) {
+					throw new UncheckedIOException(exception);
+				}
+			}
+
+			if (renditionSource != null) {
+				builder = Response.ok(streamOutput(renditionSource), "audio/wav");
+			} else {
+				// content that cannot be decoded, like MP3 without a Java Sound provider, is served unprocessed
+				if (content == null) content = documentContent(radioManager, contentKey, contentHash);
+				builder = Response.ok(contentOutput(content), contentType).header(CONTENT_LENGTH, content.remaining());
+			}
+		}
+		return builder.tag(entityTag).lastModified(lastModified).header(CACHE_CONTROL, DOCUMENT_CACHE_CONTROL).build();
+	}
+
+
+	/**
+	 * Returns a document's content, either from the content cache, or from
+	 * the database, in which case it is added to the content cache.
+	 * 
+	 * @param radioManager
+	 *            the radio entity manager
+	 * @param contentKey
+	 *            the hexadecimal content hash
+	 * @param contentHash
+	 *            the content hash
+	 * @return the content
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 * @throws ClientErrorException
+	 *             (HTTP 404) if the document has been removed meanwhile
+	 */
+	static private ByteBuffer documentContent (final EntityManager radioManager, final String contentKey, final byte[] contentHash) throws NullPointerException, ClientErrorException {
+		ByteBuffer content = CONTENT_CACHE.get(contentKey);
+		if (content == null) {
+			final List<byte[]> contents = radioManager
+				.createQuery(QUERY_DOCUMENT_CONTENT, byte[].class)
+				.setParameter("contentHash", contentHash)
+				.getResultList();
+			if (contents.isEmpty())
+				throw new ClientErrorException(Status.NOT_FOUND);
+
+			content = CONTENT_CACHE.put(contentKey, contents.get(0));
+			if (content == null) content = ByteBuffer.wrap(contents.get(0));
+		}
+		return content;
+	}
+
+
+	/**
+	 * Returns a key identifying an audio rendition's processing parameters.
+	 * 
+	 * @param audioGain
+	 *            the audio gain factor
+	 * @param audioCompressionRatio
+	 *            the audio compression ratio, or {@code null} for none
+	 * @return the rendition key
+	 */
+	static private String renditionKey (final double audioGain, final Double audioCompressionRatio) {
+		return "g" + audioGain + "-c" + (audioCompressionRatio == null ? "" : audioCompressionRatio) + "-wav";
+	}
+
+
+	/**
+	 * Returns a streaming output that renders the given audio content as WAV,
+	 * applying the given gain and compression. The content is decoded eagerly,
+	 * so that undecodable content is detected before the response is
+	 * committed, and can be served unprocessed instead.
+	 * 
+	 * @param content
+	 *            the audio content
+	 * @param audioGain
+	 *            the audio gain factor
+	 * @param audioCompressionRatio
+	 *            the audio compression ratio, or {@code null} for none
+	 * @return the streaming output, or {@code null} if the given content
+	 *         cannot be decoded
+	 * @throws NullPointerException
+	 *             if the given content is {@code null}
+	 */
+	static private StreamingOutput renditionOutput (final ByteBuffer content, final double audioGain, final Double audioCompressionRatio) throws NullPointerException {
+		final List<Processor> processors = new ArrayList<>();
+		if (audioGain != 1) processors.add(new Volume(audioGain));
+		if (audioCompressionRatio != null) processors.add(new Compressor(audioCompressionRatio));
+
+		final byte[] bytes = new byte[content.remaining()];
+		content.duplicate().get(bytes);
+		final AudioInputStream audioSource;
+		try {
+			audioSource = PcmSamples.decode(new ByteArrayInputStream(bytes));
+		} catch (final UnsupportedAudioFileException | IOException exception) {
+			return null;
+		}
+
+		return byteSink -> {
+			try {
+				PcmSamples.writeWaveHeader(byteSink, audioSource.getFormat(), audioSource.getFrameLength());
+				PcmSamples.process(audioSource, frame -> {
+					for (final Processor processor : processors)
+						processor.process(frame);
+				}, byteSink);
+			} finally {
+				audioSource.close();
+			}
+		};
+	}
+
+
+	/**
+	 * Returns a streaming output that copies the given byte source, and closes
+	 * it afterwards. The output is also {@link Closeable}, which allows the
+	 * byte source to be closed if the response completes without the output
+	 * ever being written, as for HEAD requests, timeouts or failures.
+	 * 
+	 * @param byteSource
+	 *            the byte source
+	 * @return the streaming output
+	 * @throws NullPointerException
+	 *             if the given byte source is {@code null}
+	 */
+	static private StreamingOutput streamOutput (final InputStream byteSource) throws NullPointerException {
+		if (byteSource == null) throw new NullPointerException();
+
+		return new ClosableStreamingOutput(byteSource);
+	}
+
+
+	/**
+	 * Returns a streaming output that writes the given content directly from
+	 * it's buffer, without copying it into an intermediate byte array first.
+	 * 
+	 * @param content
+	 *            the content
+	 * @return the streaming output
+	 * @throws NullPointerException
+	 *             if the given content is {@code null}
+	 */
+	static private StreamingOutput contentOutput (final ByteBuffer content) throws NullPointerException {
+		if (content == null) throw new NullPointerException();
+
+		return byteSink -> {
+			final WritableByteChannel channel = Channels.newChannel(byteSink);
+			final ByteBuffer buffer = content.duplicate();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		};
+	}
+
+
+
+	/**
+	 * Streaming output copying a byte source, which is closed either after
+	 * writing, or when this output is closed.
+	 */
+	static private class ClosableStreamingOutput implements StreamingOutput, Closeable {
+		private final InputStream byteSource;
+
+
+		/**
+		 * Creates a new instance.
+		 * 
+		 * @param byteSource
+		 *            the byte source
+		 */
+		public ClosableStreamingOutput (final InputStream byteSource) {
+			this.byteSource = byteSource;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final OutputStream byteSink) throws IOException {
+			try (InputStream source = this.byteSource) {
+				final byte[] buffer = new byte[0x10000];
+				for (int bytesRead = source.read(buffer); bytesRead != -1; bytesRead = source.read(buffer))
+					byteSink.write(buffer, 0, bytesRead);
+			}
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close () throws IOException {
+			this.byteSource.close();
+		}
+	}
+
+
+
+	/**
+	 * Document task, performing it's optional preparation when run by the
+	 * document analyzer pool, it's lookup when run by the document lookup
+	 * pool, and resuming it's response with the lookup's result or exception
+	 * when run again by the document transfer pool.
+	 */
+	static private class DocumentTask implements Runnable {
+		private final AsyncResponse response;
+		private final QueryProfiler.Tally tally;
+		private Runnable preparation;
+		private Supplier<?> lookup;
+		private Object result;
+
+
+		/**
+		 * Creates a new instance.
+		 * 
+		 * @param response
+		 *            the asynchronous response
+		 * @param preparation
+		 *            the preparation, or {@code null} for none
+		 * @param lookup
+		 *            the lookup returning the response entity, or throwing an
+		 *            exception to be mapped
+		 * @param tally
+		 *            the request's statement tally, or {@code null} for none
+		 */
+		public DocumentTask (final AsyncResponse response, final Runnable preparation, final Supplier<?> lookup, final QueryProfiler.Tally tally) {
+			this.response = response;
+			this.tally = tally;
+			this.preparation = preparation;
+			this.lookup = lookup;
+		}
+
+
+		/**
+		 * Performs the preparation if it is still pending, and passes this
+		 * task on to the document lookup pool, or to the document transfer
+		 * pool if the preparation failed. Otherwise performs the lookup with
+		 * the request's statement tally bound, and passes this task on to the
+		 * document transfer pool if it is still pending, otherwise resumes the
+		 * response with the lookup's result. A closeable response entity is
+		 * released once the response completes, whether it has been written
+		 * or not, or immediately if the response can no longer be resumed.
+		 */
+		@Override
+		public void run () {
+			if (this.preparation != null) {
+				try {
+					this.preparation.run();
+				} catch (final Throwable exception) {
+					this.result = exception;
+					this.lookup = null;
+				} finally {
+					this.preparation = null;
+				}
+
+				(this.lookup == null ? DOCUMENT_TRANSFER_EXECUTOR : DOCUMENT_LOOKUP_EXECUTOR).execute(this);
+				return;
+			}
+
+			if (this.lookup == null) {
+				final boolean resumed;
+				if (this.result instanceof Throwable) {
+					resumed = this.response.resume((Throwable) this.result);
+				} else {
+					this.response.register((CompletionCallback) failure -> this.release());
+					resumed = this.response.resume(this.result);
+				}
+				if (!resumed) this.release();
+				return;
+			}
+
+			QueryProfiler.bind(this.tally);
+			try {
+				this.result = this.lookup.get();
+			} catch (final Throwable exception) {
+				this.result = exception;
+			} finally {
+				this.lookup = null;
+				RestJpaContextProvider.closeEntityManagers();
+				QueryProfiler.bind(null);
+			}
+
+			DOCUMENT_TRANSFER_EXECUTOR.execute(this);
+		}
+
+
+		/**
+		 * Resumes the response with HTTP 503, as this task has been rejected
+		 * by a document pool, and releases the lookup's result if any.
+		 */
+		public void reject () {
+			this.release();
+			this.response.resume(Response.status(SERVICE_UNAVAILABLE).header(RETRY_AFTER, DOCUMENT_RETRY_SECONDS).build());
+		}
+
+
+		/**
+		 * Closes the lookup's result entity if it is closeable, like the
+		 * streaming output of a rendition, which pins the rendition's cache
+		 * entry and file until closed.
+		 */
+		private void release () {
+			final Object entity = this.result instanceof Response ? ((Response) this.result).getEntity() : this.result;
+			if (!(entity instanceof Closeable)) return;
+
+			try {
+				((Closeable) entity).close();
+			} catch (final IOException exception) {
+				// the reader is released even if the file channel fails to close
+			}
+		}
+	}
+}
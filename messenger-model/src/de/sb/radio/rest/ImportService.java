@@ -0,0 +1,639 @@
+package de.sb.radio.rest;
+
+import static de.sb.radio.persistence.Person.Group.ADMIN;
+import static de.sb.radio.rest.BasicAuthenticationFilter.REQUESTER_IDENTITY;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.json.bind.JsonbException;
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import de.sb.radio.persistence.Album;
+import de.sb.radio.persistence.BaseEntity;
+import de.sb.radio.persistence.Document;
+import de.sb.radio.persistence.HashTools;
+import de.sb.radio.persistence.Person;
+import de.sb.radio.persistence.Track;
+
+
+/**
+ * JAX-RS based REST service implementation for bulk catalogue imports,
+ * defining the following path and method combinations:
+ * <ul>
+ * <li>POST imports: Imports the albums and tracks described by a ZIP archive's
+ * <tt>manifest.json</tt>, together with the cover and recording parts
+ * contained in said archive.</li>
+ * </ul>
+ * Items are inserted in chunks, each within a single transaction, limited by
+ * the system properties <tt>radio.import.chunk-size</tt> (items, default 200)
+ * and <tt>radio.import.chunk-bytes</tt> (content bytes, default 64MB). Parts
+ * are deduplicated by content hash with one query per chunk. If a chunk fails
+ * to commit, it's items are retried individually, so every item reports it's
+ * own result.
+ */
+@Path("imports")
+public class ImportService {
+	static private final String APPLICATION_ZIP = "application/zip";
+	static private final String MANIFEST_NAME = "manifest.json";
+	static private final String QUERY_DOCUMENTS_BY_HASHES = "select d.contentHash, d.identity from Document as d where d.contentHash in :contentHashes";
+	static private final int CHUNK_SIZE = Integer.getInteger("radio.import.chunk-size", 200);
+	static private final long CHUNK_BYTES = Long.getLong("radio.import.chunk-bytes", 64L << 20);
+	static private final Validator VALIDATOR = Validation.buildDefaultValidatorFactory().getValidator();
+
+
+	/**
+	 * Imports the albums and tracks described by the manifest within the given
+	 * ZIP archive. Albums are imported before tracks, which may reference
+	 * either an album of the same manifest by it's key, or an existing album
+	 * by it's identity. Imported tracks are owned by the requester.
+	 *
+	 * @param requesterIdentity
+	 *            the authenticated requester identity
+	 * @param archive
+	 *            the ZIP archive
+	 * @return the import results in manifest order, albums first (HTTP 200)
+	 * @throws ClientErrorException
+	 *             (HTTP 400) if the archive or it's manifest is malformed
+	 * @throws ClientErrorException
+	 *             (HTTP 403) if the given requester is not an administrator
+	 * @throws IOException
+	 *             (HTTP 500) if there is an I/O related problem
+	 * @throws PersistenceException
+	 *             (HTTP 500) if there is a problem with the persistence layer
+	 */
+	@POST
+	@Consumes(APPLICATION_ZIP)
+	@Produces(APPLICATION_JSON)
+	public List<ImportResult> importCatalogue (
+		@HeaderParam(REQUESTER_IDENTITY) @Positive final long requesterIdentity,
+		@NotNull final InputStream archive
+	) throws IOException {
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+		final Person requester = radioManager.find(Person.class, requesterIdentity);
+		if (requester == null || requester.getGroup() != ADMIN)
+			throw new ClientErrorException(FORBIDDEN);
+
+		// ZIP entries may appear in any order, therefore random access is required
+		final java.nio.file.Path archiveFile = Files.createTempFile("radio-import-", ".zip");
+		try {
+			Files.copy(archive, archiveFile, REPLACE_EXISTING);
+			try (ZipFile zipFile = new ZipFile(archiveFile.toFile())) {
+				final Manifest manifest = readManifest(zipFile);
+				final ImportContext context = new ImportContext(radioManager, zipFile, requesterIdentity);
+
+				for (int index = 0; index < manifest.albums.size(); ++index)
+					context.add(new PendingAlbum(index, manifest.albums.get(index)));
+				context.flush();
+
+				for (int index = 0; index < manifest.tracks.size(); ++index)
+					context.add(new PendingTrack(index, manifest.tracks.get(index)));
+				context.flush();
+				for (final byte[] contentHash : context.getRecordingHashes())
+					WaveformService.schedule(contentHash);
+
+				final Cache cache = radioManager.getEntityManagerFactory().getCache();
+				cache.evict(Person.class, requesterIdentity);
+				for (final long albumIdentity : context.getAffectedAlbumIdentities())
+					cache.evict(Album.class, albumIdentity);
+
+				return context.getResults();
+			} catch (final ZipException exception) {
+				throw new ClientErrorException(BAD_REQUEST);
+			}
+		} finally {
+			Files.deleteIfExists(archiveFile);
+		}
+	}
+
+
+	/**
+	 * Returns the manifest of the given ZIP file.
+	 *
+	 * @param zipFile
+	 *            the ZIP file
+	 * @return the manifest
+	 * @throws ClientErrorException
+	 *             (HTTP 400) if the manifest is missing or malformed
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	static private Manifest readManifest (final ZipFile zipFile) throws ClientErrorException, IOException {
+		final ZipEntry entry = zipFile.getEntry(MANIFEST_NAME);
+		if (entry == null) throw new ClientErrorException(BAD_REQUEST);
+
+		final Manifest manifest;
+		try (InputStream byteSource = zipFile.getInputStream(entry)) {
+			try (Jsonb jsonb = JsonbBuilder.create()) {
+				manifest = jsonb.fromJson(byteSource, Manifest.class);
+			} catch (final JsonbException exception) {
+				throw new ClientErrorException(BAD_REQUEST);
+			} catch (final IOException | RuntimeException | Error exception) {
+				throw exception;
+			} catch (final Exception exception) {
+				throw new AssertionError(exception);
+			}
+		}
+
+		if (manifest == null) throw new ClientErrorException(BAD_REQUEST);
+		if (manifest.albums == null) manifest.albums = Collections.emptyList();
+		if (manifest.tracks == null) manifest.tracks = Collections.emptyList();
+		if (manifest.albums.contains(null) || manifest.tracks.contains(null)) throw new ClientErrorException(BAD_REQUEST);
+		return manifest;
+	}
+
+
+
+	/**
+	 * Import manifest, as contained within the archive's
+	 * <tt>manifest.json</tt> entry.
+	 */
+	static public class Manifest {
+		public List<AlbumEntry> albums;
+		public List<TrackEntry> tracks;
+	}
+
+
+
+	/**
+	 * Manifest entry describing an album; the cover is referenced by it's part
+	 * name within the archive.
+	 */
+	static public class AlbumEntry {
+		public String key;
+		public String title;
+		public short releaseYear;
+		public byte trackCount;
+		public String cover;
+		public String coverType;
+	}
+
+
+
+	/**
+	 * Manifest entry describing a track; the album is referenced either by the
+	 * key of an album entry, or by an existing album's identity, and the
+	 * recording is referenced by it's part name within the archive.
+	 */
+	static public class TrackEntry {
+		public String album;
+		public Long albumReference;
+		public String name;
+		public String artist;
+		public String genre;
+		public byte ordinal;
+		public String recording;
+		public String recordingType;
+	}
+
+
+
+	/**
+	 * Result of importing a single manifest entry.
+	 */
+	static public class ImportResult {
+		public String kind;
+		public int index;
+		public long identity;
+		public String error;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param kind
+		 *            the entry kind, either "album" or "track"
+		 * @param index
+		 *            the entry index within it's manifest list
+		 */
+		public ImportResult (final String kind, final int index) {
+			this.kind = kind;
+			this.index = index;
+		}
+	}
+
+
+
+	/**
+	 * Import state shared across chunks.
+	 */
+	static private class ImportContext {
+		private final EntityManager radioManager;
+		private final ZipFile zipFile;
+		private final long requesterIdentity;
+		private final Map<String, Long> albumIdentities;
+		private final Set<Long> affectedAlbumIdentities;
+		private final List<byte[]> recordingHashes;
+		private final List<ImportResult> results;
+		private final List<PendingItem> chunk;
+		private long chunkBytes;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param radioManager
+		 *            the entity manager
+		 * @param zipFile
+		 *            the archive
+		 * @param requesterIdentity
+		 *            the requester identity
+		 */
+		public ImportContext (final EntityManager radioManager, final ZipFile zipFile, final long requesterIdentity) {
+			this.radioManager = radioManager;
+			this.zipFile = zipFile;
+			this.requesterIdentity = requesterIdentity;
+			this.albumIdentities = new HashMap<>();
+			this.affectedAlbumIdentities = new HashSet<>();
+			this.recordingHashes = new ArrayList<>();
+			this.results = new ArrayList<>();
+			this.chunk = new ArrayList<>();
+		}
+
+
+		/**
+		 * Returns the import results.
+		 *
+		 * @return the import results
+		 */
+		public List<ImportResult> getResults () {
+			return this.results;
+		}
+
+
+		/**
+		 * Returns the identities of all albums that gained tracks.
+		 *
+		 * @return the album identities
+		 */
+		public Set<Long> getAffectedAlbumIdentities () {
+			return this.affectedAlbumIdentities;
+		}
+
+
+		/**
+		 * Returns the content hashes of all audio documents stored.
+		 *
+		 * @return the recording content hashes
+		 */
+		public List<byte[]> getRecordingHashes () {
+			return this.recordingHashes;
+		}
+
+
+		/**
+		 * Loads the given item's part, and adds the item to the current chunk,
+		 * which is persisted once it's limits are reached. Items with missing
+		 * parts fail immediately.
+		 *
+		 * @param item
+		 *            the pending item
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		public void add (final PendingItem item) throws IOException {
+			this.results.add(item.result);
+
+			final ZipEntry entry = item.partName == null ? null : this.zipFile.getEntry(item.partName);
+			if (entry == null || entry.isDirectory() || entry.getSize() > Integer.MAX_VALUE) {
+				item.result.error = "missing part";
+				return;
+			}
+
+			item.content = new byte[(int) entry.getSize()];
+			try (DataInputStream byteSource = new DataInputStream(this.zipFile.getInputStream(entry))) {
+				byteSource.readFully(item.content);
+			}
+			item.contentHash = HashTools.sha256HashCode(item.content);
+
+			this.chunk.add(item);
+			this.chunkBytes += item.content.length;
+			if (this.chunk.size() >= CHUNK_SIZE || this.chunkBytes >= CHUNK_BYTES) this.flush();
+		}
+
+
+		/**
+		 * Persists the current chunk, and starts a new one.
+		 */
+		public void flush () {
+			if (!this.chunk.isEmpty()) this.persist(this.chunk, true);
+			this.chunk.clear();
+			this.chunkBytes = 0;
+		}
+
+
+		/**
+		 * Persists the given items within a single transaction. If the commit
+		 * fails, the items are either retried individually, or marked as
+		 * failed.
+		 *
+		 * @param items
+		 *            the pending items
+		 * @param retry
+		 *            whether or not to retry items individually if the commit
+		 *            fails
+		 */
+		private void persist (final List<PendingItem> items, final boolean retry) {
+			final List<PendingItem> validItems = new ArrayList<>();
+			final List<BaseEntity> entities = new ArrayList<>();
+			final List<Document> newDocuments = new ArrayList<>();
+			final Map<String, Document> documents = this.resolveDocuments(items);
+
+			for (final PendingItem item : items) {
+				final Document document = documents.get(HashTools.toHexString(item.contentHash));
+				if (document.getIdentity() == 0) {
+					final String violation = violation(document);
+					if (violation != null) {
+						item.result.error = violation;
+						continue;
+					}
+				}
+
+				final BaseEntity entity;
+				try {
+					entity = item.newEntity(this, document);
+				} catch (final IllegalArgumentException exception) {
+					item.result.error = exception.getMessage();
+					continue;
+				}
+				final String violation = violation(entity);
+				if (violation != null) {
+					item.result.error = violation;
+					continue;
+				}
+
+				if (document.getIdentity() == 0 && !newDocuments.contains(document)) newDocuments.add(document);
+				validItems.add(item);
+				entities.add(entity);
+			}
+			if (validItems.isEmpty()) return;
+
+			this.radioManager.getTransaction().begin();
+			try {
+				for (final Document document : newDocuments)
+					this.radioManager.persist(document);
+				for (final BaseEntity entity : entities)
+					this.radioManager.persist(entity);
+				this.radioManager.getTransaction().commit();
+
+				for (final Document document : newDocuments)
+					if (document.getContentType().startsWith("audio/")) this.recordingHashes.add(document.getContentHash());
+				for (int index = 0; index < validItems.size(); ++index)
+					validItems.get(index).succeed(this, entities.get(index).getIdentity());
+			} catch (final PersistenceException exception) {
+				if (!retry || validItems.size() == 1) {
+					for (final PendingItem item : validItems)
+						item.result.error = "conflict";
+				} else {
+					if (this.radioManager.getTransaction().isActive()) this.radioManager.getTransaction().rollback();
+					this.radioManager.clear();
+					for (final PendingItem item : validItems)
+						this.persist(Collections.singletonList(item), false);
+				}
+			} finally {
+				if (this.radioManager.getTransaction().isActive()) this.radioManager.getTransaction().rollback();
+				this.radioManager.clear();
+			}
+		}
+
+
+		/**
+		 * Returns the documents for the given items' content, mapped by their
+		 * hexadecimal content hash. Existing documents are looked up with a
+		 * single query, and are returned as references; new ones are returned
+		 * as transient instances.
+		 *
+		 * @param items
+		 *            the pending items
+		 * @return the documents mapped by hexadecimal content hash
+		 */
+		private Map<String, Document> resolveDocuments (final List<PendingItem> items) {
+			final Map<String, PendingItem> itemsByHash = new HashMap<>();
+			for (final PendingItem item : items)
+				itemsByHash.putIfAbsent(HashTools.toHexString(item.contentHash), item);
+
+			final List<byte[]> contentHashes = new ArrayList<>();
+			for (final PendingItem item : itemsByHash.values())
+				contentHashes.add(item.contentHash);
+
+			final Map<String, Document> documents = new HashMap<>();
+			final List<Object[]> rows = this.radioManager
+				.createQuery(QUERY_DOCUMENTS_BY_HASHES, Object[].class)
+				.setParameter("contentHashes", contentHashes)
+				.getResultList();
+			for (final Object[] row : rows)
+				documents.put(HashTools.toHexString((byte[]) row[0]), this.radioManager.getReference(Document.class, row[1]));
+
+			for (final Map.Entry<String, PendingItem> entry : itemsByHash.entrySet()) {
+				if (documents.containsKey(entry.getKey())) continue;
+
+				final Document document = new Document();
+				document.setContent(entry.getValue().content);
+				document.setContentType(entry.getValue().contentType);
+				EntityService.analyzeLoudness(document);
+				documents.put(entry.getKey(), document);
+			}
+			return documents;
+		}
+
+
+		/**
+		 * Returns the first bean validation violation of the given object.
+		 *
+		 * @param object
+		 *            the object
+		 * @return the violation message, or {@code null} for none
+		 */
+		static private String violation (final Object object) {
+			final Set<ConstraintViolation<Object>> violations = VALIDATOR.validate(object);
+			if (violations.isEmpty()) return null;
+
+			final ConstraintViolation<Object> violation = violations.iterator().next();
+			return violation.getPropertyPath() + " " + violation.getMessage();
+		}
+	}
+
+
+
+	/**
+	 * Manifest entry awaiting it's import.
+	 */
+	static private abstract class PendingItem {
+		protected final ImportResult result;
+		protected final String partName;
+		protected final String contentType;
+		protected byte[] content;
+		protected byte[] contentHash;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param kind
+		 *            the entry kind
+		 * @param index
+		 *            the entry index
+		 * @param partName
+		 *            the name of the entry's part, or {@code null} for none
+		 * @param contentType
+		 *            the part's content type, or {@code null} for none
+		 */
+		protected PendingItem (final String kind, final int index, final String partName, final String contentType) {
+			this.result = new ImportResult(kind, index);
+			this.partName = partName;
+			this.contentType = contentType;
+		}
+
+
+		/**
+		 * Returns a new transient entity for this item.
+		 *
+		 * @param context
+		 *            the import context
+		 * @param document
+		 *            the document for this item's part
+		 * @return the entity created
+		 * @throws IllegalArgumentException
+		 *             if the entry references an unknown entity
+		 */
+		protected abstract BaseEntity newEntity (ImportContext context, Document document) throws IllegalArgumentException;
+
+
+		/**
+		 * Records the successful import of this item's entity.
+		 *
+		 * @param context
+		 *            the import context
+		 * @param identity
+		 *            the entity identity
+		 */
+		protected void succeed (final ImportContext context, final long identity) {
+			this.result.identity = identity;
+		}
+	}
+
+
+
+	/**
+	 * Album entry awaiting it's import.
+	 */
+	static private class PendingAlbum extends PendingItem {
+		private final AlbumEntry entry;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param index
+		 *            the entry index
+		 * @param entry
+		 *            the manifest entry
+		 */
+		public PendingAlbum (final int index, final AlbumEntry entry) {
+			super("album", index, entry.cover, entry.coverType);
+			this.entry = entry;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected BaseEntity newEntity (final ImportContext context, final Document document) {
+			final Album album = new Album(document);
+			album.setTitle(this.entry.title);
+			album.setReleaseYear(this.entry.releaseYear);
+			album.setTrackCount(this.entry.trackCount);
+			return album;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected void succeed (final ImportContext context, final long identity) {
+			super.succeed(context, identity);
+			if (this.entry.key != null) context.albumIdentities.put(this.entry.key, identity);
+		}
+	}
+
+
+
+	/**
+	 * Track entry awaiting it's import.
+	 */
+	static private class PendingTrack extends PendingItem {
+		private final TrackEntry entry;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param index
+		 *            the entry index
+		 * @param entry
+		 *            the manifest entry
+		 */
+		public PendingTrack (final int index, final TrackEntry entry) {
+			super("track", index, entry.recording, entry.recordingType);
+			this.entry = entry;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected BaseEntity newEntity (final ImportContext context, final Document document) throws IllegalArgumentException {
+			final Long albumIdentity = this.entry.album == null ? this.entry.albumReference : context.albumIdentities.get(this.entry.album);
+			final Album album = albumIdentity == null ? null : context.radioManager.find(Album.class, albumIdentity);
+			if (album == null) throw new IllegalArgumentException("unknown album");
+
+			final Track track = new Track(document, album, context.radioManager.getReference(Person.class, context.requesterIdentity));
+			track.setName(this.entry.name);
+			track.setArtist(this.entry.artist);
+			track.setGenre(this.entry.genre);
+			track.setOrdinal(this.entry.ordinal);
+			return track;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected void succeed (final ImportContext context, final long identity) {
+			super.succeed(context, identity);
+			context.affectedAlbumIdentities.add(context.albumIdentities.getOrDefault(this.entry.album, this.entry.albumReference));
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package de.sb.radio.rest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Lock-free histogram of durations with microsecond resolution. Similarly to
+ * HdrHistogram, the buckets are organized in a log-linear way: every power of
+ * two range is divided into 16 linear sub-buckets, which bounds the relative
+ * error of any quantile to about 6%, while covering durations from one
+ * microsecond to about 19 hours with less than 600 counters. Recording a
+ * duration is a single atomic increment of it's bucket counter, plus updates
+ * of the count, sum and maximum; therefore, concurrent recordings never block
+ * each other.
+ */
+public class LatencyHistogram {
+	static private final int SUB_BUCKET_BITS = 4;
+	static private final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	static private final int MAX_VALUE_BITS = 36;
+	static private final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+	private final AtomicLongArray bucketCounts;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final AtomicLong max;
+
+
+	/**
+	 * Creates a new instance.
+	 */
+	public LatencyHistogram () {
+		this.bucketCounts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+		this.count = new LongAdder();
+		this.sum = new LongAdder();
+		this.max = new AtomicLong();
+	}
+
+
+	/**
+	 * Records the given duration.
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds, with negative values treated as
+	 *            zero
+	 */
+	public void record (final long nanos) {
+		final long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+		this.bucketCounts.incrementAndGet(bucketIndex(micros));
+		this.count.increment();
+		this.sum.add(micros);
+		if (micros > this.max.get()) this.max.accumulateAndGet(micros, Math::max);
+	}
+
+
+	/**
+	 * Returns the number of recorded durations.
+	 *
+	 * @return the count
+	 */
+	public long getCount () {
+		return this.count.sum();
+	}
+
+
+	/**
+	 * Returns the sum of all recorded durations.
+	 *
+	 * @return the sum in seconds
+	 */
+	public double getSum () {
+		return this.sum.sum() * 1E-6;
+	}
+
+
+	/**
+	 * Returns the maximum recorded duration.
+	 *
+	 * @return the maximum in seconds
+	 */
+	public double getMax () {
+		return this.max.get() * 1E-6;
+	}
+
+
+	/**
+	 * Returns the given quantile of the recorded durations, i.e. the upper
+	 * bound of the bucket containing the duration of said rank. As recording
+	 * may continue concurrently, the result is approximate.
+	 *
+	 * @param quantile
+	 *            the quantile within range [0, 1]
+	 * @return the quantile value in seconds, or zero if nothing has been
+	 *         recorded yet
+	 * @throws IllegalArgumentException
+	 *             if the given quantile is out of range
+	 */
+	public double getQuantile (final double quantile) throws IllegalArgumentException {
+		if (quantile < 0 | quantile > 1) throw new IllegalArgumentException();
+
+		final long[] counts = new long[this.bucketCounts.length()];
+		long total = 0;
+		for (int index = 0; index < counts.length; ++index)
+			total += counts[index] = this.bucketCounts.get(index);
+		if (total == 0) return 0;
+
+		final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long cumulativeCount = 0;
+		for (int index = 0; index < counts.length; ++index) {
+			cumulativeCount += counts[index];
+			if (cumulativeCount >= rank) return Math.min(bucketUpperBound(index), this.max.get()) * 1E-6;
+		}
+		return this.getMax();
+	}
+
+
+	/**
+	 * Returns the index of the bucket containing the given value.
+	 *
+	 * @param value
+	 *            the value within range [0, MAX_VALUE]
+	 * @return the bucket index
+	 */
+	static private int bucketIndex (final long value) {
+		if (value < SUB_BUCKET_COUNT) return (int) value;
+
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+	}
+
+
+	/**
+	 * Returns the largest value contained in the bucket with the given index.
+	 *
+	 * @param index
+	 *            the bucket index
+	 * @return the bucket's upper bound
+	 */
+	static private long bucketUpperBound (final int index) {
+		if (index < SUB_BUCKET_COUNT) return index;
+
+		final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		final long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
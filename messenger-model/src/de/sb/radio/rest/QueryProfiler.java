@@ -0,0 +1,202 @@
+package de.sb.radio.rest;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.sessions.Record;
+import org.eclipse.persistence.sessions.SessionProfiler;
+import org.eclipse.persistence.tools.profiler.SessionProfilerAdapter;
+
+
+/**
+ * EclipseLink session profiler that records the latency and row count of
+ * every query execution with {@link RequestMetrics}, keyed by the query's
+ * shape, i.e. it's name or JPQL string. Additionally, the number and duration
+ * of the SQL statements executed are added to the tally bound to the executing
+ * thread, if any. Tallies are created per request by
+ * {@link RestMetricsProvider}, and bound to every thread working on behalf of
+ * said request, which allows attributing statements to requests even if they
+ * are executed asynchronously, or while marshaling the response entity. The
+ * profiler is installed using the persistence unit property
+ * <tt>eclipselink.profiler</tt>, and replaces SQL logging at level FINE, which
+ * formats every statement and it's parameters as text.
+ */
+public class QueryProfiler extends SessionProfilerAdapter {
+	static private final ThreadLocal<Tally> TALLIES = new ThreadLocal<>();
+	static private final ThreadLocal<Long> STATEMENT_STARTS = new ThreadLocal<>();
+
+
+	/**
+	 * Returns the statement tally bound to the current thread.
+	 *
+	 * @return the tally, or {@code null} for none
+	 */
+	static public Tally tally () {
+		return TALLIES.get();
+	}
+
+
+	/**
+	 * Binds the given statement tally to the current thread, replacing any
+	 * tally bound before.
+	 *
+	 * @param tally
+	 *            the tally, or {@code null} to unbind the current thread's
+	 *            tally
+	 */
+	static public void bind (final Tally tally) {
+		if (tally == null) {
+			TALLIES.remove();
+		} else {
+			TALLIES.set(tally);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getProfileWeight () {
+		return SessionProfiler.ALL;
+	}
+
+
+	/**
+	 * Executes the given query, and records it's latency and row count with
+	 * the statistics of it's shape.
+	 *
+	 * @param query
+	 *            {@inheritDoc}
+	 * @param row
+	 *            {@inheritDoc}
+	 * @param session
+	 *            {@inheritDoc}
+	 * @return {@inheritDoc}
+	 */
+	@Override
+	public Object profileExecutionOfQuery (final DatabaseQuery query, final Record row, final AbstractSession session) {
+		final long start = System.nanoTime();
+		Object result = null;
+		try {
+			return result = super.profileExecutionOfQuery(query, row, session);
+		} finally {
+			final RequestMetrics.QueryStatistics statistics = RequestMetrics.queryStatistics(shape(query));
+			statistics.getLatencies().record(System.nanoTime() - start);
+			statistics.addRowCount(rowCount(result));
+		}
+	}
+
+
+	/**
+	 * Notes the start time of SQL statement executions.
+	 *
+	 * @param operationName
+	 *            {@inheritDoc}
+	 * @param query
+	 *            {@inheritDoc}
+	 * @param weight
+	 *            {@inheritDoc}
+	 */
+	@Override
+	public void startOperationProfile (final String operationName, final DatabaseQuery query, final int weight) {
+		if (SessionProfiler.SqlExecute.equals(operationName)) STATEMENT_STARTS.set(System.nanoTime());
+	}
+
+
+	/**
+	 * Adds SQL statement executions to the tally bound to the current thread.
+	 *
+	 * @param operationName
+	 *            {@inheritDoc}
+	 * @param query
+	 *            {@inheritDoc}
+	 * @param weight
+	 *            {@inheritDoc}
+	 */
+	@Override
+	public void endOperationProfile (final String operationName, final DatabaseQuery query, final int weight) {
+		if (!SessionProfiler.SqlExecute.equals(operationName)) return;
+
+		final Tally tally = TALLIES.get();
+		final Long start = STATEMENT_STARTS.get();
+		if (tally == null | start == null) return;
+
+		tally.statementCount.incrementAndGet();
+		tally.statementNanos.addAndGet(System.nanoTime() - start);
+	}
+
+
+	/**
+	 * Returns the shape of the given query, i.e. it's name if it is a named
+	 * query, it's JPQL string if it has been created from one, or else it's
+	 * type and reference class.
+	 *
+	 * @param query
+	 *            the query
+	 * @return the query shape
+	 */
+	static private String shape (final DatabaseQuery query) {
+		if (query.getName() != null && !query.getName().isEmpty()) return query.getName();
+		if (query.getJPQLString() != null) return query.getJPQLString();
+		return query.getClass().getSimpleName() + (query.getReferenceClass() == null ? "" : " " + query.getReferenceClass().getSimpleName());
+	}
+
+
+	/**
+	 * Returns the number of rows affected by a query execution.
+	 *
+	 * @param result
+	 *            the query result, or {@code null} for none
+	 * @return the row count
+	 */
+	static private long rowCount (final Object result) {
+		if (result == null) return 0;
+		if (result instanceof Collection) return ((Collection<?>) result).size();
+		if (result instanceof Number) return ((Number) result).longValue();
+		return 1;
+	}
+
+
+
+	/**
+	 * Statement tally of a single request. As threads working on behalf of the
+	 * same request may overlap, for example when a lookup thread resumes an
+	 * asynchronous response, it's counters are thread-safe.
+	 */
+	static public class Tally {
+		private final AtomicInteger statementCount;
+		private final AtomicLong statementNanos;
+
+
+		/**
+		 * Creates a new instance.
+		 */
+		public Tally () {
+			this.statementCount = new AtomicInteger();
+			this.statementNanos = new AtomicLong();
+		}
+
+
+		/**
+		 * Returns the number of SQL statements executed.
+		 *
+		 * @return the statement count
+		 */
+		public int getStatementCount () {
+			return this.statementCount.get();
+		}
+
+
+		/**
+		 * Returns the time spent executing SQL statements.
+		 *
+		 * @return the statement duration in nanoseconds
+		 */
+		public long getStatementNanos () {
+			return this.statementNanos.get();
+		}
+	}
+}
@@ -0,0 +1,604 @@
+package de.sb.radio.rest;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.core.StreamingOutput;
+import de.sb.radio.persistence.HashTools;
+
+
+/**
+ * Size bounded, disk-backed cache for renditions, i.e. content derived from
+ * documents by processing, keyed by text combining the document's content
+ * hash with the processing parameters and output format. Every rendition is
+ * stored within a file of the cache directory, named after the SHA-256 hash
+ * of it's key; completed renditions therefore survive restarts, while partial
+ * ones are discarded. Eviction follows an LRU policy, where renditions being
+ * read are never evicted.
+ * <p>Rendering is single-flight: the first request for a rendition starts
+ * rendering it on the cache's render pool, and every request for the same
+ * rendition, including the first one, streams it from it's file while it
+ * grows, following the render thread until it completes. A popular track is
+ * therefore rendered once, no matter how many listeners request it
+ * concurrently, and no listener has to wait for the rendition to complete
+ * before receiving it's first bytes.</p>
+ */
+public class RenditionCache {
+	static private final String PARTIAL_SUFFIX = ".part";
+
+	private final Path directory;
+	private final long capacity;
+	private final ExecutorService renderExecutor;
+	private final Map<String, Rendition> renditions;
+	private final AtomicLong hitCount;
+	private final AtomicLong joinCount;
+	private final AtomicLong missCount;
+	private long residentSize;
+
+
+	/**
+	 * Creates a new instance, and registers it's gauges using the given name
+	 * as metric name prefix. Completed renditions already present within the
+	 * given directory are adopted in the order of their last modification,
+	 * while partial ones are deleted.
+	 *
+	 * @param name
+	 *            the metric name prefix
+	 * @param directory
+	 *            the cache directory, which is created if necessary
+	 * @param capacity
+	 *            the capacity in bytes
+	 * @param threadCount
+	 *            the maximum number of concurrent renders
+	 * @throws NullPointerException
+	 *             if the given name or directory is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the given capacity is negative, or the given thread count
+	 *             is not positive
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	public RenditionCache (final String name, final Path directory, final long capacity, final int threadCount) throws NullPointerException, IllegalArgumentException, IOException {
+		if (name == null | directory == null) throw new NullPointerException();
+		if (capacity < 0 | threadCount <= 0) throw new IllegalArgumentException();
+
+		this.directory = Files.createDirectories(directory);
+		this.capacity = capacity;
+		this.renderExecutor = DaemonExecutors.newInstance(name, threadCount);
+		this.renditions = new LinkedHashMap<>(64, 0.75f, true);
+		this.hitCount = new AtomicLong();
+		this.joinCount = new AtomicLong();
+		this.missCount = new AtomicLong();
+
+		final List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(this.directory)) {
+			for (final Path file : directoryStream) {
+				if (file.getFileName().toString().endsWith(PARTIAL_SUFFIX)) {
+					Files.deleteIfExists(file);
+				} else if (file.getFileName().toString().matches("^[0-9a-f]{64}$")) {
+					files.add(file);
+				}
+			}
+		}
+		files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+		synchronized (this) {
+			for (final Path file : files) {
+				final Rendition rendition = new Rendition(file);
+				rendition.complete(file, Files.size(file));
+				this.renditions.put(file.getFileName().toString(), rendition);
+				this.residentSize += rendition.getSize();
+			}
+			this.evictEntries();
+		}
+
+		ServiceMetrics.register(name + "_capacity_bytes", this::getCapacity);
+		ServiceMetrics.register(name + "_resident_bytes", this::getResidentSize);
+		ServiceMetrics.register(name + "_entries", this::getEntryCount);
+		ServiceMetrics.register(name + "_hits_total", this.hitCount::get);
+		ServiceMetrics.register(name + "_joins_total", this.joinCount::get);
+		ServiceMetrics.register(name + "_misses_total", this.missCount::get);
+		ServiceMetrics.register(name + "_hit_ratio", this::getHitRatio);
+	}
+
+
+	/**
+	 * Returns the capacity.
+	 *
+	 * @return the capacity in bytes
+	 */
+	public long getCapacity () {
+		return this.capacity;
+	}
+
+
+	/**
+	 * Returns the number of bytes of completed renditions currently resident
+	 * in this cache.
+	 *
+	 * @return the resident size in bytes
+	 */
+	public synchronized long getResidentSize () {
+		return this.residentSize;
+	}
+
+
+	/**
+	 * Returns the number of renditions currently resident in this cache,
+	 * including the ones being rendered.
+	 *
+	 * @return the entry count
+	 */
+	public synchronized int getEntryCount () {
+		return this.renditions.size();
+	}
+
+
+	/**
+	 * Returns the ratio of cache hits, including joins of renditions being
+	 * rendered, to all cache lookups.
+	 *
+	 * @return the hit ratio within range [0, 1]
+	 */
+	public double getHitRatio () {
+		final long hitCount = this.hitCount.get() + this.joinCount.get();
+		final long lookupCount = hitCount + this.missCount.get();
+		return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+	}
+
+
+	/**
+	 * Returns a new input stream over the rendition matching the given key,
+	 * which follows the rendition if it is still being rendered. The
+	 * rendition cannot be evicted until the stream is closed.
+	 *
+	 * @param key
+	 *            the rendition key
+	 * @return the input stream, or {@code null} if there is no such rendition
+	 * @throws NullPointerException
+	 *             if the given key is {@code null}
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	public InputStream get (final String key) throws NullPointerException, IOException {
+		final Rendition rendition;
+		synchronized (this) {
+			rendition = this.renditions.get(fileName(key));
+			if (rendition != null) rendition.readerCount += 1;
+		}
+
+		if (rendition == null) {
+			this.missCount.incrementAndGet();
+			return null;
+		}
+
+		(rendition.isComplete() ? this.hitCount : this.joinCount).incrementAndGet();
+		return this.newInputStream(rendition);
+	}
+
+
+	/**
+	 * Starts rendering the rendition matching the given key using the given
+	 * renderer, and returns a new input stream that follows it. If the
+	 * rendition has been started meanwhile by another request, the given
+	 * renderer is discarded, and the stream follows the existing rendition.
+	 * The rendition cannot be evicted until the stream is closed.
+	 *
+	 * @param key
+	 *            the rendition key
+	 * @param renderer
+	 *            the renderer, which writes the rendition
+	 * @return the input stream
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	public InputStream put (final String key, final StreamingOutput renderer) throws NullPointerException, IOException {
+		if (renderer == null) throw new NullPointerException();
+
+		final String fileName = fileName(key);
+		final Rendition rendition;
+		final FileChannel fileChannel;
+		synchronized (this) {
+			final Rendition existingRendition = this.renditions.get(fileName);
+			if (existingRendition == null) {
+				rendition = new Rendition(this.directory.resolve(fileName + PARTIAL_SUFFIX));
+				fileChannel = FileChannel.open(rendition.getPath(), CREATE_NEW, WRITE);
+				this.renditions.put(fileName, rendition);
+			} else {
+				rendition = existingRendition;
+				fileChannel = null;
+			}
+			rendition.readerCount += 1;
+		}
+
+		if (fileChannel == null) {
+			this.joinCount.incrementAndGet();
+		} else {
+			this.renderExecutor.execute(() -> this.render(fileName, rendition, fileChannel, renderer));
+		}
+		return this.newInputStream(rendition);
+	}
+
+
+	/**
+	 * Renders the given rendition into the given file channel, and completes
+	 * it by renaming it's file. If rendering fails, the rendition is removed,
+	 * and it's readers fail as well.
+	 *
+	 * @param fileName
+	 *            the completed rendition's file name
+	 * @param rendition
+	 *            the rendition
+	 * @param fileChannel
+	 *            the rendition's file channel
+	 * @param renderer
+	 *            the renderer
+	 */
+	private void render (final String fileName, final Rendition rendition, final FileChannel fileChannel, final StreamingOutput renderer) {
+		try {
+			try (OutputStream byteSink = new BufferedOutputStream(new RenditionOutputStream(rendition, fileChannel), 0x10000)) {
+				renderer.write(byteSink);
+			}
+
+			final Path file = this.directory.resolve(fileName);
+			synchronized (rendition) {
+				Files.move(rendition.getPath(), file);
+				rendition.complete(file, rendition.getSize());
+			}
+
+			synchronized (this) {
+				this.residentSize += rendition.getSize();
+				this.evictEntries();
+			}
+		} catch (final Exception exception) {
+			rendition.fail(exception);
+			synchronized (this) {
+				this.renditions.remove(fileName, rendition);
+			}
+			try {
+				fileChannel.close();
+				Files.deleteIfExists(rendition.getPath());
+			} catch (final IOException nestedException) {
+				exception.addSuppressed(nestedException);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns a new input stream following the given rendition, which must
+	 * already account for the new reader. If the stream cannot be opened, the
+	 * reader is released again.
+	 *
+	 * @param rendition
+	 *            the rendition
+	 * @return the input stream
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	private InputStream newInputStream (final Rendition rendition) throws IOException {
+		try {
+			synchronized (rendition) {
+				return new RenditionInputStream(rendition, FileChannel.open(rendition.getPath(), READ));
+			}
+		} catch (final IOException exception) {
+			this.release(rendition);
+			throw exception;
+		}
+	}
+
+
+	/**
+	 * Releases a reader of the given rendition, and evicts renditions if this
+	 * cache exceeds it's capacity.
+	 *
+	 * @param rendition
+	 *            the rendition
+	 */
+	private synchronized void release (final Rendition rendition) {
+		rendition.readerCount -= 1;
+		this.evictEntries();
+	}
+
+
+	/**
+	 * Evicts the least recently used completed renditions that are not being
+	 * read, until this cache fits it's capacity again. Must be called while
+	 * holding this cache's monitor.
+	 */
+	private void evictEntries () {
+		for (final Iterator<Rendition> iterator = this.renditions.values().iterator(); this.residentSize > this.capacity && iterator.hasNext();) {
+			final Rendition rendition = iterator.next();
+			if (!rendition.isComplete() || rendition.readerCount > 0) continue;
+
+			iterator.remove();
+			this.residentSize -= rendition.getSize();
+			try {
+				Files.deleteIfExists(rendition.getPath());
+			} catch (final IOException exception) {
+				// the orphaned file is adopted again upon restart
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the file name of the rendition matching the given key.
+	 *
+	 * @param key
+	 *            the rendition key
+	 * @return the file name
+	 * @throws NullPointerException
+	 *             if the given key is {@code null}
+	 */
+	static private String fileName (final String key) throws NullPointerException {
+		return HashTools.toHexString(HashTools.sha256HashCode(key));
+	}
+
+
+
+	/**
+	 * Rendition entry, whose monitor guards it's file and progress, and is
+	 * notified whenever the latter changes. The reader count is guarded by the
+	 * cache's monitor instead.
+	 */
+	static private class Rendition {
+		private Path path;
+		private long size;
+		private boolean complete;
+		private Exception failure;
+		private int readerCount;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param path
+		 *            the rendition's file
+		 */
+		public Rendition (final Path path) {
+			this.path = path;
+		}
+
+
+		/**
+		 * Returns the rendition's current file.
+		 *
+		 * @return the file
+		 */
+		public synchronized Path getPath () {
+			return this.path;
+		}
+
+
+		/**
+		 * Returns the number of bytes rendered so far.
+		 *
+		 * @return the size in bytes
+		 */
+		public synchronized long getSize () {
+			return this.size;
+		}
+
+
+		/**
+		 * Returns whether or not the rendition is complete.
+		 *
+		 * @return {@code true} if complete, {@code false} otherwise
+		 */
+		public synchronized boolean isComplete () {
+			return this.complete;
+		}
+
+
+		/**
+		 * Accounts the given number of bytes as rendered.
+		 *
+		 * @param byteCount
+		 *            the number of bytes
+		 */
+		public synchronized void advance (final long byteCount) {
+			this.size += byteCount;
+			this.notifyAll();
+		}
+
+
+		/**
+		 * Marks the rendition as complete.
+		 *
+		 * @param path
+		 *            the rendition's final file
+		 * @param size
+		 *            the rendition's size in bytes
+		 */
+		public synchronized void complete (final Path path, final long size) {
+			this.path = path;
+			this.size = size;
+			this.complete = true;
+			this.notifyAll();
+		}
+
+
+		/**
+		 * Marks the rendition as failed.
+		 *
+		 * @param failure
+		 *            the cause
+		 */
+		public synchronized void fail (final Exception failure) {
+			this.failure = failure;
+			this.notifyAll();
+		}
+
+
+		/**
+		 * Waits until more than the given number of bytes have been rendered,
+		 * or the rendition is complete.
+		 *
+		 * @param position
+		 *            the number of bytes already read
+		 * @return the number of bytes available beyond the given position, or
+		 *         zero if the rendition is complete and there are none
+		 * @throws IOException
+		 *             if rendering has failed, or if the current thread is
+		 *             interrupted while waiting
+		 */
+		public synchronized long await (final long position) throws IOException {
+			try {
+				while (this.failure == null & !this.complete & this.size <= position)
+					this.wait();
+			} catch (final InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+
+			if (this.failure != null) throw new IOException(this.failure);
+			return this.size - position;
+		}
+	}
+
+
+
+	/**
+	 * Output stream writing into a rendition's file, which advances the
+	 * rendition after every write.
+	 */
+	static private class RenditionOutputStream extends OutputStream {
+		private final Rendition rendition;
+		private final FileChannel fileChannel;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param rendition
+		 *            the rendition
+		 * @param fileChannel
+		 *            the rendition's file channel
+		 */
+		public RenditionOutputStream (final Rendition rendition, final FileChannel fileChannel) {
+			this.rendition = rendition;
+			this.fileChannel = fileChannel;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void write (final int value) throws IOException {
+			this.write(new byte[] { (byte) value }, 0, 1);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void write (final byte[] buffer, final int offset, final int length) throws IOException {
+			final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+			while (byteBuffer.hasRemaining())
+				this.fileChannel.write(byteBuffer);
+			this.rendition.advance(length);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			this.fileChannel.close();
+		}
+	}
+
+
+
+	/**
+	 * Input stream reading a rendition's file, which waits for the rendition
+	 * to advance whenever it reaches it's current end, and releases it's
+	 * reader upon closing. Closing is idempotent and thread-safe, as a stream
+	 * may be closed both by the thread writing a response, and by the one
+	 * completing it.
+	 */
+	private class RenditionInputStream extends InputStream {
+		private final Rendition rendition;
+		private final FileChannel fileChannel;
+		private long position;
+		private volatile boolean closed;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param rendition
+		 *            the rendition
+		 * @param fileChannel
+		 *            the rendition's file channel
+		 */
+		public RenditionInputStream (final Rendition rendition, final FileChannel fileChannel) {
+			this.rendition = rendition;
+			this.fileChannel = fileChannel;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public int read () throws IOException {
+			final byte[] buffer = new byte[1];
+			return this.read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public int read (final byte[] buffer, final int offset, final int length) throws IOException {
+			if (this.closed) throw new IOException("stream closed");
+			if (length == 0) return 0;
+
+			final long available = this.rendition.await(this.position);
+			if (available == 0) return -1;
+
+			final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, (int) Math.min(length, available));
+			while (byteBuffer.hasRemaining()) {
+				final int bytesRead = this.fileChannel.read(byteBuffer, this.position);
+				if (bytesRead == -1) throw new IOException("rendition truncated");
+				this.position += bytesRead;
+			}
+			return byteBuffer.position() - offset;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public synchronized void close () throws IOException {
+			if (this.closed) return;
+
+			this.closed = true;
+			try {
+				this.fileChannel.close();
+			} finally {
+				RenditionCache.this.release(this.rendition);
+			}
+		}
+	}
+}
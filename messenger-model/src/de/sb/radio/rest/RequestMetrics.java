@@ -0,0 +1,392 @@
+package de.sb.radio.rest;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * This facade provides a registry of request statistics per endpoint and
+ * response status code, i.e. latency histograms, request counts and response
+ * sizes, plus a latency histogram of request authentication, and query
+ * statistics per query shape, i.e. latency histograms and row counts. The
+ * statistics can be rendered together with the gauges registered with
+ * {@link ServiceMetrics} in the Prometheus text exposition format.
+ */
+public final class RequestMetrics {
+	static private final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	static private final Map<String, Statistics> STATISTICS = new ConcurrentSkipListMap<>();
+	static private final Map<String, QueryStatistics> QUERY_STATISTICS = new ConcurrentSkipListMap<>();
+	static private final LatencyHistogram AUTHENTICATION = new LatencyHistogram();
+
+
+	/**
+	 * Returns the statistics for the given endpoint and response status code,
+	 * creating them if necessary.
+	 *
+	 * @param method
+	 *            the HTTP method
+	 * @param path
+	 *            the endpoint's path template, for example
+	 *            {@code /documents/{id}}
+	 * @param status
+	 *            the HTTP response status code
+	 * @return the statistics
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 */
+	static public Statistics statistics (final String method, final String path, final int status) throws NullPointerException {
+		if (method == null | path == null) throw new NullPointerException();
+		return STATISTICS.computeIfAbsent(path + " " + method + " " + status, key -> new Statistics(method, path, status));
+	}
+
+
+	/**
+	 * Returns the statistics for the given query shape, creating them if
+	 * necessary.
+	 *
+	 * @param shape
+	 *            the query shape, i.e. a query name or JPQL string
+	 * @return the statistics
+	 * @throws NullPointerException
+	 *             if the given argument is {@code null}
+	 */
+	static public QueryStatistics queryStatistics (final String shape) throws NullPointerException {
+		if (shape == null) throw new NullPointerException();
+		return QUERY_STATISTICS.computeIfAbsent(shape, QueryStatistics::new);
+	}
+
+
+	/**
+	 * Returns the latency histogram of request authentication.
+	 *
+	 * @return the authentication latency histogram
+	 */
+	static public LatencyHistogram authentication () {
+		return AUTHENTICATION;
+	}
+
+
+	/**
+	 * Returns the request statistics and all registered service gauges in the
+	 * Prometheus text exposition format (version 0.0.4).
+	 *
+	 * @return the exposition text
+	 */
+	static public String exposition () {
+		final StringBuilder builder = new StringBuilder();
+
+		builder.append("# HELP radio_http_request_duration_seconds REST request latency per endpoint and status code.\n");
+		builder.append("# TYPE radio_http_request_duration_seconds summary\n");
+		for (final Statistics statistics : STATISTICS.values()) {
+			appendSummary(builder, "radio_http_request_duration_seconds", statistics.labels(), statistics.getLatencies());
+		}
+
+		builder.append("# HELP radio_http_request_duration_seconds_max Maximum REST request latency per endpoint and status code.\n");
+		builder.append("# TYPE radio_http_request_duration_seconds_max gauge\n");
+		for (final Statistics statistics : STATISTICS.values()) {
+			appendSample(builder, "radio_http_request_duration_seconds_max", statistics.labels(), statistics.getLatencies().getMax());
+		}
+
+		builder.append("# HELP radio_http_requests_total REST request count per endpoint and status code.\n");
+		builder.append("# TYPE radio_http_requests_total counter\n");
+		for (final Statistics statistics : STATISTICS.values()) {
+			appendSample(builder, "radio_http_requests_total", statistics.labels(), statistics.getLatencies().getCount());
+		}
+
+		builder.append("# HELP radio_http_request_errors_total REST request count per endpoint and status code of 400 or above.\n");
+		builder.append("# TYPE radio_http_request_errors_total counter\n");
+		for (final Statistics statistics : STATISTICS.values()) {
+			if (statistics.status >= 400) appendSample(builder, "radio_http_request_errors_total", statistics.labels(), statistics.getLatencies().getCount());
+		}
+
+		builder.append("# HELP radio_http_response_bytes_total REST response entity bytes written per endpoint and status code.\n");
+		builder.append("# TYPE radio_http_response_bytes_total counter\n");
+		for (final Statistics statistics : STATISTICS.values()) {
+			appendSample(builder, "radio_http_response_bytes_total", statistics.labels(), statistics.getByteCount());
+		}
+
+		builder.append("# HELP radio_http_db_statements_total SQL statements executed per endpoint and status code.\n");
+		builder.append("# TYPE radio_http_db_statements_total counter\n");
+		for (final Statistics statistics : STATISTICS.values()) {
+			appendSample(builder, "radio_http_db_statements_total", statistics.labels(), statistics.getStatementCount());
+		}
+
+		builder.append("# HELP radio_http_db_seconds_total SQL statement execution time per endpoint and status code.\n");
+		builder.append("# TYPE radio_http_db_seconds_total counter\n");
+		for (final Statistics statistics : STATISTICS.values()) {
+			appendSample(builder, "radio_http_db_seconds_total", statistics.labels(), statistics.getStatementNanos() * 1E-9);
+		}
+
+		builder.append("# HELP radio_db_query_duration_seconds Query execution latency per query shape.\n");
+		builder.append("# TYPE radio_db_query_duration_seconds summary\n");
+		for (final QueryStatistics statistics : QUERY_STATISTICS.values()) {
+			appendSummary(builder, "radio_db_query_duration_seconds", statistics.labels(), statistics.getLatencies());
+		}
+
+		builder.append("# HELP radio_db_query_rows_total Rows returned or affected per query shape.\n");
+		builder.append("# TYPE radio_db_query_rows_total counter\n");
+		for (final QueryStatistics statistics : QUERY_STATISTICS.values()) {
+			appendSample(builder, "radio_db_query_rows_total", statistics.labels(), statistics.getRowCount());
+		}
+
+		builder.append("# HELP radio_http_authentication_duration_seconds REST request authentication latency.\n");
+		builder.append("# TYPE radio_http_authentication_duration_seconds summary\n");
+		appendSummary(builder, "radio_http_authentication_duration_seconds", "", AUTHENTICATION);
+		builder.append("# TYPE radio_http_authentication_duration_seconds_max gauge\n");
+		appendSample(builder, "radio_http_authentication_duration_seconds_max", "", AUTHENTICATION.getMax());
+
+		for (final Map.Entry<String, Number> entry : ServiceMetrics.snapshot().entrySet()) {
+			builder.append("# TYPE ").append(entry.getKey()).append(" untyped\n");
+			appendSample(builder, entry.getKey(), "", entry.getValue());
+		}
+
+		return builder.toString();
+	}
+
+
+	/**
+	 * Appends the quantile, sum and count samples of the given histogram.
+	 *
+	 * @param builder
+	 *            the string builder
+	 * @param name
+	 *            the metric name
+	 * @param labels
+	 *            the comma separated labels, or an empty string for none
+	 * @param histogram
+	 *            the latency histogram
+	 */
+	static private void appendSummary (final StringBuilder builder, final String name, final String labels, final LatencyHistogram histogram) {
+		final String separator = labels.isEmpty() ? "" : ",";
+		for (final double quantile : QUANTILES) {
+			appendSample(builder, name, labels + separator + "quantile=\"" + quantile + "\"", histogram.getQuantile(quantile));
+		}
+		appendSample(builder, name + "_sum", labels, histogram.getSum());
+		appendSample(builder, name + "_count", labels, histogram.getCount());
+	}
+
+
+	/**
+	 * Appends a single sample line.
+	 *
+	 * @param builder
+	 *            the string builder
+	 * @param name
+	 *            the metric name
+	 * @param labels
+	 *            the comma separated labels, or an empty string for none
+	 * @param value
+	 *            the sample value
+	 */
+	static private void appendSample (final StringBuilder builder, final String name, final String labels, final Number value) {
+		builder.append(name);
+		if (!labels.isEmpty()) builder.append('{').append(labels).append('}');
+		builder.append(' ');
+		if (value instanceof Double || value instanceof Float) {
+			builder.append(String.format(Locale.ROOT, "%.6g", value.doubleValue()));
+		} else {
+			builder.append(value);
+		}
+		builder.append('\n');
+	}
+
+
+	/**
+	 * Returns the given text as a Prometheus label value, escaping
+	 * backslashes, double quotes and line feeds.
+	 *
+	 * @param text
+	 *            the text
+	 * @return the quoted label value
+	 */
+	static private String quote (final String text) {
+		return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+	}
+
+
+	/**
+	 * Prevents external instantiation.
+	 */
+	private RequestMetrics () {
+	}
+
+
+
+	/**
+	 * Request statistics of a single endpoint and response status code.
+	 * Recording is lock-free.
+	 */
+	static public class Statistics {
+		private final String method;
+		private final String path;
+		private final int status;
+		private final LatencyHistogram latencies;
+		private final LongAdder byteCount;
+		private final LongAdder statementCount;
+		private final LongAdder statementNanos;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param method
+		 *            the HTTP method
+		 * @param path
+		 *            the endpoint's path template
+		 * @param status
+		 *            the HTTP response status code
+		 */
+		private Statistics (final String method, final String path, final int status) {
+			this.method = method;
+			this.path = path;
+			this.status = status;
+			this.latencies = new LatencyHistogram();
+			this.byteCount = new LongAdder();
+			this.statementCount = new LongAdder();
+			this.statementNanos = new LongAdder();
+		}
+
+
+		/**
+		 * Returns the request latency histogram.
+		 *
+		 * @return the latency histogram
+		 */
+		public LatencyHistogram getLatencies () {
+			return this.latencies;
+		}
+
+
+		/**
+		 * Returns the number of response entity bytes written.
+		 *
+		 * @return the byte count
+		 */
+		public long getByteCount () {
+			return this.byteCount.sum();
+		}
+
+
+		/**
+		 * Adds the given number of response entity bytes written.
+		 *
+		 * @param byteCount
+		 *            the byte count
+		 */
+		public void addByteCount (final long byteCount) {
+			this.byteCount.add(byteCount);
+		}
+
+
+		/**
+		 * Returns the number of SQL statements executed.
+		 *
+		 * @return the statement count
+		 */
+		public long getStatementCount () {
+			return this.statementCount.sum();
+		}
+
+
+		/**
+		 * Returns the time spent executing SQL statements.
+		 *
+		 * @return the statement duration in nanoseconds
+		 */
+		public long getStatementNanos () {
+			return this.statementNanos.sum();
+		}
+
+
+		/**
+		 * Adds the given number of SQL statements executed, and the time spent
+		 * executing them.
+		 *
+		 * @param statementCount
+		 *            the statement count
+		 * @param statementNanos
+		 *            the statement duration in nanoseconds
+		 */
+		public void addStatements (final long statementCount, final long statementNanos) {
+			this.statementCount.add(statementCount);
+			this.statementNanos.add(statementNanos);
+		}
+
+
+		/**
+		 * Returns the Prometheus labels identifying these statistics.
+		 *
+		 * @return the comma separated labels
+		 */
+		private String labels () {
+			return "method=" + quote(this.method) + ",path=" + quote(this.path) + ",status=\"" + this.status + "\"";
+		}
+	}
+
+
+
+	/**
+	 * Query statistics of a single query shape. Recording is lock-free.
+	 */
+	static public class QueryStatistics {
+		private final String shape;
+		private final LatencyHistogram latencies;
+		private final LongAdder rowCount;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param shape
+		 *            the query shape
+		 */
+		private QueryStatistics (final String shape) {
+			this.shape = shape;
+			this.latencies = new LatencyHistogram();
+			this.rowCount = new LongAdder();
+		}
+
+
+		/**
+		 * Returns the query latency histogram.
+		 *
+		 * @return the latency histogram
+		 */
+		public LatencyHistogram getLatencies () {
+			return this.latencies;
+		}
+
+
+		/**
+		 * Returns the number of rows returned or affected.
+		 *
+		 * @return the row count
+		 */
+		public long getRowCount () {
+			return this.rowCount.sum();
+		}
+
+
+		/**
+		 * Adds the given number of rows returned or affected.
+		 *
+		 * @param rowCount
+		 *            the row count
+		 */
+		public void addRowCount (final long rowCount) {
+			this.rowCount.add(rowCount);
+		}
+
+
+		/**
+		 * Returns the Prometheus labels identifying these statistics.
+		 *
+		 * @return the labels
+		 */
+		private String labels () {
+			return "query=" + quote(this.shape);
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package de.sb.radio.rest;
+
+import static javax.ws.rs.core.HttpHeaders.ACCEPT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_LENGTH;
+import static javax.ws.rs.core.HttpHeaders.ETAG;
+import static javax.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
+import static javax.ws.rs.core.HttpHeaders.VARY;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+
+/**
+ * JAX-RS writer interceptor and response filter provider that compresses
+ * textual response entities like JSON using either gzip or deflate content
+ * encoding, depending on the request's "Accept-Encoding" header. Entities
+ * are buffered until they exceed a size threshold configurable using the
+ * system property <tt>radio.compression.threshold</tt> (default 1KB); smaller
+ * entities are sent uncompressed, as compression wouldn't pay off for them.
+ * Media types that are usually compressed already, like <tt>audio/mpeg</tt>
+ * or <tt>image/jpeg</tt>, are never compressed. The native compression state
+ * is expensive to create, therefore deflaters are pooled and reused across
+ * requests.
+ * <p>
+ * Compressed entities are a different representation than uncompressed ones,
+ * which must not share the same strong entity tag. Their tag is therefore
+ * weakened whenever a content coding is applied, and so is the tag of a
+ * "304 Not Modified" response to a request that presented the weakened tag.
+ * Resources may continue to evaluate preconditions using their strong tags,
+ * as "If-None-Match" uses the weak comparison function for GET and HEAD
+ * requests.
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class RestCompressionProvider implements WriterInterceptor, ContainerResponseFilter {
+	static private final int THRESHOLD = Integer.getInteger("radio.compression.threshold", 1024);
+	static private final int POOL_SIZE = 64;
+	static private final BlockingQueue<Deflater> GZIP_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+	static private final BlockingQueue<Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+	@Context
+	private HttpHeaders requestHeaders;
+
+
+	/**
+	 * Compresses the entity if it's media type is compressible, the client
+	 * accepts gzip or deflate encoding, and the entity exceeds the size
+	 * threshold.
+	 *
+	 * @param context
+	 *            {@inheritDoc}
+	 * @throws IOException
+	 *             {@inheritDoc}
+	 * @throws WebApplicationException
+	 *             {@inheritDoc}
+	 */
+	public void aroundWriteTo (final WriterInterceptorContext context) throws IOException, WebApplicationException {
+		final MultivaluedMap<String, Object> responseHeaders = context.getHeaders();
+		if (!isCompressible(context.getMediaType()) || responseHeaders.containsKey(CONTENT_ENCODING)) {
+			context.proceed();
+			return;
+		}
+
+		responseHeaders.add(VARY, ACCEPT_ENCODING);
+		final String encoding = negotiateEncoding(this.requestHeaders.getHeaderString(ACCEPT_ENCODING));
+		if (encoding == null) {
+			context.proceed();
+			return;
+		}
+
+		final OutputStream byteSink = context.getOutputStream();
+		final CompressingOutputStream compressingSink = new CompressingOutputStream(byteSink, responseHeaders, encoding);
+		context.setOutputStream(compressingSink);
+		try {
+			context.proceed();
+			compressingSink.finish();
+		} finally {
+			compressingSink.release();
+			context.setOutputStream(byteSink);
+		}
+	}
+
+
+	/**
+	 * Weakens the entity tag of a "304 Not Modified" response if the request
+	 * presented said tag in it's weak form, i.e. if the client holds a
+	 * compressed representation.
+	 *
+	 * @param requestContext
+	 *            {@inheritDoc}
+	 * @param responseContext
+	 *            {@inheritDoc}
+	 */
+	public void filter (final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) {
+		if (responseContext.getStatus() != NOT_MODIFIED.getStatusCode()) return;
+
+		final EntityTag entityTag = responseContext.getEntityTag();
+		final String ifNoneMatch = requestContext.getHeaderString(IF_NONE_MATCH);
+		if (entityTag == null || entityTag.isWeak() || ifNoneMatch == null) return;
+
+		if (ifNoneMatch.contains("W/\"" + entityTag.getValue() + "\"")) responseContext.getHeaders().putSingle(ETAG, new EntityTag(entityTag.getValue(), true));
+	}
+
+
+	/**
+	 * Returns whether or not the given media type benefits from compression.
+	 *
+	 * @param mediaType
+	 *            the media type, or {@code null} for none
+	 * @return {@code true} if the given media type is compressible,
+	 *         {@code false} otherwise
+	 */
+	static private boolean isCompressible (final MediaType mediaType) {
+		if (mediaType == null) return false;
+
+		final String type = mediaType.getType().toLowerCase();
+		final String subtype = mediaType.getSubtype().toLowerCase();
+		if (type.equals("text")) return true;
+		if (type.equals("image")) return subtype.equals("svg+xml");
+		if (!type.equals("application")) return false;
+		return subtype.equals("json") || subtype.endsWith("+json") || subtype.equals("xml") || subtype.endsWith("+xml") || subtype.equals("javascript");
+	}
+
+
+	/**
+	 * Returns the preferred content encoding among gzip and deflate that is
+	 * accepted by the given "Accept-Encoding" header value. Codings with a
+	 * quality of zero are refused by the client, and therefore never chosen.
+	 *
+	 * @param acceptEncoding
+	 *            the "Accept-Encoding" header value, or {@code null} for none
+	 * @return the content encoding, or {@code null} for none
+	 */
+	static private String negotiateEncoding (final String acceptEncoding) {
+		if (acceptEncoding == null) return null;
+
+		String encoding = null;
+		double encodingQuality = 0;
+		for (final String element : acceptEncoding.split(",")) {
+			final String[] parameters = element.trim().split(";");
+			final String coding = parameters[0].trim().toLowerCase();
+			if (!coding.equals("gzip") && !coding.equals("deflate")) continue;
+
+			double quality = 1;
+			for (int index = 1; index < parameters.length; ++index) {
+				final String parameter = parameters[index].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2));
+					} catch (final NumberFormatException exception) {
+						quality = 0;
+					}
+				}
+			}
+
+			// q=0 means the client refuses the coding
+			if (quality <= 0) continue;
+			if (quality > encodingQuality || (quality == encodingQuality && coding.equals("gzip"))) {
+				encoding = coding;
+				encodingQuality = quality;
+			}
+		}
+		return encoding;
+	}
+
+
+
+	/**
+	 * Output stream that buffers written content up to the size threshold, and
+	 * starts compressing it once said threshold is exceeded. The response
+	 * headers remain modifiable until then, as nothing has been written to the
+	 * underlying stream yet.
+	 */
+	static private class CompressingOutputStream extends OutputStream {
+		private final OutputStream byteSink;
+		private final MultivaluedMap<String, Object> responseHeaders;
+		private final String encoding;
+		private final ByteArrayOutputStream buffer;
+		private Deflater deflater;
+		private DeflaterOutputStream compressingSink;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param byteSink
+		 *            the underlying byte sink
+		 * @param responseHeaders
+		 *            the response headers
+		 * @param encoding
+		 *            the content encoding, either gzip or deflate
+		 */
+		public CompressingOutputStream (final OutputStream byteSink, final MultivaluedMap<String, Object> responseHeaders, final String encoding) {
+			this.byteSink = byteSink;
+			this.responseHeaders = responseHeaders;
+			this.encoding = encoding;
+			this.buffer = new ByteArrayOutputStream(Math.min(THRESHOLD, 0x2000));
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final int value) throws IOException {
+			this.write(new byte[] { (byte) value }, 0, 1);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final byte[] bytes, final int offset, final int length) throws IOException {
+			if (this.compressingSink == null) {
+				if (this.buffer.size() + length <= THRESHOLD) {
+					this.buffer.write(bytes, offset, length);
+					return;
+				}
+
+				this.startCompression();
+			}
+
+			this.compressingSink.write(bytes, offset, length);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void flush () throws IOException {
+			if (this.compressingSink != null) this.compressingSink.flush();
+		}
+
+
+		/**
+		 * Finishes writing, either by writing the buffered content
+		 * uncompressed, or by finishing compression. The underlying byte sink
+		 * is not closed.
+		 *
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		@Override
+		public void close () throws IOException {
+			this.finish();
+		}
+
+
+		/**
+		 * Finishes writing, either by writing the buffered content
+		 * uncompressed, or by finishing compression. The underlying byte sink
+		 * is not closed.
+		 *
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		public void finish () throws IOException {
+			if (this.compressingSink == null) {
+				this.buffer.writeTo(this.byteSink);
+				this.buffer.reset();
+			} else {
+				this.compressingSink.finish();
+			}
+		}
+
+
+		/**
+		 * Returns the deflater into it's pool, or discards it's native state if
+		 * the pool is full.
+		 */
+		public void release () {
+			if (this.deflater == null) return;
+
+			this.deflater.reset();
+			final BlockingQueue<Deflater> pool = this.encoding.equals("gzip") ? GZIP_DEFLATERS : ZLIB_DEFLATERS;
+			if (!pool.offer(this.deflater)) this.deflater.end();
+			this.deflater = null;
+		}
+
+
+		/**
+		 * Marks the response as compressed, weakening it's entity tag if any,
+		 * acquires a pooled deflater, and writes the buffered content into the
+		 * compressing stream.
+		 *
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		private void startCompression () throws IOException {
+			this.responseHeaders.putSingle(CONTENT_ENCODING, this.encoding);
+			this.responseHeaders.remove(CONTENT_LENGTH);
+
+			final Object entityTag = this.responseHeaders.getFirst(ETAG);
+			if (entityTag != null) {
+				final EntityTag currentTag = entityTag instanceof EntityTag ? (EntityTag) entityTag : EntityTag.valueOf(entityTag.toString());
+				this.responseHeaders.putSingle(ETAG, new EntityTag(currentTag.getValue(), true));
+			}
+
+			final boolean gzip = this.encoding.equals("gzip");
+			final Deflater deflater = (gzip ? GZIP_DEFLATERS : ZLIB_DEFLATERS).poll();
+			this.deflater = deflater == null ? new Deflater(Deflater.DEFAULT_COMPRESSION, gzip) : deflater;
+			this.compressingSink = gzip ? new GzipOutputStream(this.byteSink, this.deflater) : new DeflaterOutputStream(this.byteSink, this.deflater, 0x2000);
+
+			this.buffer.writeTo(this.compressingSink);
+			this.buffer.reset();
+		}
+	}
+
+
+
+	/**
+	 * GZIP output stream based on a given deflater in raw mode, as
+	 * {@link java.util.zip.GZIPOutputStream} always allocates it's own one.
+	 * Finishing this stream does not end the deflater, which allows it to be
+	 * reused.
+	 */
+	static private class GzipOutputStream extends DeflaterOutputStream {
+		static private final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+		private final CRC32 checksum;
+		private boolean finished;
+
+
+		/**
+		 * Creates a new instance, and writes the GZIP header.
+		 *
+		 * @param byteSink
+		 *            the underlying byte sink
+		 * @param deflater
+		 *            a deflater in raw mode, i.e. without zlib wrapper
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		public GzipOutputStream (final OutputStream byteSink, final Deflater deflater) throws IOException {
+			super(byteSink, deflater, 0x2000);
+			this.checksum = new CRC32();
+			this.out.write(HEADER);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final byte[] bytes, final int offset, final int length) throws IOException {
+			super.write(bytes, offset, length);
+			this.checksum.update(bytes, offset, length);
+		}
+
+
+		/**
+		 * Finishes compression, and writes the GZIP trailer.
+		 *
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		@Override
+		public void finish () throws IOException {
+			if (this.finished) return;
+			this.finished = true;
+
+			super.finish();
+			final long checksum = this.checksum.getValue();
+			final long size = this.def.getBytesRead();
+			final byte[] trailer = new byte[8];
+			for (int index = 0; index < 4; ++index) {
+				trailer[index + 0] = (byte) (checksum >>> (index << 3));
+				trailer[index + 4] = (byte) (size >>> (index << 3));
+			}
+			this.out.write(trailer);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package de.sb.radio.rest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Priority;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+
+
+/**
+ * JAX-RS filter provider that manages request scoped entity managers bound to
+ * the current thread. Other than the toolbox's lifecycle provider, entity
+ * managers are created lazily upon first use, and are not associated with a
+ * transaction; therefore read-only requests never begin a transaction, and
+ * only hold a pooled database connection for the duration of each query.
+ * Mutating service methods are expected to scope a transaction to just their
+ * mutation:
+ * <pre>
+ * radioManager.getTransaction().begin();
+ * try {
+ * 	radioManager.persist(entity);
+ * 	radioManager.getTransaction().commit();
+ * } catch (final PersistenceException exception) {
+ * 	throw new ClientErrorException(CONFLICT);
+ * } finally {
+ * 	if (radioManager.getTransaction().isActive()) radioManager.getTransaction().rollback();
+ * }
+ * </pre>
+ * Entity managers still bound at the end of a request are closed, rolling
+ * back any transaction left active. The provider's priority orders it's
+ * request filter before the authentication filters, so that authentication
+ * never runs on a stale entity manager left bound to a pooled thread, and the
+ * entity manager opened by authentication is reused by the resource method
+ * instead of being closed right away.
+ */
+@Priority(Priorities.AUTHENTICATION - 10)
+public class RestJpaContextProvider implements ContainerRequestFilter, ContainerResponseFilter {
+	static private final Map<String, EntityManagerFactory> ENTITY_MANAGER_FACTORIES = new ConcurrentHashMap<>();
+	static private final ThreadLocal<Map<String, EntityManager>> ENTITY_MANAGERS = ThreadLocal.withInitial(HashMap::new);
+
+
+	/**
+	 * Opens the entity manager factory for the given persistence unit, and
+	 * returns a new provider instance that should be registered with the REST
+	 * configuration.
+	 *
+	 * @param persistenceUnitName
+	 *            the persistence unit name
+	 * @return the provider created
+	 * @throws NullPointerException
+	 *             if the given name is {@code null}
+	 * @throws javax.persistence.PersistenceException
+	 *             if the persistence unit cannot be opened
+	 */
+	static public RestJpaContextProvider open (final String persistenceUnitName) throws NullPointerException {
+		return open(persistenceUnitName, Collections.emptyMap());
+	}
+
+
+	/**
+	 * Opens the entity manager factory for the given persistence unit, using
+	 * the given properties to override the ones within
+	 * <tt>persistence.xml</tt>, and returns a new provider instance that
+	 * should be registered with the REST configuration.
+	 *
+	 * @param persistenceUnitName
+	 *            the persistence unit name
+	 * @param properties
+	 *            the overriding properties, for example a pooled data source
+	 *            as <tt>javax.persistence.nonJtaDataSource</tt>
+	 * @return the provider created
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 * @throws javax.persistence.PersistenceException
+	 *             if the persistence unit cannot be opened
+	 */
+	static public RestJpaContextProvider open (final String persistenceUnitName, final Map<String, ?> properties) throws NullPointerException {
+		if (properties == null) throw new NullPointerException();
+
+		ENTITY_MANAGER_FACTORIES.computeIfAbsent(persistenceUnitName, name -> Persistence.createEntityManagerFactory(name, properties));
+		return new RestJpaContextProvider();
+	}
+
+
+	/**
+	 * Registers the given entity manager factory for the given persistence
+	 * unit, replacing any factory previously registered for it, and returns a
+	 * new provider instance. This allows harnesses like benchmarks to supply
+	 * an in-memory stand-in instead of opening a database.
+	 *
+	 * @param persistenceUnitName
+	 *            the persistence unit name
+	 * @param entityManagerFactory
+	 *            the entity manager factory
+	 * @return the provider created
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 */
+	static public RestJpaContextProvider open (final String persistenceUnitName, final EntityManagerFactory entityManagerFactory) throws NullPointerException {
+		if (persistenceUnitName == null | entityManagerFactory == null) throw new NullPointerException();
+
+		ENTITY_MANAGER_FACTORIES.put(persistenceUnitName, entityManagerFactory);
+		return new RestJpaContextProvider();
+	}
+
+
+	/**
+	 * Returns the entity manager for the given persistence unit that is bound
+	 * to the current thread, creating and binding it if necessary.
+	 *
+	 * @param persistenceUnitName
+	 *            the persistence unit name
+	 * @return the entity manager
+	 * @throws NullPointerException
+	 *             if the given name is {@code null}
+	 * @throws IllegalStateException
+	 *             if the given persistence unit has not been opened
+	 */
+	static public EntityManager entityManager (final String persistenceUnitName) throws NullPointerException, IllegalStateException {
+		final Map<String, EntityManager> entityManagers = ENTITY_MANAGERS.get();
+		EntityManager entityManager = entityManagers.get(persistenceUnitName);
+		if (entityManager == null) {
+			final EntityManagerFactory entityManagerFactory = ENTITY_MANAGER_FACTORIES.get(persistenceUnitName);
+			if (entityManagerFactory == null) throw new IllegalStateException(persistenceUnitName);
+
+			entityManager = entityManagerFactory.createEntityManager();
+			entityManagers.put(persistenceUnitName, entityManager);
+		}
+		return entityManager;
+	}
+
+
+	/**
+	 * Closes any entity managers left bound to the current thread by a
+	 * previous request that didn't complete normally.
+	 *
+	 * @param requestContext
+	 *            {@inheritDoc}
+	 */
+	public void filter (final ContainerRequestContext requestContext) {
+		closeEntityManagers();
+	}
+
+
+	/**
+	 * Closes the entity managers bound to the current thread.
+	 *
+	 * @param requestContext
+	 *            {@inheritDoc}
+	 * @param responseContext
+	 *            {@inheritDoc}
+	 */
+	public void filter (final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) {
+		closeEntityManagers();
+	}
+
+
+	/**
+	 * Closes the entity managers bound to the current thread, rolling back
+	 * active transactions, and unbinds them. Resource methods that continue
+	 * processing on other threads should call this both before handing off,
+	 * and after completing their persistence work on said threads.
+	 */
+	static public void closeEntityManagers () {
+		final Map<String, EntityManager> entityManagers = ENTITY_MANAGERS.get();
+		for (final EntityManager entityManager : entityManagers.values()) {
+			try {
+				final EntityTransaction transaction = entityManager.getTransaction();
+				if (transaction.isActive()) transaction.rollback();
+			} finally {
+				entityManager.close();
+			}
+		}
+		entityManagers.clear();
+	}
+}
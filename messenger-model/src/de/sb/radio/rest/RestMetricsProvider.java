@@ -0,0 +1,289 @@
+package de.sb.radio.rest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Path;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+
+/**
+ * JAX-RS filter and interceptor provider that records the latency, status code
+ * and response entity size of every REST request with {@link RequestMetrics},
+ * keyed by the HTTP method and path template of the matched resource method.
+ * The request filter is pre-matching and has the lowest priority value, so it
+ * runs first, while the response filter runs last. The latency of responses
+ * with an entity is recorded once the writer interceptor has written said
+ * entity, otherwise by the response filter; it therefore includes
+ * authentication, all other filters and the entity's marshaling and transfer,
+ * and spans the suspension of asynchronous requests. The writer interceptor
+ * runs outside of {@link RestCompressionProvider}, so the bytes actually sent
+ * are counted.
+ * <p>
+ * The SQL statements executed on behalf of a request are tallied by
+ * {@link QueryProfiler}, using a tally stored as request property. Said tally
+ * is bound to the request thread, and to the thread writing the response
+ * entity while it does so, which includes statements caused by lazy loading
+ * during marshaling; asynchronous resources bind it to their own threads. The
+ * statements are recorded together with the request's latency, and reported
+ * to the client using a "Server-Timing" header. As headers must be sent before
+ * the entity is written, said header cannot include statements executed during
+ * marshaling.
+ * <p>
+ * Additionally, the nested filters bracket the request's authentication, and
+ * record it's latency with {@link RequestMetrics#authentication()}; requests
+ * aborted during authentication are recorded by the response filter instead.
+ */
+@Provider
+@PreMatching
+@Priority(1)
+public class RestMetricsProvider implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+	static private final String START_PROPERTY = RestMetricsProvider.class.getName() + ".start";
+	static private final String STATISTICS_PROPERTY = RestMetricsProvider.class.getName() + ".statistics";
+	static private final String TALLY_PROPERTY = RestMetricsProvider.class.getName() + ".tally";
+	static private final String AUTHENTICATION_START_PROPERTY = RestMetricsProvider.class.getName() + ".authentication-start";
+	static private final String SERVER_TIMING = "Server-Timing";
+	static private final String UNMATCHED_PATH = "<unmatched>";
+	static private final Map<Method, String> PATH_TEMPLATES = new ConcurrentHashMap<>();
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+
+	/**
+	 * Stores the request's start time and a new statement tally as request
+	 * properties, and binds said tally to the current thread.
+	 *
+	 * @param requestContext
+	 *            {@inheritDoc}
+	 */
+	public void filter (final ContainerRequestContext requestContext) {
+		final QueryProfiler.Tally tally = new QueryProfiler.Tally();
+		requestContext.setProperty(START_PROPERTY, System.nanoTime());
+		requestContext.setProperty(TALLY_PROPERTY, tally);
+		QueryProfiler.bind(tally);
+	}
+
+
+	/**
+	 * Records the request's status code with the statistics of the matched
+	 * resource method, and stores said statistics as a request property for
+	 * the response entity to be accounted later. The request's latency and
+	 * statement tally are recorded as well, unless there is a response entity
+	 * to be written. The statement tally so far is added as a "Server-Timing"
+	 * response header, and unbound from the current thread. Finally, the
+	 * authentication latency of requests aborted during authentication is
+	 * recorded.
+	 *
+	 * @param requestContext
+	 *            {@inheritDoc}
+	 * @param responseContext
+	 *            {@inheritDoc}
+	 */
+	public void filter (final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) {
+		QueryProfiler.bind(null);
+
+		final Object authenticationStart = requestContext.getProperty(AUTHENTICATION_START_PROPERTY);
+		if (authenticationStart instanceof Long) {
+			RequestMetrics.authentication().record(System.nanoTime() - (Long) authenticationStart);
+			requestContext.removeProperty(AUTHENTICATION_START_PROPERTY);
+		}
+
+		final Object start = requestContext.getProperty(START_PROPERTY);
+		final Object tally = requestContext.getProperty(TALLY_PROPERTY);
+		if (!(start instanceof Long) | !(tally instanceof QueryProfiler.Tally)) return;
+
+		final Method resourceMethod = this.resourceInfo.getResourceMethod();
+		final String path = resourceMethod == null ? UNMATCHED_PATH : PATH_TEMPLATES.computeIfAbsent(resourceMethod, method -> pathTemplate(this.resourceInfo.getResourceClass(), method));
+		final RequestMetrics.Statistics statistics = RequestMetrics.statistics(requestContext.getMethod(), path, responseContext.getStatus());
+		final QueryProfiler.Tally statementTally = (QueryProfiler.Tally) tally;
+		responseContext.getHeaders().add(SERVER_TIMING, String.format(Locale.ROOT, "db;dur=%.3f;desc=\"%d statements\"", statementTally.getStatementNanos() * 1E-6, statementTally.getStatementCount()));
+
+		if (responseContext.hasEntity() && !HttpMethod.HEAD.equals(requestContext.getMethod())) {
+			requestContext.setProperty(STATISTICS_PROPERTY, statistics);
+		} else {
+			record(statistics, (Long) start, statementTally);
+		}
+	}
+
+
+	/**
+	 * Counts the bytes written for the response entity, and records the
+	 * request's latency and statement tally once said entity has been written.
+	 * The request's statement tally is bound to the current thread while the
+	 * entity is written.
+	 *
+	 * @param context
+	 *            {@inheritDoc}
+	 * @throws IOException
+	 *             {@inheritDoc}
+	 * @throws WebApplicationException
+	 *             {@inheritDoc}
+	 */
+	public void aroundWriteTo (final WriterInterceptorContext context) throws IOException, WebApplicationException {
+		final Object statistics = context.getProperty(STATISTICS_PROPERTY);
+		final Object start = context.getProperty(START_PROPERTY);
+		final Object tally = context.getProperty(TALLY_PROPERTY);
+		if (!(statistics instanceof RequestMetrics.Statistics) | !(start instanceof Long) | !(tally instanceof QueryProfiler.Tally)) {
+			context.proceed();
+			return;
+		}
+
+		final OutputStream byteSink = context.getOutputStream();
+		final CountingOutputStream countingSink = new CountingOutputStream(byteSink);
+		final QueryProfiler.Tally previousTally = QueryProfiler.tally();
+		context.setOutputStream(countingSink);
+		QueryProfiler.bind((QueryProfiler.Tally) tally);
+		try {
+			context.proceed();
+		} finally {
+			QueryProfiler.bind(previousTally);
+			context.setOutputStream(byteSink);
+			((RequestMetrics.Statistics) statistics).addByteCount(countingSink.byteCount);
+			record((RequestMetrics.Statistics) statistics, (Long) start, (QueryProfiler.Tally) tally);
+		}
+	}
+
+
+	/**
+	 * Records a request's latency and statement tally with the given
+	 * statistics.
+	 *
+	 * @param statistics
+	 *            the statistics
+	 * @param start
+	 *            the request's start time in nanoseconds
+	 * @param tally
+	 *            the request's statement tally
+	 */
+	static private void record (final RequestMetrics.Statistics statistics, final long start, final QueryProfiler.Tally tally) {
+		statistics.getLatencies().record(System.nanoTime() - start);
+		statistics.addStatements(tally.getStatementCount(), tally.getStatementNanos());
+	}
+
+
+	/**
+	 * Returns the path template of the given resource method, combining the
+	 * {@link Path} annotations of the given resource class and method.
+	 *
+	 * @param resourceClass
+	 *            the resource class, or {@code null} for none
+	 * @param resourceMethod
+	 *            the resource method
+	 * @return the path template, for example {@code /documents/{id}}
+	 */
+	static private String pathTemplate (final Class<?> resourceClass, final Method resourceMethod) {
+		final StringBuilder builder = new StringBuilder();
+		for (final Path annotation : new Path[] { resourceClass == null ? null : resourceClass.getAnnotation(Path.class), resourceMethod.getAnnotation(Path.class) }) {
+			if (annotation == null) continue;
+			for (final String segment : annotation.value().split("/")) {
+				if (!segment.isEmpty()) builder.append('/').append(segment);
+			}
+		}
+		return builder.length() == 0 ? "/" : builder.toString();
+	}
+
+
+
+	/**
+	 * Output stream that counts the bytes written to an underlying stream.
+	 */
+	static private class CountingOutputStream extends FilterOutputStream {
+		private long byteCount;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param byteSink
+		 *            the underlying byte sink
+		 */
+		public CountingOutputStream (final OutputStream byteSink) {
+			super(byteSink);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final int value) throws IOException {
+			this.out.write(value);
+			this.byteCount += 1;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final byte[] bytes, final int offset, final int length) throws IOException {
+			this.out.write(bytes, offset, length);
+			this.byteCount += length;
+		}
+	}
+
+
+
+	/**
+	 * JAX-RS filter provider that runs right before authentication, and stores
+	 * the authentication's start time as a request property.
+	 */
+	@Provider
+	@Priority(Priorities.AUTHENTICATION - 1)
+	static public class AuthenticationStartFilter implements ContainerRequestFilter {
+
+		/**
+		 * Stores the authentication's start time as a request property.
+		 *
+		 * @param requestContext
+		 *            {@inheritDoc}
+		 */
+		public void filter (final ContainerRequestContext requestContext) {
+			requestContext.setProperty(AUTHENTICATION_START_PROPERTY, System.nanoTime());
+		}
+	}
+
+
+
+	/**
+	 * JAX-RS filter provider that runs after authentication has succeeded, and
+	 * records the authentication's latency.
+	 */
+	@Provider
+	@Priority(Priorities.AUTHORIZATION - 1)
+	static public class AuthenticationEndFilter implements ContainerRequestFilter {
+
+		/**
+		 * Records the authentication's latency, and removes it's start time
+		 * from the request properties.
+		 *
+		 * @param requestContext
+		 *            {@inheritDoc}
+		 */
+		public void filter (final ContainerRequestContext requestContext) {
+			final Object start = requestContext.getProperty(AUTHENTICATION_START_PROPERTY);
+			if (!(start instanceof Long)) return;
+
+			RequestMetrics.authentication().record(System.nanoTime() - (Long) start);
+			requestContext.removeProperty(AUTHENTICATION_START_PROPERTY);
+		}
+	}
+}
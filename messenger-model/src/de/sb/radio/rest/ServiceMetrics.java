@@ -0,0 +1,56 @@
+package de.sb.radio.rest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+
+/**
+ * This facade provides a registry of named gauges, i.e. suppliers of numeric
+ * values that are sampled whenever service metrics are requested. Gauge names
+ * should follow Prometheus naming conventions, for example
+ * {@code radio_content_cache_resident_bytes}.
+ */
+public final class ServiceMetrics {
+
+	static private final Map<String, Supplier<? extends Number>> GAUGES = new ConcurrentSkipListMap<>();
+
+
+	/**
+	 * Registers the given gauge under the given name, replacing any gauge
+	 * previously registered under said name.
+	 *
+	 * @param name
+	 *            the gauge name
+	 * @param gauge
+	 *            the gauge
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 */
+	static public void register (final String name, final Supplier<? extends Number> gauge) throws NullPointerException {
+		if (name == null | gauge == null) throw new NullPointerException();
+		GAUGES.put(name, gauge);
+	}
+
+
+	/**
+	 * Returns a snapshot of all registered gauges, sorted by name.
+	 *
+	 * @return the gauge values mapped by their names
+	 */
+	static public Map<String, Number> snapshot () {
+		final Map<String, Number> snapshot = new TreeMap<>();
+		for (final Map.Entry<String, Supplier<? extends Number>> entry : GAUGES.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		return snapshot;
+	}
+
+
+	/**
+	 * Prevents external instantiation.
+	 */
+	private ServiceMetrics () {
+	}
+}
@@ -0,0 +1,198 @@
+package de.sb.radio.rest;
+
+import static javax.ws.rs.core.HttpHeaders.CACHE_CONTROL;
+import static javax.ws.rs.core.HttpHeaders.RETRY_AFTER;
+import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.PositiveOrZero;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import de.sb.radio.persistence.HashTools;
+import de.sb.radio.processor.WaveformAnalyzer;
+
+
+/**
+ * JAX-RS based REST service implementation for waveform summaries of audio
+ * documents, defining the following path and method combinations:
+ * <ul>
+ * <li>GET waveforms/{hash}: Returns the min/max peak summary of the audio
+ * document matching the given content hash, in the binary format described
+ * by {@link WaveformAnalyzer}.</li>
+ * </ul>
+ * Summaries are generated in the background by a single low priority thread,
+ * which decodes every recording once and stores it's summary in the
+ * <tt>Waveform</tt> table, keyed by content hash. Generation is scheduled
+ * when recordings are uploaded, and for all recordings still lacking a
+ * summary using {@link #scheduleMissing()}; recordings that cannot be
+ * decoded are stored with an empty summary, so they are not retried.
+ */
+@Path("waveforms")
+public class WaveformService {
+	static private final String QUERY_SUMMARY = "select content from radio.Waveform where contentHash = ?1";
+	static private final String QUERY_MISSING_SUMMARIES = "select d.contentHash from radio.Document as d left outer join radio.Waveform as w on w.contentHash = d.contentHash where d.contentType like 'audio/%' and w.contentHash is null";
+	static private final String INSERT_SUMMARY = "insert ignore into radio.Waveform (contentHash, content) values (?1, ?2)";
+	static private final String QUERY_AUDIO_DOCUMENT_EXISTS = "select count(d.identity) from Document as d where d.contentHash = :contentHash and d.contentType like 'audio/%'";
+	static private final String QUERY_AUDIO_DOCUMENT_CONTENT = "select d.content from Document as d where d.contentHash = :contentHash and d.contentType like 'audio/%'";
+	static private final String SUMMARY_CACHE_CONTROL = "public, max-age=31536000, immutable";
+	static private final String SUMMARY_RETRY_SECONDS = "5";
+
+	static private final Set<String> PENDING_CONTENT_HASHES = ConcurrentHashMap.newKeySet();
+	static private final ExecutorService SUMMARY_EXECUTOR = DaemonExecutors.newInstance("waveform-summary", 1, Integer.MAX_VALUE, Thread.MIN_PRIORITY);
+	static {
+		ServiceMetrics.register("radio_waveforms_pending", PENDING_CONTENT_HASHES::size);
+	}
+
+
+	/**
+	 * Returns the waveform summary of the audio document matching the given
+	 * content hash. As summaries never change once generated, they are
+	 * permanently cacheable by clients and proxies.
+	 *
+	 * @param request
+	 *            the HTTP request
+	 * @param contentHash
+	 *            the hexadecimal SHA-256 content hash
+	 * @param width
+	 *            the display width in buckets, or zero for the complete
+	 *            summary; if positive, only the coarsest level with at least
+	 *            this many buckets is returned
+	 * @return the summary (HTTP 200), or none (HTTP 304) if the client's
+	 *         entity tag is still valid, or (HTTP 503) with a "Retry-After"
+	 *         header if the summary has not been generated yet, in which
+	 *         case it's generation is scheduled
+	 * @throws ClientErrorException
+	 *             (HTTP 404) if there is no audio document with the given
+	 *             content hash, or if it cannot be decoded
+	 * @throws PersistenceException
+	 *             (HTTP 500) if there is a problem with the persistence layer
+	 */
+	@GET
+	@Path("{hash}")
+	@Produces(APPLICATION_OCTET_STREAM)
+	public Response querySummary (
+			@Context final Request request,
+			@PathParam("hash") @NotNull @Pattern(regexp = "^[0-9a-fA-F]{64}$") final String contentHash,
+			@QueryParam("width") @PositiveOrZero final int width
+	) {
+		final byte[] contentHashBytes = HashTools.parseHexString(contentHash);
+		final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+		final List<?> summaries = radioManager
+			.createNativeQuery(QUERY_SUMMARY)
+			.setParameter(1, contentHashBytes)
+			.getResultList();
+
+		if (summaries.isEmpty()) {
+			final long count = radioManager
+				.createQuery(QUERY_AUDIO_DOCUMENT_EXISTS, Long.class)
+				.setParameter("contentHash", contentHashBytes)
+				.getSingleResult();
+			if (count == 0) throw new ClientErrorException(NOT_FOUND);
+
+			schedule(contentHashBytes);
+			return Response.status(SERVICE_UNAVAILABLE).header(RETRY_AFTER, SUMMARY_RETRY_SECONDS).build();
+		}
+
+		final byte[] summary = (byte[]) summaries.get(0);
+		if (summary.length == 0) throw new ClientErrorException(NOT_FOUND);
+
+		final EntityTag entityTag = new EntityTag(HashTools.toHexString(contentHashBytes) + "-" + width);
+		ResponseBuilder builder = request.evaluatePreconditions(entityTag);
+		if (builder == null) builder = Response.ok(width == 0 ? summary : WaveformAnalyzer.select(summary, width));
+		return builder.tag(entityTag).header(CACHE_CONTROL, SUMMARY_CACHE_CONTROL).build();
+	}
+
+
+	/**
+	 * Schedules the generation of the waveform summary for the audio document
+	 * matching the given content hash, unless it is already pending.
+	 *
+	 * @param contentHash
+	 *            the content hash
+	 * @throws NullPointerException
+	 *             if the given content hash is {@code null}
+	 */
+	static public void schedule (final byte[] contentHash) throws NullPointerException {
+		if (PENDING_CONTENT_HASHES.add(HashTools.toHexString(contentHash))) {
+			SUMMARY_EXECUTOR.execute(() -> generate(contentHash));
+		}
+	}
+
+
+	/**
+	 * Schedules the generation of the waveform summaries for all audio
+	 * documents still lacking one. The documents are looked up in the
+	 * background as well.
+	 */
+	static public void scheduleMissing () {
+		SUMMARY_EXECUTOR.execute(() -> {
+			try {
+				final List<?> contentHashes = RestJpaContextProvider.entityManager("radio")
+					.createNativeQuery(QUERY_MISSING_SUMMARIES)
+					.getResultList();
+				for (final Object contentHash : contentHashes)
+					schedule((byte[]) contentHash);
+			} finally {
+				RestJpaContextProvider.closeEntityManagers();
+			}
+		});
+	}
+
+
+	/**
+	 * Generates and stores the waveform summary for the audio document
+	 * matching the given content hash, if it still exists.
+	 *
+	 * @param contentHash
+	 *            the content hash
+	 * @throws PersistenceException
+	 *             if there is a problem with the persistence layer
+	 */
+	static private void generate (final byte[] contentHash) throws PersistenceException {
+		try {
+			final EntityManager radioManager = RestJpaContextProvider.entityManager("radio");
+			final List<byte[]> contents = radioManager
+				.createQuery(QUERY_AUDIO_DOCUMENT_CONTENT, byte[].class)
+				.setParameter("contentHash", contentHash)
+				.getResultList();
+			if (contents.isEmpty()) return;
+
+			byte[] summary;
+			try {
+				summary = WaveformAnalyzer.analyze(contents.get(0)).toByteArray();
+			} catch (final UnsupportedAudioFileException | IOException exception) {
+				summary = new byte[0];
+			}
+
+			radioManager.getTransaction().begin();
+			radioManager
+				.createNativeQuery(INSERT_SUMMARY)
+				.setParameter(1, contentHash)
+				.setParameter(2, summary)
+				.executeUpdate();
+			radioManager.getTransaction().commit();
+		} finally {
+			RestJpaContextProvider.closeEntityManagers();
+			PENDING_CONTENT_HASHES.remove(HashTools.toHexString(contentHash));
+		}
+	}
+}
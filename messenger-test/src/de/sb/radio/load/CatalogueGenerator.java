@@ -0,0 +1,862 @@
+package de.sb.radio.load;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+import de.sb.radio.persistence.HashTools;
+
+
+/**
+ * Generator of a synthetic radio catalogue of configurable scale, up to
+ * millions of tracks, consisting of people, albums and tracks including their
+ * documents, i.e. a shared avatar, album covers and track recordings. Genres
+ * and artists follow Zipfian distributions, so a few genres and artists
+ * dominate the catalogue like in real collections, which makes index
+ * selectivity and cache hit ratios realistic. Recordings are short WAV files
+ * of synthetic 16-bit PCM audio, i.e. a tone of random pitch mixed with
+ * noise; as recordings dominate the catalogue's size, tracks share a
+ * configurable number of them.
+ * <p>The catalogue can either be written using batched JDBC statements with
+ * explicitly assigned identities, committing every {@link #BATCH_SIZE} rows,
+ * or as tab separated files plus a <tt>radio-load-data.sql</tt> script of
+ * <tt>LOAD DATA LOCAL INFILE</tt> statements, which is MariaDB's fastest bulk
+ * load path. Both are orders of magnitude faster than persisting entities one
+ * by one.</p>
+ * <p>Every person's password is {@link #PASSWORD}; the first person is an
+ * administrator with email {@link #ADMIN_EMAIL}, the others are users with
+ * emails following the pattern {@code user<n>@radio.test}.</p>
+ */
+public class CatalogueGenerator {
+	static public final String PASSWORD = "password";
+	static public final String ADMIN_EMAIL = "admin@radio.test";
+	static public final String[] GENRES = { "Rock", "Pop", "Electronic", "Hip-Hop", "Jazz", "Classical", "Metal", "Country", "Soul", "Blues", "Folk", "Reggae" };
+	static private final int BATCH_SIZE = 1000;
+	static private final int SAMPLE_RATE = 22050;
+	static private final double ZIPF_EXPONENT = 1.0;
+	static private final String[] TABLES = { "BaseEntity", "Document", "Person", "Album", "Track" };
+
+	private final int trackCount;
+	private final int albumCount;
+	private final int personCount;
+	private final int recordingCount;
+	private final double recordingSeconds;
+	private final ZipfDistribution genreDistribution;
+	private final ZipfDistribution artistDistribution;
+	private final long seed;
+	private long firstIdentity;
+
+
+	/**
+	 * Creates a new instance for the given number of tracks, with one album
+	 * per ten tracks, one person per hundred tracks (at least two), one artist
+	 * per twenty tracks, and at most 10000 distinct recordings of half a second
+	 * each. The latter two are configurable using the system properties
+	 * <tt>radio.catalogue.recordings</tt> and
+	 * <tt>radio.catalogue.recording-seconds</tt>.
+	 *
+	 * @param trackCount
+	 *            the number of tracks
+	 * @param seed
+	 *            the random seed, which makes the catalogue reproducible
+	 * @throws IllegalArgumentException
+	 *             if the given track count is not positive
+	 */
+	public CatalogueGenerator (final int trackCount, final long seed) throws IllegalArgumentException {
+		if (trackCount <= 0) throw new IllegalArgumentException();
+
+		this.trackCount = trackCount;
+		this.albumCount = (trackCount + 9) / 10;
+		this.personCount = Math.max(2, trackCount / 100);
+		this.recordingCount = Math.max(1, Math.min(trackCount, Integer.getInteger("radio.catalogue.recordings", 10000)));
+		this.recordingSeconds = Double.parseDouble(System.getProperty("radio.catalogue.recording-seconds", "0.5"));
+		this.genreDistribution = new ZipfDistribution(GENRES.length, ZIPF_EXPONENT);
+		this.artistDistribution = new ZipfDistribution(Math.max(1, trackCount / 20), ZIPF_EXPONENT);
+		this.seed = seed;
+	}
+
+
+	/**
+	 * Application entry point that generates a catalogue, either directly
+	 * into a database, or into bulk load files. The database is configured by
+	 * the system properties <tt>radio.catalogue.url</tt> (default
+	 * "jdbc:mariadb://localhost:3306/?rewriteBatchedStatements=true"),
+	 * <tt>radio.catalogue.user</tt> (default "root") and
+	 * <tt>radio.catalogue.password</tt>. The files are loaded using the MariaDB
+	 * client command <tt>source radio-load-data.sql</tt> from within the
+	 * directory, after the structure script.
+	 *
+	 * @param args
+	 *            the runtime arguments (track count, target "jdbc" or
+	 *            "files", and target directory for files, all optional)
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 * @throws SQLException
+	 *             if there is a problem with the database
+	 */
+	static public void main (final String[] args) throws IOException, SQLException {
+		final int trackCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final String target = args.length > 1 ? args[1] : "jdbc";
+		final CatalogueGenerator generator = new CatalogueGenerator(trackCount, 0);
+
+		final long start = System.currentTimeMillis();
+		switch (target) {
+			case "jdbc": {
+				final String url = System.getProperty("radio.catalogue.url", "jdbc:mariadb://localhost:3306/?rewriteBatchedStatements=true");
+				try (Connection connection = DriverManager.getConnection(url, System.getProperty("radio.catalogue.user", "root"), System.getProperty("radio.catalogue.password", "imimapHTW"))) {
+					generator.generate(connection);
+				}
+				break;
+			}
+			case "files": {
+				final Path directory = Paths.get(args.length > 2 ? args[2] : "").toAbsolutePath();
+				generator.generate(directory);
+				System.out.format("Load files written to %s.\n", directory);
+				break;
+			}
+			default:
+				throw new IllegalArgumentException(target);
+		}
+
+		System.out.format("Generated %d tracks, %d albums, %d people and %d recordings in %.1fs.\n", generator.trackCount, generator.albumCount, generator.personCount, generator.recordingCount, (System.currentTimeMillis() - start) * 1E-3);
+	}
+
+
+	/**
+	 * Returns the number of tracks.
+	 *
+	 * @return the track count
+	 */
+	public int getTrackCount () {
+		return this.trackCount;
+	}
+
+
+	/**
+	 * Returns the number of albums.
+	 *
+	 * @return the album count
+	 */
+	public int getAlbumCount () {
+		return this.albumCount;
+	}
+
+
+	/**
+	 * Returns the number of people.
+	 *
+	 * @return the person count
+	 */
+	public int getPersonCount () {
+		return this.personCount;
+	}
+
+
+	/**
+	 * Returns the number of distinct recordings.
+	 *
+	 * @return the recording count
+	 */
+	public int getRecordingCount () {
+		return this.recordingCount;
+	}
+
+
+	/**
+	 * Returns the identity of the administrator. This is valid after the
+	 * catalogue has been generated.
+	 *
+	 * @return the administrator's identity
+	 */
+	public long getAdminIdentity () {
+		return this.firstPersonIdentity();
+	}
+
+
+	/**
+	 * Returns the email of the person with the given index.
+	 *
+	 * @param index
+	 *            the person index within range [0, person count[
+	 * @return the email
+	 */
+	public String getEmail (final int index) {
+		return index == 0 ? ADMIN_EMAIL : "user" + index + "@radio.test";
+	}
+
+
+	/**
+	 * Returns the identity of the cover of the album with the given index.
+	 * This is valid after the catalogue has been generated.
+	 *
+	 * @param index
+	 *            the album index within range [0, album count[
+	 * @return the cover identity
+	 */
+	public long getCoverIdentity (final int index) {
+		return this.firstIdentity + 2 + index;
+	}
+
+
+	/**
+	 * Returns the identity of the recording with the given index. This is
+	 * valid after the catalogue has been generated.
+	 *
+	 * @param index
+	 *            the recording index within range [0, recording count[
+	 * @return the recording identity
+	 */
+	public long getRecordingIdentity (final int index) {
+		return this.firstIdentity + 2 + this.albumCount + index;
+	}
+
+
+	/**
+	 * Writes the catalogue using batched statements on the given connection.
+	 * Identities are assigned above the highest identity present.
+	 *
+	 * @param connection
+	 *            the database connection
+	 * @throws SQLException
+	 *             if there is a problem with the database
+	 */
+	public void generate (final Connection connection) throws SQLException {
+		final boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try (JdbcRowSink rowSink = new JdbcRowSink(connection)) {
+			this.firstIdentity = maxIdentity(connection);
+			this.generate(rowSink);
+		} catch (final IOException exception) {
+			throw new AssertionError(exception);
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+
+	/**
+	 * Writes the catalogue as tab separated files into the given directory,
+	 * one per table, plus a <tt>radio-load-data.sql</tt> script that loads
+	 * them. Identities are assigned starting with one, so the files should be
+	 * loaded into an empty schema.
+	 *
+	 * @param directory
+	 *            the target directory
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	public void generate (final Path directory) throws IOException {
+		Files.createDirectories(directory);
+		try (FileRowSink rowSink = new FileRowSink(directory)) {
+			this.firstIdentity = 0;
+			this.generate(rowSink);
+		} catch (final SQLException exception) {
+			throw new AssertionError(exception);
+		}
+
+		try (Writer charSink = Files.newBufferedWriter(directory.resolve("radio-load-data.sql"), UTF_8)) {
+			charSink.write("-- MariaDB bulk load script for a synthetic radio catalogue, run this after structure definition\n");
+			charSink.write("-- best import using MariaDB client command \"source radio-load-data.sql\" from within this directory\n\n");
+			charSink.write("SET CHARACTER SET utf8;\nUSE radio;\nSET foreign_key_checks = 0;\nSET unique_checks = 0;\n\n");
+			charSink.write("LOAD DATA LOCAL INFILE 'BaseEntity.tsv' INTO TABLE BaseEntity (identity, discriminator, version, creationTimestamp);\n");
+			charSink.write("LOAD DATA LOCAL INFILE 'Document.tsv' INTO TABLE Document (documentIdentity, @contentHash, contentType, @content) SET contentHash = UNHEX(@contentHash), content = UNHEX(@content);\n");
+			charSink.write("LOAD DATA LOCAL INFILE 'Person.tsv' INTO TABLE Person (personIdentity, avatarReference, email, @passwordHash, groupAlias, surname, forename) SET passwordHash = UNHEX(@passwordHash);\n");
+			charSink.write("LOAD DATA LOCAL INFILE 'Album.tsv' INTO TABLE Album (albumIdentity, coverReference, title, releaseYear, trackCount);\n");
+			charSink.write("LOAD DATA LOCAL INFILE 'Track.tsv' INTO TABLE Track (trackIdentity, albumReference, ownerReference, recordingReference, name, artist, genre, ordinal);\n\n");
+			charSink.write("SET unique_checks = 1;\nSET foreign_key_checks = 1;\nANALYZE TABLE BaseEntity, Document, Person, Album, Track;\n");
+		}
+	}
+
+
+	/**
+	 * Generates the catalogue rows into the given sink, in foreign key order.
+	 *
+	 * @param rowSink
+	 *            the row sink
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 * @throws SQLException
+	 *             if there is a problem with the database
+	 */
+	private void generate (final RowSink rowSink) throws IOException, SQLException {
+		final Random random = new Random(this.seed);
+		final long timestamp = System.currentTimeMillis();
+		long identity = this.firstIdentity;
+
+		final long avatarIdentity = ++identity;
+		final byte[] avatar = newContent(random, 0, 256);
+		rowSink.writeDocument(avatarIdentity, timestamp, HashTools.sha256HashCode(avatar), "image/png", avatar);
+		for (int index = 0; index < this.albumCount; ++index) {
+			final byte[] cover = newContent(random, 1 + index, 256);
+			rowSink.writeDocument(++identity, timestamp, HashTools.sha256HashCode(cover), "image/jpeg", cover);
+		}
+		for (int index = 0; index < this.recordingCount; ++index) {
+			final byte[] recording = newRecording(random, index, this.recordingSeconds);
+			rowSink.writeDocument(++identity, timestamp, HashTools.sha256HashCode(recording), "audio/wav", recording);
+		}
+		rowSink.flush();
+
+		final byte[] passwordHash = HashTools.sha256HashCode(PASSWORD);
+		for (int index = 0; index < this.personCount; ++index) {
+			rowSink.writePerson(++identity, timestamp, avatarIdentity, this.getEmail(index), passwordHash, index == 0 ? "ADMIN" : "USER", "Surname" + index, "Forename" + index);
+		}
+		rowSink.flush();
+
+		final long firstAlbumIdentity = identity + 1;
+		for (int index = 0; index < this.albumCount; ++index) {
+			rowSink.writeAlbum(++identity, timestamp, this.getCoverIdentity(index), "Album " + index, (short) (1950 + random.nextInt(70)), (byte) Math.min(10, this.trackCount - 10 * index));
+		}
+		rowSink.flush();
+
+		final long firstPersonIdentity = this.firstPersonIdentity();
+		for (int index = 0; index < this.trackCount; ++index) {
+			final String artist = "Artist " + this.artistDistribution.sample(random);
+			final String genre = GENRES[this.genreDistribution.sample(random)];
+			final long ownerIdentity = firstPersonIdentity + random.nextInt(this.personCount);
+			final long recordingIdentity = this.getRecordingIdentity(random.nextInt(this.recordingCount));
+			rowSink.writeTrack(++identity, timestamp, firstAlbumIdentity + index / 10, ownerIdentity, recordingIdentity, "Track " + index, artist, genre, (byte) (index % 10 + 1));
+		}
+		rowSink.flush();
+	}
+
+
+	/**
+	 * Returns the identity of the first person.
+	 *
+	 * @return the first person's identity
+	 */
+	private long firstPersonIdentity () {
+		return this.firstIdentity + 2 + this.albumCount + this.recordingCount;
+	}
+
+
+	/**
+	 * Returns new random content of the given size, which is made unique by
+	 * embedding the given index.
+	 *
+	 * @param random
+	 *            the random generator
+	 * @param index
+	 *            the document index
+	 * @param size
+	 *            the content size, at least 8
+	 * @return the content
+	 */
+	static private byte[] newContent (final Random random, final long index, final int size) {
+		final byte[] content = new byte[size];
+		random.nextBytes(content);
+		for (int position = 0; position < 8; ++position)
+			content[position] = (byte) (index >>> (position << 3));
+		return content;
+	}
+
+
+	/**
+	 * Returns a new WAV recording of signed 16-bit mono PCM audio, consisting
+	 * of a tone of random pitch mixed with noise. The given index is embedded
+	 * into the first sample frames, which makes the recording unique.
+	 *
+	 * @param random
+	 *            the random generator
+	 * @param index
+	 *            the recording index
+	 * @param seconds
+	 *            the recording duration in seconds
+	 * @return the WAV content
+	 */
+	static private byte[] newRecording (final Random random, final long index, final double seconds) {
+		final int frameCount = Math.max(4, (int) (seconds * SAMPLE_RATE));
+		final ByteBuffer buffer = ByteBuffer.allocate(44 + 2 * frameCount).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put("RIFF".getBytes(UTF_8)).putInt(36 + 2 * frameCount).put("WAVE".getBytes(UTF_8));
+		buffer.put("fmt ".getBytes(UTF_8)).putInt(16).putShort((short) 1).putShort((short) 1).putInt(SAMPLE_RATE).putInt(2 * SAMPLE_RATE).putShort((short) 2).putShort((short) 16);
+		buffer.put("data".getBytes(UTF_8)).putInt(2 * frameCount);
+
+		buffer.putLong(index);
+		final double frequency = 110 * Math.pow(2, random.nextInt(48) / 12.0);
+		for (int frame = 4; frame < frameCount; ++frame) {
+			final double sample = 0.6 * Math.sin(2 * Math.PI * frequency * frame / SAMPLE_RATE) + 0.1 * random.nextGaussian();
+			buffer.putShort((short) Math.round(Math.max(-1, Math.min(1, sample)) * Short.MAX_VALUE));
+		}
+		return buffer.array();
+	}
+
+
+	/**
+	 * Returns the highest entity identity present.
+	 *
+	 * @param connection
+	 *            the database connection
+	 * @return the highest identity, or zero for none
+	 * @throws SQLException
+	 *             if there is a problem with the database
+	 */
+	static private long maxIdentity (final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(identity), 0) FROM radio.BaseEntity")) {
+				resultSet.next();
+				return resultSet.getLong(1);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Zipfian distribution over the ranks [0, n[, where rank k is chosen with
+	 * a probability proportional to 1 / (k + 1)^s. Sampling performs a binary
+	 * search of the precomputed cumulative distribution.
+	 */
+	static private class ZipfDistribution {
+		private final double[] cumulativeProbabilities;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param rankCount
+		 *            the number of ranks
+		 * @param exponent
+		 *            the exponent s
+		 */
+		public ZipfDistribution (final int rankCount, final double exponent) {
+			this.cumulativeProbabilities = new double[rankCount];
+
+			double sum = 0;
+			for (int rank = 0; rank < rankCount; ++rank)
+				this.cumulativeProbabilities[rank] = sum += 1 / Math.pow(rank + 1, exponent);
+			for (int rank = 0; rank < rankCount; ++rank)
+				this.cumulativeProbabilities[rank] /= sum;
+		}
+
+
+		/**
+		 * Returns a random rank.
+		 *
+		 * @param random
+		 *            the random generator
+		 * @return the rank within range [0, n[
+		 */
+		public int sample (final Random random) {
+			final int index = Arrays.binarySearch(this.cumulativeProbabilities, random.nextDouble());
+			return Math.min(index >= 0 ? index : -index - 1, this.cumulativeProbabilities.length - 1);
+		}
+	}
+
+
+
+	/**
+	 * Sink for catalogue rows. Every row implies the corresponding base entity
+	 * row.
+	 */
+	static private interface RowSink extends AutoCloseable {
+
+		/**
+		 * Writes a document row.
+		 *
+		 * @param identity
+		 *            the identity
+		 * @param timestamp
+		 *            the creation timestamp
+		 * @param contentHash
+		 *            the content hash
+		 * @param contentType
+		 *            the content type
+		 * @param content
+		 *            the content
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		void writeDocument (long identity, long timestamp, byte[] contentHash, String contentType, byte[] content) throws IOException, SQLException;
+
+
+		/**
+		 * Writes a person row.
+		 *
+		 * @param identity
+		 *            the identity
+		 * @param timestamp
+		 *            the creation timestamp
+		 * @param avatarReference
+		 *            the avatar reference
+		 * @param email
+		 *            the email
+		 * @param passwordHash
+		 *            the password hash
+		 * @param group
+		 *            the group alias
+		 * @param surname
+		 *            the surname
+		 * @param forename
+		 *            the forename
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		void writePerson (long identity, long timestamp, long avatarReference, String email, byte[] passwordHash, String group, String surname, String forename) throws IOException, SQLException;
+
+
+		/**
+		 * Writes an album row.
+		 *
+		 * @param identity
+		 *            the identity
+		 * @param timestamp
+		 *            the creation timestamp
+		 * @param coverReference
+		 *            the cover reference
+		 * @param title
+		 *            the title
+		 * @param releaseYear
+		 *            the release year
+		 * @param trackCount
+		 *            the track count
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		void writeAlbum (long identity, long timestamp, long coverReference, String title, short releaseYear, byte trackCount) throws IOException, SQLException;
+
+
+		/**
+		 * Writes a track row.
+		 *
+		 * @param identity
+		 *            the identity
+		 * @param timestamp
+		 *            the creation timestamp
+		 * @param albumReference
+		 *            the album reference
+		 * @param ownerReference
+		 *            the owner reference
+		 * @param recordingReference
+		 *            the recording reference
+		 * @param name
+		 *            the name
+		 * @param artist
+		 *            the artist
+		 * @param genre
+		 *            the genre
+		 * @param ordinal
+		 *            the ordinal
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		void writeTrack (long identity, long timestamp, long albumReference, long ownerReference, long recordingReference, String name, String artist, String genre, byte ordinal) throws IOException, SQLException;
+
+
+		/**
+		 * Writes any pending rows.
+		 *
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		void flush () throws IOException, SQLException;
+
+
+		/**
+		 * Closes this sink.
+		 *
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		void close () throws IOException, SQLException;
+	}
+
+
+
+	/**
+	 * Row sink using batched JDBC statements, executing and committing the
+	 * batches of the base entity statement and the concrete type's statement
+	 * every {@link CatalogueGenerator#BATCH_SIZE} rows.
+	 */
+	static private class JdbcRowSink implements RowSink {
+		static private final String INSERT_BASE_ENTITY = "INSERT INTO radio.BaseEntity (identity, discriminator, version, creationTimestamp) VALUES (?, ?, 1, ?)";
+		static private final String INSERT_DOCUMENT = "INSERT INTO radio.Document (documentIdentity, contentHash, contentType, content) VALUES (?, ?, ?, ?)";
+		static private final String INSERT_PERSON = "INSERT INTO radio.Person (personIdentity, avatarReference, email, passwordHash, groupAlias, surname, forename) VALUES (?, ?, ?, ?, ?, ?, ?)";
+		static private final String INSERT_ALBUM = "INSERT INTO radio.Album (albumIdentity, coverReference, title, releaseYear, trackCount) VALUES (?, ?, ?, ?, ?)";
+		static private final String INSERT_TRACK = "INSERT INTO radio.Track (trackIdentity, albumReference, ownerReference, recordingReference, name, artist, genre, ordinal) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+		private final Connection connection;
+		private final PreparedStatement baseEntityStatement;
+		private final PreparedStatement documentStatement;
+		private final PreparedStatement personStatement;
+		private final PreparedStatement albumStatement;
+		private final PreparedStatement trackStatement;
+		private PreparedStatement pendingStatement;
+		private int pendingCount;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param connection
+		 *            the database connection, with auto-commit disabled
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		public JdbcRowSink (final Connection connection) throws SQLException {
+			this.connection = connection;
+			this.baseEntityStatement = connection.prepareStatement(INSERT_BASE_ENTITY);
+			this.documentStatement = connection.prepareStatement(INSERT_DOCUMENT);
+			this.personStatement = connection.prepareStatement(INSERT_PERSON);
+			this.albumStatement = connection.prepareStatement(INSERT_ALBUM);
+			this.trackStatement = connection.prepareStatement(INSERT_TRACK);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeDocument (final long identity, final long timestamp, final byte[] contentHash, final String contentType, final byte[] content) throws SQLException {
+			this.documentStatement.setLong(1, identity);
+			this.documentStatement.setBytes(2, contentHash);
+			this.documentStatement.setString(3, contentType);
+			this.documentStatement.setBytes(4, content);
+			this.add(identity, "Document", timestamp, this.documentStatement);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writePerson (final long identity, final long timestamp, final long avatarReference, final String email, final byte[] passwordHash, final String group, final String surname, final String forename) throws SQLException {
+			this.personStatement.setLong(1, identity);
+			this.personStatement.setLong(2, avatarReference);
+			this.personStatement.setString(3, email);
+			this.personStatement.setBytes(4, passwordHash);
+			this.personStatement.setString(5, group);
+			this.personStatement.setString(6, surname);
+			this.personStatement.setString(7, forename);
+			this.add(identity, "Person", timestamp, this.personStatement);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeAlbum (final long identity, final long timestamp, final long coverReference, final String title, final short releaseYear, final byte trackCount) throws SQLException {
+			this.albumStatement.setLong(1, identity);
+			this.albumStatement.setLong(2, coverReference);
+			this.albumStatement.setString(3, title);
+			this.albumStatement.setShort(4, releaseYear);
+			this.albumStatement.setByte(5, trackCount);
+			this.add(identity, "Album", timestamp, this.albumStatement);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeTrack (final long identity, final long timestamp, final long albumReference, final long ownerReference, final long recordingReference, final String name, final String artist, final String genre, final byte ordinal) throws SQLException {
+			this.trackStatement.setLong(1, identity);
+			this.trackStatement.setLong(2, albumReference);
+			this.trackStatement.setLong(3, ownerReference);
+			this.trackStatement.setLong(4, recordingReference);
+			this.trackStatement.setString(5, name);
+			this.trackStatement.setString(6, artist);
+			this.trackStatement.setString(7, genre);
+			this.trackStatement.setByte(8, ordinal);
+			this.add(identity, "Track", timestamp, this.trackStatement);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void flush () throws SQLException {
+			if (this.pendingStatement == null) return;
+
+			this.baseEntityStatement.executeBatch();
+			this.pendingStatement.executeBatch();
+			this.connection.commit();
+			this.pendingStatement = null;
+			this.pendingCount = 0;
+		}
+
+
+		/**
+		 * Closes the statements.
+		 *
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		public void close () throws SQLException {
+			for (final Statement statement : new Statement[] { this.baseEntityStatement, this.documentStatement, this.personStatement, this.albumStatement, this.trackStatement }) {
+				statement.close();
+			}
+		}
+
+
+		/**
+		 * Adds a base entity row and the given concrete type statement's
+		 * current row to their batches, flushing them if the batch size is
+		 * reached.
+		 *
+		 * @param identity
+		 *            the identity
+		 * @param discriminator
+		 *            the discriminator
+		 * @param timestamp
+		 *            the creation timestamp
+		 * @param typeStatement
+		 *            the concrete type statement
+		 * @throws SQLException
+		 *             if there is a problem with the database
+		 */
+		private void add (final long identity, final String discriminator, final long timestamp, final PreparedStatement typeStatement) throws SQLException {
+			if (this.pendingStatement != null && this.pendingStatement != typeStatement) this.flush();
+
+			this.baseEntityStatement.setLong(1, identity);
+			this.baseEntityStatement.setString(2, discriminator);
+			this.baseEntityStatement.setLong(3, timestamp);
+			this.baseEntityStatement.addBatch();
+			typeStatement.addBatch();
+			this.pendingStatement = typeStatement;
+			if (++this.pendingCount == BATCH_SIZE) this.flush();
+		}
+	}
+
+
+
+	/**
+	 * Row sink writing tab separated files suitable for MariaDB's
+	 * <tt>LOAD DATA INFILE</tt>, one per table, with binary columns in
+	 * hexadecimal notation.
+	 */
+	static private class FileRowSink implements RowSink {
+		private final Writer[] charSinks;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param directory
+		 *            the target directory
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		public FileRowSink (final Path directory) throws IOException {
+			this.charSinks = new Writer[TABLES.length];
+			for (int index = 0; index < TABLES.length; ++index)
+				this.charSinks[index] = Files.newBufferedWriter(directory.resolve(TABLES[index] + ".tsv"), UTF_8);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeDocument (final long identity, final long timestamp, final byte[] contentHash, final String contentType, final byte[] content) throws IOException {
+			this.writeBaseEntity(identity, "Document", timestamp);
+			this.writeRow(1, identity, HashTools.toHexString(contentHash), contentType, HashTools.toHexString(content));
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writePerson (final long identity, final long timestamp, final long avatarReference, final String email, final byte[] passwordHash, final String group, final String surname, final String forename) throws IOException {
+			this.writeBaseEntity(identity, "Person", timestamp);
+			this.writeRow(2, identity, avatarReference, email, HashTools.toHexString(passwordHash), group, surname, forename);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeAlbum (final long identity, final long timestamp, final long coverReference, final String title, final short releaseYear, final byte trackCount) throws IOException {
+			this.writeBaseEntity(identity, "Album", timestamp);
+			this.writeRow(3, identity, coverReference, title, releaseYear, trackCount);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeTrack (final long identity, final long timestamp, final long albumReference, final long ownerReference, final long recordingReference, final String name, final String artist, final String genre, final byte ordinal) throws IOException {
+			this.writeBaseEntity(identity, "Track", timestamp);
+			this.writeRow(4, identity, albumReference, ownerReference, recordingReference, name, artist, genre, ordinal);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void flush () throws IOException {
+			for (final Writer charSink : this.charSinks)
+				charSink.flush();
+		}
+
+
+		/**
+		 * Closes the files.
+		 *
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		public void close () throws IOException {
+			for (final Writer charSink : this.charSinks)
+				charSink.close();
+		}
+
+
+		/**
+		 * Writes a base entity row.
+		 *
+		 * @param identity
+		 *            the identity
+		 * @param discriminator
+		 *            the discriminator
+		 * @param timestamp
+		 *            the creation timestamp
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		private void writeBaseEntity (final long identity, final String discriminator, final long timestamp) throws IOException {
+			this.writeRow(0, identity, discriminator, 1, timestamp);
+		}
+
+
+		/**
+		 * Writes a row of the given values into the file with the given table
+		 * index. The generated values contain neither tabs, line feeds nor
+		 * backslashes, and therefore need no escaping.
+		 *
+		 * @param tableIndex
+		 *            the table index
+		 * @param values
+		 *            the column values
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		private void writeRow (final int tableIndex, final Object... values) throws IOException {
+			final Writer charSink = this.charSinks[tableIndex];
+			for (int index = 0; index < values.length; ++index) {
+				if (index > 0) charSink.write('\t');
+				charSink.write(values[index].toString());
+			}
+			charSink.write('\n');
+		}
+	}
+}
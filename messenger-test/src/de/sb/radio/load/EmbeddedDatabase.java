@@ -0,0 +1,91 @@
+package de.sb.radio.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+
+
+/**
+ * Embedded MariaDB server for offline load tests, based on MariaDB4j. The
+ * server binaries are unpacked from the MariaDB4j library, so no database
+ * installation is required; the server runs on the given port with a
+ * temporary data directory that is discarded upon closing. The radio schema
+ * is created using the regular structure script.
+ */
+public class EmbeddedDatabase implements Closeable {
+	static private final String STRUCTURE_SCRIPT = "META-INF/scripts/sql/radio-mariadb-structure.sql";
+
+	private final int port;
+	private final DB database;
+
+
+	/**
+	 * Starts a new embedded database server on the given port, and creates
+	 * the radio schema.
+	 *
+	 * @param port
+	 *            the server port
+	 * @throws IOException
+	 *             if the server cannot be started or initialized
+	 */
+	public EmbeddedDatabase (final int port) throws IOException {
+		final DBConfigurationBuilder configuration = DBConfigurationBuilder.newBuilder()
+			.setPort(port)
+			.addArg("--innodb-buffer-pool-size=1G")
+			.addArg("--innodb-flush-log-at-trx-commit=2")
+			.addArg("--max-allowed-packet=64M");
+
+		this.port = port;
+		try {
+			this.database = DB.newEmbeddedDB(configuration.build());
+			this.database.start();
+			this.database.source(STRUCTURE_SCRIPT);
+		} catch (final ManagedProcessException exception) {
+			throw new IOException(exception);
+		}
+	}
+
+
+	/**
+	 * Returns the JDBC URL of this database's server. Batched statements are
+	 * rewritten into multi-row statements by the driver.
+	 *
+	 * @return the JDBC URL
+	 */
+	public String getJdbcUrl () {
+		return "jdbc:mariadb://localhost:" + this.port + "/?rewriteBatchedStatements=true";
+	}
+
+
+	/**
+	 * Returns a new connection to this database's server, authenticated as
+	 * user "root" without password.
+	 *
+	 * @return the connection
+	 * @throws SQLException
+	 *             if the connection cannot be established
+	 */
+	public Connection newConnection () throws SQLException {
+		return DriverManager.getConnection(this.getJdbcUrl(), "root", "");
+	}
+
+
+	/**
+	 * Stops this database's server.
+	 *
+	 * @throws IOException
+	 *             if the server cannot be stopped
+	 */
+	public void close () throws IOException {
+		try {
+			this.database.stop();
+		} catch (final ManagedProcessException exception) {
+			throw new IOException(exception);
+		}
+	}
+}
@@ -0,0 +1,455 @@
+package de.sb.radio.load;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import de.sb.radio.rest.LatencyHistogram;
+
+
+/**
+ * Repeatable HTTP load test of the radio services, runnable offline on a
+ * single machine. The test starts an {@link EmbeddedDatabase}, seeds it with
+ * a synthetic catalogue using {@link CatalogueGenerator}, and starts the
+ * {@code ApplicationContainer} in a separate JVM that uses the embedded
+ * database. It then drives a weighted mix of requests from concurrent
+ * closed-loop clients, each issuing it's next request as soon as the previous
+ * one completes, and reports throughput, error counts and latency percentiles
+ * per operation. Measurement starts after a warm-up period. The operations are:
+ * <ul>
+ * <li>tracks: GET services/tracks with a random genre and a result limit of
+ * 50, authenticated as a user</li>
+ * <li>documents: GET services/documents/{id} for a random recording,
+ * authenticated as a user</li>
+ * <li>writes: POST services/albums creating an album, authenticated as the
+ * administrator</li>
+ * </ul>
+ * The mix is configurable using the system property <tt>radio.load.mix</tt>
+ * (default "tracks:70,documents:25,writes:5"), the warm-up duration using
+ * <tt>radio.load.warmup</tt> (in seconds, default 10), and the ports using
+ * <tt>radio.load.port</tt> (default 8091) and <tt>radio.load.db-port</tt>
+ * (default 3307). The container refuses to start unless the entity classes
+ * are woven, which requires the EclipseLink agent; this JVM's
+ * <tt>-javaagent</tt> arguments are therefore passed on to the container,
+ * unless the agent is given explicitly using <tt>radio.load.javaagent</tt>,
+ * for example <tt>-Dradio.load.javaagent=lib/eclipselink.jar</tt>. System
+ * properties prefixed with <tt>radio.</tt>, except the ones above, are passed
+ * on to the container, for example
+ * <tt>-Dradio.server=grizzly</tt>; the container's background generation of
+ * waveform summaries is disabled unless <tt>radio.waveform.sweep</tt> is
+ * given, as it would compete with the load. The container's output is written
+ * to <tt>radio-load-server.log</tt> within the temporary directory.
+ */
+public class LoadTest {
+	static private final String DEFAULT_MIX = "tracks:70,documents:25,writes:5";
+	static private final String CONTAINER_CLASS = "de.sb.radio.rest.ApplicationContainer";
+	static private final long STARTUP_TIMEOUT = 120_000;
+
+
+	/**
+	 * Application entry point.
+	 *
+	 * @param args
+	 *            the runtime arguments (track count, measurement duration in
+	 *            seconds, and number of concurrent clients, all optional)
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 * @throws SQLException
+	 *             if there is a problem with the database
+	 * @throws InterruptedException
+	 *             if the main thread is interrupted
+	 */
+	static public void main (final String[] args) throws IOException, SQLException, InterruptedException {
+		final int trackCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		final int duration = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		final int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+		final int warmup = Integer.getInteger("radio.load.warmup", 10);
+		final int servicePort = Integer.getInteger("radio.load.port", 8091);
+		final int databasePort = Integer.getInteger("radio.load.db-port", 3307);
+		final Operation[] mix = parseMix(System.getProperty("radio.load.mix", DEFAULT_MIX));
+
+		try (EmbeddedDatabase database = new EmbeddedDatabase(databasePort)) {
+			final CatalogueGenerator catalogue = new CatalogueGenerator(trackCount, 0);
+			final long seedStart = System.currentTimeMillis();
+			try (Connection connection = database.newConnection()) {
+				catalogue.generate(connection);
+			}
+			System.out.format("Seeded %d tracks, %d albums and %d people in %.1fs.\n", catalogue.getTrackCount(), catalogue.getAlbumCount(), catalogue.getPersonCount(), (System.currentTimeMillis() - seedStart) * 1E-3);
+
+			final Process container = startContainer(servicePort, database.getJdbcUrl());
+			try {
+				final String origin = "http://localhost:" + servicePort;
+				awaitContainer(container, origin, catalogue);
+
+				final Client[] clients = new Client[concurrency];
+				final Thread[] threads = new Thread[concurrency];
+				for (int index = 0; index < concurrency; ++index) {
+					clients[index] = new Client(origin, catalogue, mix);
+					threads[index] = new Thread(clients[index], "load-client-" + index);
+					threads[index].start();
+				}
+
+				System.out.format("Warming up for %ds with %d clients ...\n", warmup, concurrency);
+				Thread.sleep(warmup * 1000L);
+				for (final Operation operation : mix)
+					operation.reset();
+
+				System.out.format("Measuring for %ds ...\n", duration);
+				final long measurementStart = System.nanoTime();
+				Thread.sleep(duration * 1000L);
+				final double measurementSeconds = (System.nanoTime() - measurementStart) * 1E-9;
+				for (final Client client : clients)
+					client.stop();
+				for (final Thread thread : threads)
+					thread.join();
+
+				report(mix, measurementSeconds);
+			} finally {
+				stopContainer(container);
+			}
+		}
+	}
+
+
+	/**
+	 * Parses the given operation mix.
+	 *
+	 * @param text
+	 *            the mix, as comma separated pairs of operation name and
+	 *            weight
+	 * @return the weighted operations
+	 * @throws IllegalArgumentException
+	 *             if the given mix is malformed, or contains an unknown
+	 *             operation
+	 */
+	static private Operation[] parseMix (final String text) throws IllegalArgumentException {
+		final List<Operation> operations = new ArrayList<>();
+		for (final String element : text.split(",")) {
+			final String[] pair = element.trim().split(":");
+			if (pair.length != 2) throw new IllegalArgumentException(element);
+			operations.add(new Operation(pair[0].trim(), Integer.parseInt(pair[1].trim())));
+		}
+		return operations.toArray(new Operation[0]);
+	}
+
+
+	/**
+	 * Starts the application container in a separate JVM using this JVM's
+	 * class path and Java agents, connected to the given database.
+	 *
+	 * @param servicePort
+	 *            the service port
+	 * @param jdbcUrl
+	 *            the JDBC URL of the database
+	 * @return the container process
+	 * @throws IOException
+	 *             if the process cannot be started
+	 */
+	static private Process startContainer (final int servicePort, final String jdbcUrl) throws IOException {
+		final List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		if (System.getProperty("radio.load.javaagent") != null) {
+			command.add("-javaagent:" + System.getProperty("radio.load.javaagent"));
+		} else {
+			for (final String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+				if (argument.startsWith("-javaagent:")) command.add(argument);
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		for (final String key : System.getProperties().stringPropertyNames()) {
+			if (key.startsWith("radio.") && !key.startsWith("radio.load.")) command.add("-D" + key + "=" + System.getProperty(key));
+		}
+		command.add("-Dradio.pool.jdbcUrl=" + jdbcUrl);
+		command.add("-Dradio.pool.username=root");
+		command.add("-Dradio.pool.password=");
+		if (System.getProperty("radio.waveform.sweep") == null) command.add("-Dradio.waveform.sweep=false");
+		command.add(CONTAINER_CLASS);
+		command.add(Integer.toString(servicePort));
+		command.add(Files.createTempDirectory("radio-load-").toString());
+
+		final File logFile = Paths.get(System.getProperty("java.io.tmpdir"), "radio-load-server.log").toFile();
+		System.out.format("Starting container, see %s ...\n", logFile);
+		return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(logFile).start();
+	}
+
+
+	/**
+	 * Waits until the container answers authenticated requests.
+	 *
+	 * @param container
+	 *            the container process
+	 * @param origin
+	 *            the container's origin
+	 * @param catalogue
+	 *            the catalogue
+	 * @throws IOException
+	 *             if the container terminates, or doesn't start in time
+	 * @throws InterruptedException
+	 *             if the main thread is interrupted
+	 */
+	static private void awaitContainer (final Process container, final String origin, final CatalogueGenerator catalogue) throws IOException, InterruptedException {
+		final String credentials = basicCredentials(catalogue.getEmail(0));
+		final long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+		while (true) {
+			try {
+				if (exchange(origin + "/services/tracks/genres", "GET", credentials, null) == 200) return;
+			} catch (final IOException exception) {
+				if (System.currentTimeMillis() > deadline) throw exception;
+			}
+			if (!container.isAlive()) throw new IOException("container terminated with exit code " + container.exitValue());
+			if (System.currentTimeMillis() > deadline) throw new IOException("container startup timed out");
+			Thread.sleep(500);
+		}
+	}
+
+
+	/**
+	 * Stops the given container process by entering "quit", or destroys it if
+	 * it doesn't terminate in time.
+	 *
+	 * @param container
+	 *            the container process
+	 * @throws InterruptedException
+	 *             if the main thread is interrupted
+	 */
+	static private void stopContainer (final Process container) throws InterruptedException {
+		try (Writer charSink = new OutputStreamWriter(container.getOutputStream(), UTF_8)) {
+			charSink.write("quit\n");
+		} catch (final IOException exception) {
+			// container terminated already
+		}
+
+		final long deadline = System.currentTimeMillis() + 10_000;
+		while (container.isAlive() && System.currentTimeMillis() < deadline)
+			Thread.sleep(100);
+		if (container.isAlive()) container.destroyForcibly();
+	}
+
+
+	/**
+	 * Prints throughput, error counts and latency percentiles per operation.
+	 *
+	 * @param mix
+	 *            the operations
+	 * @param seconds
+	 *            the measurement duration in seconds
+	 */
+	static private void report (final Operation[] mix, final double seconds) {
+		System.out.format(Locale.ROOT, "%-10s %10s %10s %8s %9s %9s %9s %9s %9s\n", "operation", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+		long totalCount = 0;
+		for (final Operation operation : mix) {
+			final LatencyHistogram latencies = operation.latencies;
+			totalCount += latencies.getCount();
+			System.out.format(Locale.ROOT, "%-10s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f %9.2f\n",
+				operation.name, latencies.getCount(), latencies.getCount() / seconds, operation.errorCount.sum(),
+				latencies.getQuantile(0.5) * 1E3, latencies.getQuantile(0.9) * 1E3, latencies.getQuantile(0.99) * 1E3, latencies.getQuantile(0.999) * 1E3, latencies.getMax() * 1E3);
+		}
+		System.out.format(Locale.ROOT, "%-10s %10d %10.1f\n", "total", totalCount, totalCount / seconds);
+	}
+
+
+	/**
+	 * Returns the "Authorization" header value for the given email and the
+	 * catalogue's password.
+	 *
+	 * @param email
+	 *            the email
+	 * @return the "basic" credentials
+	 */
+	static private String basicCredentials (final String email) {
+		return "Basic " + Base64.getEncoder().encodeToString((email + ":" + CatalogueGenerator.PASSWORD).getBytes(UTF_8));
+	}
+
+
+	/**
+	 * Performs an HTTP exchange, consuming the response body completely so the
+	 * connection can be kept alive.
+	 *
+	 * @param url
+	 *            the request URL
+	 * @param method
+	 *            the request method
+	 * @param credentials
+	 *            the "Authorization" header value
+	 * @param json
+	 *            the JSON request body, or {@code null} for none
+	 * @return the response status code
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	static private int exchange (final String url, final String method, final String credentials, final String json) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty("Authorization", credentials);
+		connection.setRequestProperty("Accept", "*/*");
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		if (json != null) {
+			final byte[] body = json.getBytes(UTF_8);
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setFixedLengthStreamingMode(body.length);
+			try (OutputStream byteSink = connection.getOutputStream()) {
+				byteSink.write(body);
+			}
+		}
+
+		final int status = connection.getResponseCode();
+		try (InputStream byteSource = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			if (byteSource != null) {
+				final byte[] buffer = new byte[0x10000];
+				while (byteSource.read(buffer) != -1);
+			}
+		}
+		return status;
+	}
+
+
+
+	/**
+	 * Named, weighted load test operation that records it's latencies and
+	 * errors.
+	 */
+	static private class Operation {
+		private final String name;
+		private final int weight;
+		private volatile LatencyHistogram latencies;
+		private volatile LongAdder errorCount;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param name
+		 *            the operation name
+		 * @param weight
+		 *            the operation weight
+		 * @throws IllegalArgumentException
+		 *             if the given name is unknown, or the given weight is
+		 *             negative
+		 */
+		public Operation (final String name, final int weight) throws IllegalArgumentException {
+			if (!name.equals("tracks") && !name.equals("documents") && !name.equals("writes")) throw new IllegalArgumentException(name);
+			if (weight < 0) throw new IllegalArgumentException(Integer.toString(weight));
+
+			this.name = name;
+			this.weight = weight;
+			this.reset();
+		}
+
+
+		/**
+		 * Discards the latencies and errors recorded so far.
+		 */
+		public void reset () {
+			this.latencies = new LatencyHistogram();
+			this.errorCount = new LongAdder();
+		}
+	}
+
+
+
+	/**
+	 * Closed-loop client that performs randomly chosen operations of a mix
+	 * until stopped.
+	 */
+	static private class Client implements Runnable {
+		private final String origin;
+		private final CatalogueGenerator catalogue;
+		private final Operation[] mix;
+		private final int totalWeight;
+		private volatile boolean stopped;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param origin
+		 *            the container's origin
+		 * @param catalogue
+		 *            the catalogue
+		 * @param mix
+		 *            the operations
+		 */
+		public Client (final String origin, final CatalogueGenerator catalogue, final Operation[] mix) {
+			this.origin = origin;
+			this.catalogue = catalogue;
+			this.mix = mix;
+			int totalWeight = 0;
+			for (final Operation operation : mix)
+				totalWeight += operation.weight;
+			this.totalWeight = totalWeight;
+		}
+
+
+		/**
+		 * Stops this client after it's current request.
+		 */
+		public void stop () {
+			this.stopped = true;
+		}
+
+
+		/**
+		 * Performs operations until stopped.
+		 */
+		public void run () {
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+			final String userCredentials = basicCredentials(this.catalogue.getEmail(1 + random.nextInt(this.catalogue.getPersonCount() - 1)));
+			final String adminCredentials = basicCredentials(this.catalogue.getEmail(0));
+
+			while (!this.stopped) {
+				int choice = random.nextInt(Math.max(1, this.totalWeight));
+				Operation operation = this.mix[0];
+				for (final Operation candidate : this.mix) {
+					operation = candidate;
+					if ((choice -= candidate.weight) < 0) break;
+				}
+
+				final long start = System.nanoTime();
+				boolean success;
+				try {
+					switch (operation.name) {
+						case "tracks": {
+							final String genre = CatalogueGenerator.GENRES[random.nextInt(CatalogueGenerator.GENRES.length)];
+							success = exchange(this.origin + "/services/tracks?resultLimit=50&genre=" + genre, "GET", userCredentials, null) == 200;
+							break;
+						}
+						case "documents": {
+							final long recordingIdentity = this.catalogue.getRecordingIdentity(random.nextInt(this.catalogue.getRecordingCount()));
+							success = exchange(this.origin + "/services/documents/" + recordingIdentity, "GET", userCredentials, null) == 200;
+							break;
+						}
+						default: {
+							final long coverIdentity = this.catalogue.getCoverIdentity(random.nextInt(this.catalogue.getAlbumCount()));
+							final String json = "{\"title\":\"Load " + random.nextLong() + "\",\"releaseYear\":2000,\"trackCount\":10}";
+							success = exchange(this.origin + "/services/albums?coverReference=" + coverIdentity, "POST", adminCredentials, json) == 200;
+							break;
+						}
+					}
+				} catch (final IOException exception) {
+					success = false;
+				}
+
+				operation.latencies.record(System.nanoTime() - start);
+				if (!success) operation.errorCount.increment();
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package de.sb.radio.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+
+/**
+ * Checks that the SQL generated for the REST service's entity queries is index
+ * driven, using MariaDB's EXPLAIN statement. Each statement mirrors the shape
+ * EclipseLink generates for the corresponding JP-QL query, i.e. the root table
+ * joined with the concrete type's table, the "(? IS NULL) OR" predicates, and
+ * the query's sort order. A check fails if the concrete type's table is not
+ * accessed using one of the expected indices, or if any table is scanned
+ * fully. Run this after the structure or migration script; the process exits
+ * with status 1 if any check fails.
+ */
+public class QueryPlanCheck {
+	static private final String QUERY_ALBUMS = "SELECT t0.identity FROM radio.BaseEntity t0, radio.Album t1 WHERE "
+		+ "((? IS NULL) OR (t1.title = ?)) AND "
+		+ "((? IS NULL) OR (t1.releaseYear = ?)) AND "
+		+ "((? IS NULL) OR (t1.trackCount = ?)) AND "
+		+ "t1.albumIdentity = t0.identity AND t0.discriminator = 'Album' "
+		+ "ORDER BY t1.title, t0.identity";
+	static private final String QUERY_TRACKS = "SELECT t0.identity FROM radio.BaseEntity t0, radio.Track t1 WHERE "
+		+ "((? IS NULL) OR (t1.name = ?)) AND "
+		+ "((? IS NULL) OR (t1.artist = ?)) AND "
+		+ "((? = 1) OR (t1.genre IN (?, ?))) AND "
+		+ "((? = 1) OR (t1.ordinal IN (?))) AND "
+		+ "t1.trackIdentity = t0.identity AND t0.discriminator = 'Track' "
+		+ "ORDER BY t1.name, t0.identity";
+	static private final String QUERY_PEOPLE = "SELECT t0.identity FROM radio.BaseEntity t0, radio.Person t1 WHERE "
+		+ "((? IS NULL) OR (t1.surname = ?)) AND "
+		+ "((? IS NULL) OR (t1.forename = ?)) AND "
+		+ "((? IS NULL) OR (t1.email = ?)) AND "
+		+ "t1.personIdentity = t0.identity AND t0.discriminator = 'Person' "
+		+ "ORDER BY t1.surname, t1.forename, t1.email";
+	static private final String QUERY_GENRES = "SELECT DISTINCT t1.genre FROM radio.Track t1";
+	static private final String QUERY_ARTISTS = "SELECT DISTINCT t1.artist FROM radio.Track t1";
+	static private final String QUERY_DOCUMENT_BY_HASH = "SELECT t0.identity FROM radio.BaseEntity t0, radio.Document t1 WHERE "
+		+ "t1.contentHash = ? AND t1.documentIdentity = t0.identity AND t0.discriminator = 'Document'";
+
+
+	/**
+	 * Application entry point.
+	 *
+	 * @param args
+	 *            the runtime arguments (none)
+	 * @throws SQLException
+	 *             if there is a problem with the database
+	 */
+	static public void main (final String[] args) throws SQLException {
+		final EntityManagerFactory radioFactory = Persistence.createEntityManagerFactory("radio");
+		final EntityManager radioManager = radioFactory.createEntityManager();
+		int failureCount = 0;
+
+		try {
+			radioManager.getTransaction().begin();
+			try {
+				final Connection connection = radioManager.unwrap(Connection.class);
+				failureCount += check(connection, "albums by title", QUERY_ALBUMS, keys("albumTitle"), "Rock", "Rock", null, null, null, null);
+				failureCount += check(connection, "albums by release year", QUERY_ALBUMS, keys("albumRelease"), null, null, 1985, 1985, null, null);
+				failureCount += check(connection, "albums by release year and track count", QUERY_ALBUMS, keys("albumRelease"), null, null, 1985, 1985, 12, 12);
+				failureCount += check(connection, "tracks by name", QUERY_TRACKS, keys("trackName"), "Angie", "Angie", null, null, 1, "", "", 1, -1);
+				failureCount += check(connection, "tracks by artist", QUERY_TRACKS, keys("trackArtist", "trackGenre"), null, null, "Queen", "Queen", 1, "", "", 1, -1);
+				failureCount += check(connection, "tracks by genres", QUERY_TRACKS, keys("trackGenre"), null, null, null, null, 0, "Rock", "Pop", 1, -1);
+				failureCount += check(connection, "tracks by genres and artist", QUERY_TRACKS, keys("trackGenre", "trackArtist"), null, null, "Queen", "Queen", 0, "Rock", "Pop", 1, -1);
+				failureCount += check(connection, "tracks by genres and ordinal", QUERY_TRACKS, keys("trackGenre"), null, null, null, null, 0, "Rock", "Pop", 0, 1);
+				failureCount += check(connection, "people by name", QUERY_PEOPLE, keys("personName"), "Bergmann", "Bergmann", "Ines", "Ines", null, null);
+				failureCount += check(connection, "people by email", QUERY_PEOPLE, keys("email"), null, null, null, null, "ines.bergmann@web.de", "ines.bergmann@web.de");
+				failureCount += check(connection, "genres", QUERY_GENRES, keys("trackGenre"));
+				failureCount += check(connection, "artists", QUERY_ARTISTS, keys("trackArtist"));
+				failureCount += check(connection, "document by hash", QUERY_DOCUMENT_BY_HASH, keys("contentHash"), (Object) HashTools.sha256HashCode(new byte[0]));
+			} finally {
+				radioManager.getTransaction().rollback();
+			}
+		} finally {
+			radioManager.close();
+			radioFactory.close();
+		}
+
+		System.out.format("%s check(s) failed.\n", failureCount);
+		if (failureCount > 0) System.exit(1);
+	}
+
+
+	/**
+	 * Explains the given statement, and checks that it's concrete type table
+	 * (alias t1) is accessed using one of the given indices, and that no table
+	 * is scanned fully.
+	 *
+	 * @param connection
+	 *            the database connection
+	 * @param title
+	 *            the check title
+	 * @param sql
+	 *            the SQL statement
+	 * @param expectedKeys
+	 *            the names of the indices expected for the concrete type table
+	 * @param parameters
+	 *            the statement parameters
+	 * @return {@code 0} if the check succeeded, {@code 1} otherwise
+	 * @throws SQLException
+	 *             if there is a problem with the database
+	 */
+	static private int check (final Connection connection, final String title, final String sql, final Set<String> expectedKeys, final Object... parameters) throws SQLException {
+		boolean success = true;
+		final StringBuilder plan = new StringBuilder();
+
+		try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+			for (int index = 0; index < parameters.length; ++index)
+				statement.setObject(index + 1, parameters[index]);
+
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					final String table = resultSet.getString("table");
+					final String type = resultSet.getString("type");
+					final String key = resultSet.getString("key");
+					final String extra = resultSet.getString("Extra");
+					plan.append(String.format("\t%s: type=%s, key=%s, extra=%s\n", table, type, key, extra));
+
+					if ("ALL".equals(type)) success = false;
+					if ("t1".equals(table) && !expectedKeys.contains(key)) success = false;
+				}
+			}
+		}
+
+		System.out.format("%s %s, expected %s:\n%s", success ? "PASSED" : "FAILED", title, expectedKeys, plan);
+		return success ? 0 : 1;
+	}
+
+
+	/**
+	 * Returns a set containing the given index names.
+	 *
+	 * @param names
+	 *            the index names
+	 * @return the index name set
+	 */
+	static private Set<String> keys (final String... names) {
+		return new HashSet<>(Arrays.asList(names));
+	}
+}
@@ -0,0 +1,50 @@
+package de.sb.radio.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the radio benchmarks twice, once in throughput mode reporting
+ * operations per second together with the allocation rate measured by JMH's GC
+ * profiler, and once in average time mode reporting nanoseconds per
+ * operation. As the audio benchmarks account a single frame as one operation,
+ * this yields frames per second and nanoseconds per frame for them. The runtime
+ * arguments are passed to JMH, and may for example narrow the benchmarks using
+ * a regular expression like {@code Processor}, or add further profilers
+ * using {@code -prof}.
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Application entry point.
+	 *
+	 * @param args
+	 *            the runtime arguments, see JMH's command line options
+	 * @throws CommandLineOptionException
+	 *             if the given arguments are invalid
+	 * @throws RunnerException
+	 *             if a benchmark fails
+	 */
+	static public void main (final String[] args) throws CommandLineOptionException, RunnerException {
+		final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		final boolean includesGiven = !commandLineOptions.getIncludes().isEmpty();
+
+		final ChainedOptionsBuilder throughputOptions = new OptionsBuilder().parent(commandLineOptions).mode(Mode.Throughput).timeUnit(TimeUnit.SECONDS).addProfiler(GCProfiler.class);
+		final ChainedOptionsBuilder averageTimeOptions = new OptionsBuilder().parent(commandLineOptions).mode(Mode.AverageTime).timeUnit(TimeUnit.NANOSECONDS);
+		if (!includesGiven) {
+			throughputOptions.include(BenchmarkRunner.class.getPackage().getName());
+			averageTimeOptions.include(BenchmarkRunner.class.getPackage().getName());
+		}
+
+		new Runner(throughputOptions.build()).run();
+		new Runner(averageTimeOptions.build()).run();
+	}
+}
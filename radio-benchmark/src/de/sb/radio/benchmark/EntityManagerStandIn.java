@@ -0,0 +1,126 @@
+package de.sb.radio.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.TypedQuery;
+import de.sb.radio.persistence.Person;
+
+
+/**
+ * In-memory stand-in for the radio persistence unit, sufficient for
+ * {@link de.sb.radio.rest.BasicAuthenticationFilter}. The entity managers
+ * created answer the filter's query for people by email from a map, and
+ * support closing and an inactive transaction; any other operation fails with
+ * an {@link UnsupportedOperationException}. This keeps database round trips
+ * out of benchmarks that measure the filter's own overhead.
+ */
+public final class EntityManagerStandIn {
+	static private final EntityTransaction INACTIVE_TRANSACTION = (EntityTransaction) Proxy.newProxyInstance(EntityTransaction.class.getClassLoader(), new Class<?>[] { EntityTransaction.class }, (proxy, method, args) -> {
+		if (method.getName().equals("isActive")) return false;
+		throw new UnsupportedOperationException(method.getName());
+	});
+
+
+	/**
+	 * Returns a new entity manager factory whose entity managers find the
+	 * given people by their email.
+	 *
+	 * @param people
+	 *            the people
+	 * @return the entity manager factory
+	 * @throws NullPointerException
+	 *             if the given argument is {@code null}
+	 */
+	static public EntityManagerFactory newEntityManagerFactory (final Person... people) throws NullPointerException {
+		final Map<String, Person> peopleByEmail = new HashMap<>();
+		for (final Person person : people) {
+			peopleByEmail.put(person.getEmail(), person);
+		}
+
+		final EntityManager entityManager = newEntityManager(peopleByEmail);
+		return (EntityManagerFactory) Proxy.newProxyInstance(EntityManagerFactory.class.getClassLoader(), new Class<?>[] { EntityManagerFactory.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "createEntityManager":
+					return entityManager;
+				case "isOpen":
+					return true;
+				case "close":
+					return null;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+
+	/**
+	 * Returns a new entity manager finding the given people by their email.
+	 * Closing it has no effect, which allows it to be shared.
+	 *
+	 * @param peopleByEmail
+	 *            the people mapped by their email
+	 * @return the entity manager
+	 */
+	static private EntityManager newEntityManager (final Map<String, Person> peopleByEmail) {
+		return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] { EntityManager.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "createQuery":
+					if (args.length == 2 && args[1] == Person.class) return newPersonQuery(peopleByEmail);
+					throw new UnsupportedOperationException(method.getName());
+				case "getTransaction":
+					return INACTIVE_TRANSACTION;
+				case "isOpen":
+					return true;
+				case "close":
+				case "clear":
+					return null;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+
+	/**
+	 * Returns a new typed query that selects the person matching it's
+	 * "email" parameter.
+	 *
+	 * @param peopleByEmail
+	 *            the people mapped by their email
+	 * @return the typed query
+	 */
+	@SuppressWarnings("unchecked")
+	static private TypedQuery<Person> newPersonQuery (final Map<String, Person> peopleByEmail) {
+		final InvocationHandler handler = new InvocationHandler() {
+			private Object email;
+
+			public Object invoke (final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+					case "setParameter":
+						if ("email".equals(args[0])) this.email = args[1];
+						return proxy;
+					case "getResultList":
+						final Person person = peopleByEmail.get(this.email);
+						return person == null ? Collections.emptyList() : Collections.singletonList(person);
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			}
+		};
+		return (TypedQuery<Person>) Proxy.newProxyInstance(TypedQuery.class.getClassLoader(), new Class<?>[] { TypedQuery.class }, handler);
+	}
+
+
+	/**
+	 * Prevents external instantiation.
+	 */
+	private EntityManagerStandIn () {
+	}
+}
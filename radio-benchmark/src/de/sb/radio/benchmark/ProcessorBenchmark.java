@@ -0,0 +1,193 @@
+package de.sb.radio.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import de.sb.radio.processor.Compressor;
+import de.sb.radio.processor.LoudnessAnalyzer;
+import de.sb.radio.processor.PcmSamples;
+import de.sb.radio.processor.Processor;
+import de.sb.radio.processor.Volume;
+
+
+/**
+ * JMH benchmarks of the frame-wise audio processing path, i.e. unpacking PCM
+ * frames into normalized samples, processing them with {@link Volume} or
+ * {@link Compressor}, analyzing them with {@link LoudnessAnalyzer}, and
+ * packing them again. Every invocation processes a
+ * block of {@link #FRAME_COUNT} signed 16-bit frames of random noise, and is
+ * accounted as that many operations; the throughput is therefore reported in
+ * frames per second, and the average time in nanoseconds per frame, see
+ * {@link BenchmarkRunner}. The processors always start from the original
+ * noise, as repeatedly attenuating or compressing the same samples would
+ * drift them into denormal or saturated values that aren't representative.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorBenchmark {
+	static public final int FRAME_COUNT = 4096;
+
+	@Param({ "1", "2", "6" })
+	private int channelCount;
+
+	private byte[] frameBlock;
+	private byte[] sinkBlock;
+	private double[][] sourceFrames;
+	private double[][] frames;
+	private Processor volume;
+	private Processor compressor;
+	private LoudnessAnalyzer loudnessAnalyzer;
+
+
+	/**
+	 * Fills the frame block with random noise, and unpacks it into the
+	 * normalized frames.
+	 */
+	@Setup
+	public void setup () {
+		final Random random = new Random(0);
+		this.frameBlock = new byte[FRAME_COUNT * this.channelCount * 2];
+		random.nextBytes(this.frameBlock);
+		this.sinkBlock = new byte[this.frameBlock.length];
+
+		this.sourceFrames = new double[FRAME_COUNT][this.channelCount];
+		this.frames = new double[FRAME_COUNT][this.channelCount];
+		for (int frameIndex = 0; frameIndex < FRAME_COUNT; ++frameIndex) {
+			for (int channel = 0; channel < this.channelCount; ++channel) {
+				this.sourceFrames[frameIndex][channel] = PcmSamples.unpackNormalizedSample(this.frameBlock, 2 * (frameIndex * this.channelCount + channel));
+			}
+		}
+
+		this.volume = new Volume(0.8);
+		this.compressor = new Compressor(2.0);
+		this.loudnessAnalyzer = new LoudnessAnalyzer(44100, this.channelCount);
+	}
+
+
+	/**
+	 * Unpacks the frame block into normalized frames.
+	 *
+	 * @return the frames
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAME_COUNT)
+	public double[][] unpack () {
+		for (int frameIndex = 0, offset = 0; frameIndex < FRAME_COUNT; ++frameIndex) {
+			final double[] frame = this.frames[frameIndex];
+			for (int channel = 0; channel < frame.length; ++channel, offset += 2) {
+				frame[channel] = PcmSamples.unpackNormalizedSample(this.frameBlock, offset);
+			}
+		}
+		return this.frames;
+	}
+
+
+	/**
+	 * Packs the normalized frames into the sink block.
+	 *
+	 * @return the sink block
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAME_COUNT)
+	public byte[] pack () {
+		for (int frameIndex = 0, offset = 0; frameIndex < FRAME_COUNT; ++frameIndex) {
+			final double[] frame = this.sourceFrames[frameIndex];
+			for (int channel = 0; channel < frame.length; ++channel, offset += 2) {
+				PcmSamples.packNormalizedSample(this.sinkBlock, offset, frame[channel]);
+			}
+		}
+		return this.sinkBlock;
+	}
+
+
+	/**
+	 * Processes the normalized frames using a volume processor.
+	 *
+	 * @return the frames
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAME_COUNT)
+	public double[][] volume () {
+		for (int frameIndex = 0; frameIndex < FRAME_COUNT; ++frameIndex) {
+			final double[] frame = this.frames[frameIndex];
+			System.arraycopy(this.sourceFrames[frameIndex], 0, frame, 0, frame.length);
+			this.volume.process(frame);
+		}
+		return this.frames;
+	}
+
+
+	/**
+	 * Processes the normalized frames using a compressor.
+	 *
+	 * @return the frames
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAME_COUNT)
+	public double[][] compressor () {
+		for (int frameIndex = 0; frameIndex < FRAME_COUNT; ++frameIndex) {
+			final double[] frame = this.frames[frameIndex];
+			System.arraycopy(this.sourceFrames[frameIndex], 0, frame, 0, frame.length);
+			this.compressor.process(frame);
+		}
+		return this.frames;
+	}
+
+
+	/**
+	 * Analyzes the normalized frames using a loudness analyzer, which doesn't
+	 * modify them.
+	 *
+	 * @return the sample peak
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAME_COUNT)
+	public double loudness () {
+		for (int frameIndex = 0; frameIndex < FRAME_COUNT; ++frameIndex) {
+			this.loudnessAnalyzer.process(this.sourceFrames[frameIndex]);
+		}
+		return this.loudnessAnalyzer.getPeak();
+	}
+
+
+	/**
+	 * Unpacks, processes and packs the frame block like the processor demo
+	 * does, using a single frame buffer, and writes the result into the sink
+	 * block.
+	 *
+	 * @return the sink block
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAME_COUNT)
+	public byte[] pipeline () {
+		final double[] frame = this.frames[0];
+		for (int offset = 0; offset < this.frameBlock.length; offset += 2 * frame.length) {
+			for (int channel = 0; channel < frame.length; ++channel) {
+				frame[channel] = PcmSamples.unpackNormalizedSample(this.frameBlock, offset + 2 * channel);
+			}
+
+			this.volume.process(frame);
+			this.compressor.process(frame);
+
+			for (int channel = 0; channel < frame.length; ++channel) {
+				PcmSamples.packNormalizedSample(this.sinkBlock, offset + 2 * channel, frame[channel]);
+			}
+		}
+		return this.sinkBlock;
+	}
+}
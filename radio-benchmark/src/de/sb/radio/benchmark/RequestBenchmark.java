@@ -0,0 +1,273 @@
+package de.sb.radio.benchmark;
+
+import static javax.ws.rs.core.HttpHeaders.AUTHORIZATION;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import de.sb.radio.persistence.Album;
+import de.sb.radio.persistence.Document;
+import de.sb.radio.persistence.HashTools;
+import de.sb.radio.persistence.Person;
+import de.sb.radio.persistence.Track;
+import de.sb.radio.rest.BasicAuthenticationFilter;
+import de.sb.radio.rest.RestJpaContextProvider;
+
+
+/**
+ * JMH benchmarks of the work done on every REST request, i.e. SHA-256 hashing
+ * using {@link HashTools}, HTTP "basic" authentication using
+ * {@link BasicAuthenticationFilter} against an in-memory
+ * {@link EntityManagerStandIn}, and JSON-B marshaling of tracks, albums and
+ * people including their reference properties. An operation is a single
+ * request's worth of work. Allocation rates are reported by the GC profiler
+ * that {@link BenchmarkRunner} adds to throughput runs, or by passing
+ * {@code -prof gc} to JMH directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+	static private final String EMAIL = "ines.bergmann@web.de";
+	static private final String PASSWORD = "ines";
+	static private final String ABORT_STATUS = "Abort-Status";
+
+	private String validCredentials;
+	private String invalidCredentials;
+	private BasicAuthenticationFilter authenticationFilter;
+	private Jsonb jsonb;
+	private Person person;
+	private Album album;
+	private Track track;
+	private List<Track> tracks;
+
+
+	/**
+	 * Registers the in-memory persistence unit stand-in, and creates the
+	 * entities to be marshaled.
+	 */
+	@Setup
+	public void setup () {
+		final Base64.Encoder encoder = Base64.getEncoder();
+		this.validCredentials = "Basic " + encoder.encodeToString((EMAIL + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+		this.invalidCredentials = "Basic " + encoder.encodeToString((EMAIL + ":" + PASSWORD + "!").getBytes(StandardCharsets.UTF_8));
+
+		final Document avatar = new Document();
+		avatar.setContentType("image/png");
+		avatar.setContent(new byte[1024]);
+		this.person = new Person(avatar);
+		this.person.setEmail(EMAIL);
+		this.person.setPasswordHash(HashTools.sha256HashCode(PASSWORD));
+		this.person.setForename("Ines");
+		this.person.setSurname("Bergmann");
+
+		RestJpaContextProvider.open("radio", EntityManagerStandIn.newEntityManagerFactory(this.person));
+		this.authenticationFilter = new BasicAuthenticationFilter();
+
+		final Document cover = new Document();
+		cover.setContentType("image/jpeg");
+		cover.setContent(new byte[2048]);
+		this.album = new Album(cover);
+		this.album.setTitle("Rumours");
+		this.album.setReleaseYear((short) 1977);
+		this.album.setTrackCount((byte) 11);
+
+		this.tracks = new ArrayList<>();
+		for (int ordinal = 1; ordinal <= 50; ++ordinal) {
+			final Document recording = new Document();
+			recording.setContentType("audio/mpeg");
+			recording.setContent(new byte[] { (byte) ordinal });
+
+			final Track track = new Track(recording, this.album, this.person);
+			track.setName("Track " + ordinal);
+			track.setArtist("Fleetwood Mac");
+			track.setGenre("Rock");
+			track.setOrdinal((byte) ordinal);
+			this.tracks.add(track);
+		}
+		this.track = this.tracks.get(0);
+
+		this.jsonb = JsonbBuilder.create();
+	}
+
+
+	/**
+	 * Closes the JSON-B instance, and the entity manager bound to the
+	 * benchmark thread.
+	 *
+	 * @throws Exception
+	 *             if there is a problem closing the JSON-B instance
+	 */
+	@TearDown
+	public void tearDown () throws Exception {
+		this.jsonb.close();
+		RestJpaContextProvider.closeEntityManagers();
+	}
+
+
+	/**
+	 * Hashes content, as document uploads do.
+	 *
+	 * @param state
+	 *            the content state
+	 * @return the hash code
+	 */
+	@Benchmark
+	public byte[] hashContent (final ContentState state) {
+		return HashTools.sha256HashCode(state.content);
+	}
+
+
+	/**
+	 * Hashes a password, as authentication does.
+	 *
+	 * @return the hash code
+	 */
+	@Benchmark
+	public byte[] hashPassword () {
+		return HashTools.sha256HashCode(PASSWORD);
+	}
+
+
+	/**
+	 * Authenticates a request with valid credentials.
+	 *
+	 * @return the request headers
+	 */
+	@Benchmark
+	public MultivaluedMap<String, String> authenticate () {
+		return this.filter(this.validCredentials);
+	}
+
+
+	/**
+	 * Rejects a request with invalid credentials.
+	 *
+	 * @return the request headers
+	 */
+	@Benchmark
+	public MultivaluedMap<String, String> authenticateRejected () {
+		return this.filter(this.invalidCredentials);
+	}
+
+
+	/**
+	 * Marshals a person.
+	 *
+	 * @return the JSON text
+	 */
+	@Benchmark
+	public String marshalPerson () {
+		return this.jsonb.toJson(this.person);
+	}
+
+
+	/**
+	 * Marshals an album.
+	 *
+	 * @return the JSON text
+	 */
+	@Benchmark
+	public String marshalAlbum () {
+		return this.jsonb.toJson(this.album);
+	}
+
+
+	/**
+	 * Marshals a track.
+	 *
+	 * @return the JSON text
+	 */
+	@Benchmark
+	public String marshalTrack () {
+		return this.jsonb.toJson(this.track);
+	}
+
+
+	/**
+	 * Marshals a page of tracks, as a track query does.
+	 *
+	 * @return the JSON text
+	 */
+	@Benchmark
+	public String marshalTracks () {
+		return this.jsonb.toJson(this.tracks);
+	}
+
+
+	/**
+	 * Passes a request with the given "Authorization" header through the
+	 * authentication filter.
+	 *
+	 * @param credentials
+	 *            the "Authorization" header value
+	 * @return the request headers after filtering, plus an "Abort-Status"
+	 *         header if the filter aborted the request
+	 */
+	private MultivaluedMap<String, String> filter (final String credentials) {
+		final MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+		headers.putSingle(AUTHORIZATION, credentials);
+
+		final ContainerRequestContext requestContext = (ContainerRequestContext) Proxy.newProxyInstance(ContainerRequestContext.class.getClassLoader(), new Class<?>[] { ContainerRequestContext.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getHeaders":
+					return headers;
+				case "abortWith":
+					headers.putSingle(ABORT_STATUS, Integer.toString(((Response) args[0]).getStatus()));
+					return null;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		});
+
+		this.authenticationFilter.filter(requestContext);
+		return headers;
+	}
+
+
+
+	/**
+	 * Random content of parameterized size to be hashed.
+	 */
+	@State(Scope.Thread)
+	static public class ContentState {
+		@Param({ "32", "65536" })
+		private int contentSize;
+
+		private byte[] content;
+
+
+		/**
+		 * Fills the content with random bytes.
+		 */
+		@Setup
+		public void setup () {
+			this.content = new byte[this.contentSize];
+			new Random(0).nextBytes(this.content);
+		}
+	}
+}
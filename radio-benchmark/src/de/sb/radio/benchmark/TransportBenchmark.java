@@ -0,0 +1,142 @@
+package de.sb.radio.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import de.sb.radio.processor.AudioOutputStream;
+
+
+/**
+ * JMH benchmark of the {@link AudioOutputStream} transport, i.e. the piped
+ * stream and transcoding thread created by
+ * {@link AudioOutputStream#newAudioOutputStream(AudioFormat, AudioOutputStream, int)}.
+ * Every invocation writes {@link #FRAME_COUNT} signed 16-bit little-endian
+ * frames in chunks of the transport buffer size, which are transcoded to
+ * big-endian and discarded by the sink, and waits for the transport thread to
+ * close the sink. An invocation is accounted as that many operations; the
+ * throughput is therefore reported in frames per second, and the average time
+ * in nanoseconds per frame, see {@link BenchmarkRunner}. The per-invocation
+ * thread start is amortized over the frames, as it is in practice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+	static public final int FRAME_COUNT = 65536;
+	static private final float SAMPLE_RATE = 44100;
+
+	@Param({ "1", "2", "6" })
+	private int channelCount;
+
+	@Param({ "16", "64", "1024", "8192" })
+	private int bufferSize;
+
+	private AudioFormat sourceFormat;
+	private AudioFormat sinkFormat;
+	private byte[] chunk;
+
+
+	/**
+	 * Creates the audio formats, and fills a chunk of transport buffer size
+	 * with random noise.
+	 */
+	@Setup
+	public void setup () {
+		this.sourceFormat = new AudioFormat(SAMPLE_RATE, 16, this.channelCount, true, false);
+		this.sinkFormat = new AudioFormat(SAMPLE_RATE, 16, this.channelCount, true, true);
+		this.chunk = new byte[this.bufferSize * this.sourceFormat.getFrameSize()];
+		new Random(0).nextBytes(this.chunk);
+	}
+
+
+	/**
+	 * Transports a block of frames through a transcoding audio output stream.
+	 *
+	 * @return the number of bytes received by the sink
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 * @throws InterruptedException
+	 *             if the benchmark thread is interrupted
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAME_COUNT)
+	public long transport () throws IOException, InterruptedException {
+		final DiscardingAudioOutputStream audioSink = new DiscardingAudioOutputStream(this.sinkFormat);
+		try (AudioOutputStream audioSource = AudioOutputStream.newAudioOutputStream(this.sourceFormat, audioSink, this.bufferSize)) {
+			for (int frameCount = 0; frameCount < FRAME_COUNT; frameCount += this.bufferSize) {
+				audioSource.write(this.chunk, 0, Math.min(this.bufferSize, FRAME_COUNT - frameCount) * this.sourceFormat.getFrameSize());
+			}
+		}
+
+		audioSink.closed.await();
+		return audioSink.byteCount;
+	}
+
+
+
+	/**
+	 * Audio output stream that counts and discards the bytes written, and
+	 * signals when it has been closed.
+	 */
+	static private class DiscardingAudioOutputStream extends AudioOutputStream {
+		private final AudioFormat audioFormat;
+		private final CountDownLatch closed;
+		private volatile long byteCount;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param audioFormat
+		 *            the audio format
+		 */
+		public DiscardingAudioOutputStream (final AudioFormat audioFormat) {
+			this.audioFormat = audioFormat;
+			this.closed = new CountDownLatch(1);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public AudioFormat getFormat () {
+			return this.audioFormat;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final byte[] buffer, final int offset, final int length) {
+			this.byteCount += length;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close () {
+			this.closed.countDown();
+		}
+	}
+}
@@ -119,7 +119,7 @@
 				sectionElement.appendChild(videoElement);
 				videoElement.setAttribute("autoplay", "");
 				videoElement.setAttribute("controls", "");	
-				videoElement.src = "/services/documents/" + tracks[0].recordingReference;
+				videoElement.src = "/services/" + tracks[0].recordingLocation;
 			} catch (error) {
 				this.displayError(error);
 			}
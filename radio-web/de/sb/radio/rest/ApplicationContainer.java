@@ -1,10 +1,13 @@
 package de.sb.radio.rest;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
@@ -18,16 +21,32 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.Collections;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManagerFactory;
-import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.core.UriBuilder;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.ssl.SSLEngineConfigurator;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.eclipse.persistence.jpa.JpaHelper;
+import com.zaxxer.hikari.HikariDataSource;
+import de.sb.radio.persistence.Document;
 import de.sb.toolbox.Copyright;
-import de.sb.toolbox.net.HttpFileHandler;
 import de.sb.toolbox.net.RestCorsHeaderProvider;
-import de.sb.toolbox.net.RestJpaLifecycleProvider;
 import de.sb.toolbox.net.RestResponseCodeProvider;
 
 
@@ -42,25 +61,54 @@ import de.sb.toolbox.net.RestResponseCodeProvider;
  * auto-configures itself as long as the package of the service classes matches
  * this class's package.</p>
  * <p>Note that for LAZY fetching of entities within <i>EclipseLink</i> (dynamic weaving),
- * add this to the JVM start parameters: -javaagent:[path]eclipselink.jar</p>
+ * add this to the JVM start parameters: -javaagent:[path]eclipselink.jar; as document content
+ * and document relationships are fetched lazily, the container refuses to start with unwoven
+ * entity classes.</p>
+ * <p>The HTTP exchanges are executed by a {@link RequestExecutor}, configurable using the
+ * system properties <tt>radio.executor</tt> ("platform" or "virtual"), <tt>radio.executor.threads</tt>
+ * (the maximum number of concurrent exchanges) and <tt>radio.executor.queue</tt> (the maximum
+ * number of queued exchanges); exchanges exceeding both limits are answered with HTTP 503.</p>
+ * <p>The server front end is selectable using the system property <tt>radio.server</tt>: "jdk"
+ * (default) uses the JDK's blocking HTTP server, while "grizzly" uses Grizzly's NIO engine,
+ * which parks idle keep-alive connections within it's selectors instead of occupying a thread
+ * each. Both front ends share the same REST configuration, TLS setup and file contexts; the
+ * Grizzly worker pool is sized by <tt>radio.executor.threads</tt> and <tt>radio.executor.queue</tt>
+ * as well.</p>
+ * <p>TLS is restricted to TLS 1.3 and 1.2 with forward secret AEAD cipher suites, and abbreviated
+ * handshakes are enabled by a server session cache configurable using the system properties
+ * <tt>radio.tls.session-cache</tt> (the maximum number of cached sessions, default 20000) and
+ * <tt>radio.tls.session-timeout</tt> (in seconds, default 86400). Setting <tt>radio.tls.session-tickets</tt>
+ * to "true" or "false" enables or disables stateless session tickets on JVMs supporting them.
+ * Handshake and resumption counts are published as service metrics.</p>
+ * <p>After startup, waveform summaries are generated in the background for all recordings still
+ * lacking one, for example because they were bulk loaded; setting the system property
+ * <tt>radio.waveform.sweep</tt> to "false" disables this.</p>
  * <p>Also note that in order to force <i>Firefox</i> to prefer JSON over XML in status bar
  * requests, enter about:config into said bar, look for the <tt>network.http.accept.default</tt>
  * entry, and append it's value with this: <tt>,application/json;q=0.95"</tt>.</p>
  */
 @Copyright(year=2013, holders="Sascha Baumeister")
 public class ApplicationContainer {
+	static private final String[] TLS_PROTOCOLS = { "TLSv1.3", "TLSv1.2" };
+	static private final String[] TLS_CIPHER_SUITES = {
+		"TLS_AES_128_GCM_SHA256", "TLS_CHACHA20_POLY1305_SHA256", "TLS_AES_256_GCM_SHA384",
+		"TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+		"TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256", "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+		"TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384", "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"
+	};
 
 	/**
 	 * Application entry point.
 	 * @param args the runtime arguments (service port, resource directory, key store file, key recovery password and key
 	 *        management password, all optional)
 	 * @throws IllegalArgumentException if the given port is not a number, or if the given directory is not a directory
+	 * @throws IllegalStateException if the entity classes have not been woven
 	 * @throws IOException if there is an I/O related problem
 	 * @throws CertificateException if any of the certificates in the key store could not be loaded
 	 * @throws UnrecoverableKeyException if there is a key recovery problem, like incorrect passwords
 	 * @throws KeyManagementException if there is a key management problem, like key expiration
 	 */
-	static public void main (final String[] args) throws IllegalArgumentException, IOException, CertificateException, UnrecoverableKeyException, KeyManagementException {
+	static public void main (final String[] args) throws IllegalArgumentException, IllegalStateException, IOException, CertificateException, UnrecoverableKeyException, KeyManagementException {
 		final int servicePort = args.length > 0 ? Integer.parseInt(args[0]) : 8001;
 		final Path resourceDirectory = Paths.get(args.length > 1 ? args[1] : "").toAbsolutePath();
 		final Path keyStoreFile = args.length > 2 ? Paths.get(args[2]).toAbsolutePath() : null;
@@ -71,23 +119,45 @@ public class ApplicationContainer {
 		// Note that Jersey automatically registers it's MOXY feature for both
 		// JSON and XML marshaling; however, for XML marshaling make sure that
 		// every type marshaled is annotated with @XmlRootElement!
+		// the radio persistence unit obtains it's connections from a pool configured by META-INF/radio-pool.properties
+		final HikariDataSource radioDataSource = JdbcConnectionPool.newInstance("META-INF/radio-pool.properties", "radio");
 		final ResourceConfig configuration = new ResourceConfig()
 			.packages(ApplicationContainer.class.getPackage().toString())
 			.register(RestResponseCodeProvider.class)
 			.register(RestCorsHeaderProvider.class)
-			.register(RestJpaLifecycleProvider.open("radio"));
+			.register(RestJpaContextProvider.open("radio", Collections.singletonMap("javax.persistence.nonJtaDataSource", radioDataSource)));
+
+		// unwoven, EclipseLink silently fetches lazy attributes and relationships eagerly; woven
+		// entity classes with lazy attributes are recognizable by their fetch group manager
+		final EntityManagerFactory radioFactory = RestJpaContextProvider.entityManager("radio").getEntityManagerFactory();
+		RestJpaContextProvider.closeEntityManagers();
+		if (!JpaHelper.getServerSession(radioFactory).getDescriptor(Document.class).hasFetchGroupManager()) {
+			radioDataSource.close();
+			throw new IllegalStateException("entity classes are not woven, add -javaagent:[path]eclipselink.jar to the JVM start parameters!");
+		}
 
 		// Generate keystore for a given host using this JDK utility (default passwords are "changeit"):
 		// keytool -genkey -alias <hostname> -keyalg RSA -validity 365 -keystore keystore.jks
+		// Prefer "-keyalg EC -groupname secp256r1" where clients permit, as ECDSA signatures are far cheaper than RSA ones
 		final SSLContext context = newTLSContext(keyStoreFile, keyRecoveryPassword, keyManagementPassword);
 		final URI uri = newServiceURI(servicePort, keyStoreFile != null);
 
 		// Create container for REST service, internal resource (class loader), and external resource (file system) access
-		final HttpServer container = JdkHttpServerFactory.createHttpServer(uri, configuration, context);
-		final HttpFileHandler internalFileHandler = HttpFileHandler.newInstance("/internal");
-		final HttpFileHandler externalFileHandler = HttpFileHandler.newInstance("/external", resourceDirectory);
-		container.createContext(internalFileHandler.getContextPath(), internalFileHandler);
-		container.createContext(externalFileHandler.getContextPath(), externalFileHandler);
+		final HttpAssetHandler internalFileHandler = HttpAssetHandler.newInstance("/internal");
+		final HttpAssetHandler externalFileHandler = HttpAssetHandler.newInstance("/external", resourceDirectory);
+		final String serverType = System.getProperty("radio.server", "jdk");
+		final Closeable container;
+		switch (serverType) {
+			case "jdk":
+				container = startJdkContainer(uri, context, configuration, internalFileHandler, externalFileHandler);
+				break;
+			case "grizzly":
+				container = startGrizzlyContainer(uri, context, configuration, internalFileHandler, externalFileHandler);
+				break;
+			default:
+				throw new IllegalArgumentException(serverType);
+		}
+		if (Boolean.parseBoolean(System.getProperty("radio.waveform.sweep", "true"))) WaveformService.scheduleMissing();
 
 		try {
 			final String origin = String.format("%s://%s:%s", uri.getScheme(), uri.getHost(), uri.getPort());
@@ -99,11 +169,181 @@ public class ApplicationContainer {
 			final BufferedReader charSource = new BufferedReader(new InputStreamReader(System.in));
 			while (!"quit".equals(charSource.readLine()));
 		} finally {
+			container.close();
+			radioDataSource.close();
+		}
+	}
+
+
+	/**
+	 * Starts a new container based on the JDK's HTTP server, with every context guarded by the
+	 * request executor's overload filter. Suspended REST requests return their thread to the
+	 * executor until they are resumed.
+	 * @param uri the service URI
+	 * @param context the SSL context, or {@code null} for none
+	 * @param configuration the REST configuration
+	 * @param fileHandlers the file handlers
+	 * @return a closeable that stops the container
+	 * @throws IOException if the server cannot be bound to the service port
+	 */
+	static private Closeable startJdkContainer (final URI uri, final SSLContext context, final ResourceConfig configuration, final HttpAssetHandler... fileHandlers) throws IOException {
+		final RequestExecutor executor = newRequestExecutor();
+		final Filter overloadFilter = executor.newOverloadFilter();
+		final JdkAsyncHttpContainer restHandler = new JdkAsyncHttpContainer(configuration);
+		final HttpServer container = newHttpServer(uri.getPort(), context);
+		container.setExecutor(executor);
+		container.createContext(uri.getPath(), restHandler).getFilters().add(overloadFilter);
+		for (final HttpAssetHandler fileHandler : fileHandlers)
+			container.createContext(fileHandler.getContextPath(), fileHandler).getFilters().add(overloadFilter);
+		container.start();
+		restHandler.getApplicationHandler().onStartup(restHandler);
+
+		return () -> {
 			container.stop(0);
+			restHandler.getApplicationHandler().onShutdown(restHandler);
+			try {
+				executor.shutdown(1000);
+			} catch (final InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		};
+	}
+
+
+	/**
+	 * Starts a new container based on Grizzly's NIO HTTP server, bound to all local addresses.
+	 * The selector threads multiplex all connections, while requests are processed by a bounded
+	 * worker pool.
+	 * @param uri the service URI
+	 * @param context the SSL context, or {@code null} for none
+	 * @param configuration the REST configuration
+	 * @param fileHandlers the file handlers
+	 * @return a closeable that stops the container
+	 * @throws IOException if the server cannot be bound to the service port
+	 */
+	static private Closeable startGrizzlyContainer (final URI uri, final SSLContext context, final ResourceConfig configuration, final HttpAssetHandler... fileHandlers) throws IOException {
+		final int threadCount = Integer.getInteger("radio.executor.threads", 8 * Runtime.getRuntime().availableProcessors());
+		final int queueLimit = Integer.getInteger("radio.executor.queue", 256);
+		final URI bindURI = UriBuilder.fromUri(uri).host("0.0.0.0").build();
+		final SSLEngineConfigurator engineConfigurator = context == null ? null : new SSLEngineConfigurator(context, false, false, false);
+
+		final org.glassfish.grizzly.http.server.HttpServer container = GrizzlyHttpServerFactory.createHttpServer(bindURI, configuration, context != null, engineConfigurator, false);
+		for (final HttpAssetHandler fileHandler : fileHandlers)
+			container.getServerConfiguration().addHttpHandler(newGrizzlyHandler(fileHandler), fileHandler.getContextPath());
+		for (final NetworkListener listener : container.getListeners()) {
+			final ThreadPoolConfig workerConfiguration = ThreadPoolConfig.defaultConfig().copy()
+				.setPoolName("http-worker")
+				.setCorePoolSize(threadCount)
+				.setMaxPoolSize(threadCount)
+				.setQueueLimit(queueLimit);
+			listener.getTransport().setWorkerThreadPoolConfig(workerConfiguration);
+		}
+		container.start();
+
+		return () -> container.shutdownNow();
+	}
+
+
+	/**
+	 * Returns a new Grizzly HTTP handler delegating to the given file handler.
+	 * @param fileHandler the file handler
+	 * @return the Grizzly HTTP handler created
+	 */
+	static private HttpHandler newGrizzlyHandler (final HttpAssetHandler fileHandler) {
+		return new HttpHandler() {
+			@Override
+			public void service (final Request request, final Response response) throws Exception {
+				final String requestPath = request.getDecodedRequestURI();
+
+				fileHandler.handle(new HttpAssetHandler.Exchange() {
+					public String getRequestMethod () {
+						return request.getMethod().getMethodString();
+					}
+
+					public String getRequestPath () {
+						return requestPath;
+					}
+
+					public String getRequestHeader (final String name) {
+						return request.getHeader(name);
+					}
+
+					public void setResponseHeader (final String name, final String value) {
+						response.setHeader(name, value);
+					}
+
+					public OutputStream sendResponseHeaders (final int status, final long contentLength) throws IOException {
+						response.setStatus(status);
+						if (contentLength == -1) return null;
+
+						if (contentLength > 0) response.setContentLengthLong(contentLength);
+						return response.getOutputStream();
+					}
+				});
+			}
+		};
+	}
+
+
+	/**
+	 * Returns a new request executor configured by the system properties <tt>radio.executor</tt>,
+	 * <tt>radio.executor.threads</tt> and <tt>radio.executor.queue</tt>.
+	 * @return the request executor created
+	 * @throws IllegalArgumentException if the configured executor type is unknown, or if the
+	 *         configured limits are out of range
+	 * @throws UnsupportedOperationException if virtual threads are configured, but not supported
+	 */
+	static private RequestExecutor newRequestExecutor () throws IllegalArgumentException, UnsupportedOperationException {
+		final String type = System.getProperty("radio.executor", "platform");
+		final int threadCount = Integer.getInteger("radio.executor.threads", 8 * Runtime.getRuntime().availableProcessors());
+		final int queueLimit = Integer.getInteger("radio.executor.queue", 256);
+
+		switch (type) {
+			case "platform":
+				return RequestExecutor.newPlatformInstance(threadCount, queueLimit);
+			case "virtual":
+				return RequestExecutor.newVirtualInstance(threadCount, queueLimit);
+			default:
+				throw new IllegalArgumentException(type);
 		}
 	}
 
 
+	/**
+	 * Creates a new HTTP server that is not yet started, bound to the given port on all local
+	 * addresses. The server uses HTTPS if an SSL context is given, and HTTP otherwise.
+	 * @param port the local port
+	 * @param context the SSL context, or {@code null} for none
+	 * @return the HTTP server created
+	 * @throws IOException if the server cannot be bound to the given port
+	 */
+	static private HttpServer newHttpServer (final int port, final SSLContext context) throws IOException {
+		final InetSocketAddress address = new InetSocketAddress(port);
+		if (context == null) return HttpServer.create(address, 0);
+
+		final HttpsServer server = HttpsServer.create(address, 0);
+		server.setHttpsConfigurator(new HttpsConfigurator(context));
+		return server;
+	}
+
+
+	/**
+	 * Returns new SSL parameters based on the given context's supported parameters,
+	 * restricted to the preferred protocols and cipher suites, and enforcing the server's
+	 * cipher suite order.
+	 * @param context the SSL context
+	 * @return the SSL parameters created
+	 */
+	static private SSLParameters newTLSParameters (final SSLContext context) {
+		final SSLParameters supported = context.getSupportedSSLParameters();
+		final SSLParameters parameters = new SSLParameters();
+		parameters.setProtocols(Arrays.stream(TLS_PROTOCOLS).filter(Arrays.asList(supported.getProtocols())::contains).toArray(String[]::new));
+		parameters.setCipherSuites(Arrays.stream(TLS_CIPHER_SUITES).filter(Arrays.asList(supported.getCipherSuites())::contains).toArray(String[]::new));
+		parameters.setUseCipherSuitesOrder(true);
+		return parameters;
+	}
+
+
 	/**
 	 * Creates a new HTTP/HTTPS service URI.
 	 * @param port the local port
@@ -124,6 +364,7 @@ public class ApplicationContainer {
 
 	/**
 	 * Returns a new SSL context based on a JKS key store and the most recent supported transport layer security (TLS) version.
+	 * The context caches server sessions for resumption, and meters it's handshakes.
 	 * @param keyStoreFile the key store file path, or {@code null} for none
 	 * @param keyRecoveryPassword the key recovery password
 	 * @param keyManagementPassword the key management password
@@ -137,6 +378,10 @@ public class ApplicationContainer {
 	static private SSLContext newTLSContext (final Path keyStoreFile, final String keyRecoveryPassword, final String keyManagementPassword) throws NullPointerException, IOException, CertificateException, UnrecoverableKeyException, KeyManagementException {
 		if (keyStoreFile == null) return null;
 
+		// must be set before the JSSE provider reads it's configuration
+		final String sessionTickets = System.getProperty("radio.tls.session-tickets");
+		if (sessionTickets != null) System.setProperty("jdk.tls.server.enableSessionTicketExtension", sessionTickets);
+
 		try {
 			final KeyStore keyStore = KeyStore.getInstance("JKS");
 			try {
@@ -156,7 +401,11 @@ public class ApplicationContainer {
 
 			final SSLContext sslContext = SSLContext.getInstance("TLS");
 			sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), new SecureRandom());
-			return sslContext;
+
+			final SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+			sessionContext.setSessionCacheSize(Integer.getInteger("radio.tls.session-cache", 20000));
+			sessionContext.setSessionTimeout(Integer.getInteger("radio.tls.session-timeout", 86400));
+			return new MeteredSSLContext(sslContext, newTLSParameters(sslContext));
 		} catch (final NoSuchAlgorithmException | KeyStoreException exception) {
 			throw new AssertionError(exception);
 		}
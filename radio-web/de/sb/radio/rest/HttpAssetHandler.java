@@ -0,0 +1,693 @@
+package de.sb.radio.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import de.sb.radio.persistence.HashTools;
+
+
+/**
+ * HTTP handler for static assets, either provided by the class loader, or
+ * residing within a file system directory. Small assets are kept in memory
+ * together with a precompressed gzip variant and a content based entity tag,
+ * so repeated page loads neither re-read nor re-compress them, and are
+ * answered with HTTP 304 once the client already owns them. Large assets are
+ * never cached, but streamed, using a channel transfer for files. Class
+ * loader access is restricted to resources below {@value #RESOURCE_ROOT}, so
+ * neither classes nor configuration files can be downloaded; paths containing
+ * ".." or "META-INF" segments are rejected in any case. Assets
+ * within a file system directory are revalidated against their size and
+ * modification time on every request, so edits become visible immediately.
+ * Besides being a JDK HTTP server handler, instances can serve any kind of
+ * server front end via the {@link Exchange} abstraction.
+ */
+public class HttpAssetHandler implements HttpHandler {
+	static private final String RESOURCE_ROOT = "WEB-INF/";
+	static private final int MAXIMUM_CACHED_ASSET_SIZE = 256 * 1024;
+	static private final long MAXIMUM_CACHE_SIZE = 16L * 1024 * 1024;
+	static private final int MINIMUM_COMPRESSED_ASSET_SIZE = 1024;
+	static private final String CACHE_CONTROL = "no-cache";
+	static private final Map<String, String> CONTENT_TYPES;
+	static {
+		final Map<String, String> contentTypes = new HashMap<>();
+		contentTypes.put("html", "text/html; charset=utf-8");
+		contentTypes.put("css", "text/css; charset=utf-8");
+		contentTypes.put("js", "application/javascript; charset=utf-8");
+		contentTypes.put("json", "application/json; charset=utf-8");
+		contentTypes.put("xml", "application/xml; charset=utf-8");
+		contentTypes.put("txt", "text/plain; charset=utf-8");
+		contentTypes.put("svg", "image/svg+xml");
+		contentTypes.put("png", "image/png");
+		contentTypes.put("jpg", "image/jpeg");
+		contentTypes.put("jpeg", "image/jpeg");
+		contentTypes.put("gif", "image/gif");
+		contentTypes.put("ico", "image/x-icon");
+		contentTypes.put("mp3", "audio/mpeg");
+		contentTypes.put("wav", "audio/wav");
+		CONTENT_TYPES = Collections.unmodifiableMap(contentTypes);
+	}
+
+	private final String contextPath;
+	private final Path contentDirectory;
+	private final Map<String, Asset> assetCache;
+	private final AtomicLong assetCacheSize;
+
+
+	/**
+	 * Returns a new instance that serves assets provided by the class loader.
+	 *
+	 * @param contextPath
+	 *            the context path
+	 * @return the handler created
+	 * @throws NullPointerException
+	 *             if the given context path is {@code null}
+	 */
+	static public HttpAssetHandler newInstance (final String contextPath) throws NullPointerException {
+		return new HttpAssetHandler(contextPath, null);
+	}
+
+
+	/**
+	 * Returns a new instance that serves assets residing within the given
+	 * content directory.
+	 *
+	 * @param contextPath
+	 *            the context path
+	 * @param contentDirectory
+	 *            the content directory
+	 * @return the handler created
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the given path is not a directory
+	 */
+	static public HttpAssetHandler newInstance (final String contextPath, final Path contentDirectory) throws NullPointerException, IllegalArgumentException {
+		if (!Files.isDirectory(contentDirectory)) throw new IllegalArgumentException();
+		return new HttpAssetHandler(contextPath, contentDirectory.toAbsolutePath().normalize());
+	}
+
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param contextPath
+	 *            the context path
+	 * @param contentDirectory
+	 *            the content directory, or {@code null} for class loader
+	 *            access
+	 * @throws NullPointerException
+	 *             if the given context path is {@code null}
+	 */
+	private HttpAssetHandler (final String contextPath, final Path contentDirectory) throws NullPointerException {
+		if (contextPath == null) throw new NullPointerException();
+
+		this.contextPath = contextPath;
+		this.contentDirectory = contentDirectory;
+		this.assetCache = new ConcurrentHashMap<>();
+		this.assetCacheSize = new AtomicLong();
+	}
+
+
+	/**
+	 * Returns the context path.
+	 *
+	 * @return the context path
+	 */
+	public String getContextPath () {
+		return this.contextPath;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void handle (final HttpExchange exchange) throws IOException {
+		try {
+			this.handle(new Exchange() {
+				public String getRequestMethod () {
+					return exchange.getRequestMethod();
+				}
+
+				public String getRequestPath () {
+					return exchange.getRequestURI().getPath();
+				}
+
+				public String getRequestHeader (final String name) {
+					return exchange.getRequestHeaders().getFirst(name);
+				}
+
+				public void setResponseHeader (final String name, final String value) {
+					exchange.getResponseHeaders().set(name, value);
+				}
+
+				public OutputStream sendResponseHeaders (final int status, final long contentLength) throws IOException {
+					exchange.sendResponseHeaders(status, contentLength);
+					return contentLength == -1 ? null : exchange.getResponseBody();
+				}
+			});
+		} finally {
+			exchange.close();
+		}
+	}
+
+
+	/**
+	 * Handles the given exchange.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @throws NullPointerException
+	 *             if the given exchange is {@code null}
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	public void handle (final Exchange exchange) throws NullPointerException, IOException {
+		final String method = exchange.getRequestMethod();
+		if (!"GET".equals(method) && !"HEAD".equals(method)) {
+			exchange.setResponseHeader("Allow", "GET, HEAD");
+			exchange.sendResponseHeaders(405, -1);
+			return;
+		}
+
+		final String requestPath = exchange.getRequestPath();
+		final String assetPath = requestPath.substring(Math.min(this.contextPath.length(), requestPath.length())).replaceFirst("^/+", "");
+		if (assetPath.isEmpty() || Arrays.stream(assetPath.split("/")).anyMatch(segment -> segment.equals("..") || segment.equalsIgnoreCase("META-INF"))) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+
+		try {
+			if (this.contentDirectory == null) {
+				this.handleResourceAsset(exchange, assetPath);
+			} else {
+				this.handleFileAsset(exchange, assetPath);
+			}
+		} catch (final FileNotFoundException | NoSuchFileException exception) {
+			exchange.sendResponseHeaders(404, -1);
+		}
+	}
+
+
+	/**
+	 * Handles the given exchange using the class loader resource matching the
+	 * given asset path, which must reside below {@value #RESOURCE_ROOT}. Class
+	 * loader resources never change, therefore cached ones are never
+	 * revalidated. Resources too large to be cached are streamed instead,
+	 * using a channel transfer if they reside within the file system.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @param assetPath
+	 *            the asset path
+	 * @throws FileNotFoundException
+	 *             if there is no such resource, or if it resides outside of
+	 *             the resource root
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	private void handleResourceAsset (final Exchange exchange, final String assetPath) throws FileNotFoundException, IOException {
+		if (!assetPath.startsWith(RESOURCE_ROOT)) throw new FileNotFoundException(assetPath);
+
+		Asset asset = this.assetCache.get(assetPath);
+		if (asset == null) {
+			final URL resource = HttpAssetHandler.class.getClassLoader().getResource(assetPath);
+			if (resource == null) throw new FileNotFoundException(assetPath);
+
+			final byte[] content;
+			if ("file".equals(resource.getProtocol())) {
+				final Path resourceFile;
+				try {
+					resourceFile = Paths.get(resource.toURI());
+				} catch (final URISyntaxException exception) {
+					throw new FileNotFoundException(assetPath);
+				}
+
+				final BasicFileAttributes attributes = Files.readAttributes(resourceFile, BasicFileAttributes.class);
+				if (!attributes.isRegularFile()) throw new FileNotFoundException(assetPath);
+				if (attributes.size() > MAXIMUM_CACHED_ASSET_SIZE) {
+					this.sendFile(exchange, resourceFile, attributes.size(), attributes.lastModifiedTime().toMillis());
+					return;
+				}
+				content = Files.readAllBytes(resourceFile);
+			} else {
+				final URLConnection connection = resource.openConnection();
+				try (InputStream byteSource = connection.getInputStream()) {
+					final long size = connection.getContentLengthLong();
+					if (size == -1 || size > MAXIMUM_CACHED_ASSET_SIZE) {
+						this.sendStream(exchange, assetPath, byteSource, size, connection.getLastModified());
+						return;
+					}
+					content = readAll(byteSource);
+				}
+			}
+
+			asset = new Asset(contentType(assetPath), content, content.length, 0);
+			this.cacheAsset(assetPath, asset);
+		}
+
+		this.sendAsset(exchange, asset);
+	}
+
+
+	/**
+	 * Handles the given exchange using the file matching the given asset
+	 * path. Files small enough are cached, and revalidated against their size
+	 * and modification time; larger files are transferred directly from their
+	 * file channel.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @param assetPath
+	 *            the asset path
+	 * @throws NoSuchFileException
+	 *             if there is no such file
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	private void handleFileAsset (final Exchange exchange, final String assetPath) throws NoSuchFileException, IOException {
+		final Path assetFile = this.contentDirectory.resolve(assetPath).normalize();
+		if (!assetFile.startsWith(this.contentDirectory)) throw new NoSuchFileException(assetPath);
+
+		final BasicFileAttributes attributes = Files.readAttributes(assetFile, BasicFileAttributes.class);
+		if (!attributes.isRegularFile()) throw new NoSuchFileException(assetPath);
+		final long lastModified = attributes.lastModifiedTime().toMillis();
+
+		if (attributes.size() > MAXIMUM_CACHED_ASSET_SIZE) {
+			this.sendFile(exchange, assetFile, attributes.size(), lastModified);
+			return;
+		}
+
+		Asset asset = this.assetCache.get(assetPath);
+		if (asset == null || asset.getContentLength() != attributes.size() || asset.getLastModified() != lastModified) {
+			asset = new Asset(contentType(assetPath), Files.readAllBytes(assetFile), attributes.size(), lastModified);
+			this.cacheAsset(assetPath, asset);
+		}
+
+		this.sendAsset(exchange, asset);
+	}
+
+
+	/**
+	 * Caches the given asset if it is small enough, and the cache still has
+	 * room for it.
+	 *
+	 * @param assetPath
+	 *            the asset path
+	 * @param asset
+	 *            the asset
+	 */
+	private void cacheAsset (final String assetPath, final Asset asset) {
+		final int size = asset.getContent().length;
+		if (size > MAXIMUM_CACHED_ASSET_SIZE) return;
+
+		final Asset previous = this.assetCache.put(assetPath, asset);
+		this.assetCacheSize.addAndGet(size - (previous == null ? 0 : previous.getContent().length));
+		if (this.assetCacheSize.get() > MAXIMUM_CACHE_SIZE && this.assetCache.remove(assetPath, asset)) {
+			this.assetCacheSize.addAndGet(-size);
+		}
+	}
+
+
+	/**
+	 * Sends the given asset, choosing the gzip variant if the client accepts
+	 * it, or sends HTTP 304 if the client's entity tag matches.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @param asset
+	 *            the asset
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	private void sendAsset (final Exchange exchange, final Asset asset) throws IOException {
+		final boolean compressed = asset.getCompressedContent() != null && acceptsGzip(exchange.getRequestHeader("Accept-Encoding"));
+		final String entityTag = compressed ? asset.getCompressedEntityTag() : asset.getEntityTag();
+		final byte[] content = compressed ? asset.getCompressedContent() : asset.getContent();
+
+		exchange.setResponseHeader("ETag", entityTag);
+		exchange.setResponseHeader("Cache-Control", CACHE_CONTROL);
+		exchange.setResponseHeader("Vary", "Accept-Encoding");
+		if (matchesEntityTag(exchange.getRequestHeader("If-None-Match"), entityTag)) {
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+
+		exchange.setResponseHeader("Content-Type", asset.getContentType());
+		if (compressed) exchange.setResponseHeader("Content-Encoding", "gzip");
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			exchange.setResponseHeader("Content-Length", Integer.toString(content.length));
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+
+		try (OutputStream byteSink = exchange.sendResponseHeaders(200, content.length)) {
+			byteSink.write(content);
+		}
+	}
+
+
+	/**
+	 * Sends the given file by transferring it directly from it's file channel,
+	 * or sends HTTP 304 if the client's entity tag matches. The entity tag is
+	 * derived from the file's size and modification time, which avoids reading
+	 * the file for conditional requests.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @param file
+	 *            the file
+	 * @param size
+	 *            the file size
+	 * @param lastModified
+	 *            the file's modification timestamp in milliseconds since
+	 *            1/1/1970
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	private void sendFile (final Exchange exchange, final Path file, final long size, final long lastModified) throws IOException {
+		if (!sendUncachedHeaders(exchange, file.getFileName().toString(), size, lastModified)) return;
+
+		try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+			try (OutputStream byteSink = exchange.sendResponseHeaders(200, size)) {
+				final WritableByteChannel channel = Channels.newChannel(byteSink);
+				for (long position = 0; position < size; position += fileChannel.transferTo(position, size - position, channel));
+			}
+		}
+	}
+
+
+	/**
+	 * Sends the content of the given byte source by streaming it, or sends
+	 * HTTP 304 if the client's entity tag matches. This serves resources too
+	 * large to be cached that don't reside within the file system, like those
+	 * within JAR files.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @param assetPath
+	 *            the asset path
+	 * @param byteSource
+	 *            the byte source, which is not closed
+	 * @param size
+	 *            the content size, or {@code -1} if unknown
+	 * @param lastModified
+	 *            the modification timestamp in milliseconds since 1/1/1970,
+	 *            or zero if unknown
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	private void sendStream (final Exchange exchange, final String assetPath, final InputStream byteSource, final long size, final long lastModified) throws IOException {
+		if (!sendUncachedHeaders(exchange, assetPath, size, lastModified)) return;
+
+		try (OutputStream byteSink = exchange.sendResponseHeaders(200, size == -1 ? 0 : size)) {
+			final byte[] buffer = new byte[0x10000];
+			for (int bytesRead = byteSource.read(buffer); bytesRead != -1; bytesRead = byteSource.read(buffer)) {
+				byteSink.write(buffer, 0, bytesRead);
+			}
+		}
+	}
+
+
+	/**
+	 * Sets the response headers of an uncached asset, and completes the
+	 * exchange with HTTP 304 if the client's entity tag matches, or without a
+	 * body for HEAD requests. The entity tag is derived from the asset's size
+	 * and modification time, which avoids reading it for conditional
+	 * requests.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @param assetPath
+	 *            the asset path
+	 * @param size
+	 *            the content size, or {@code -1} if unknown
+	 * @param lastModified
+	 *            the modification timestamp in milliseconds since 1/1/1970
+	 * @return {@code true} if the content must be sent, {@code false} if the
+	 *         exchange is complete
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	static private boolean sendUncachedHeaders (final Exchange exchange, final String assetPath, final long size, final long lastModified) throws IOException {
+		final String entityTag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+		exchange.setResponseHeader("ETag", entityTag);
+		exchange.setResponseHeader("Cache-Control", CACHE_CONTROL);
+		if (matchesEntityTag(exchange.getRequestHeader("If-None-Match"), entityTag)) {
+			exchange.sendResponseHeaders(304, -1);
+			return false;
+		}
+
+		exchange.setResponseHeader("Content-Type", contentType(assetPath));
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			if (size != -1) exchange.setResponseHeader("Content-Length", Long.toString(size));
+			exchange.sendResponseHeaders(200, -1);
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns whether or not the given "Accept-Encoding" header value accepts
+	 * gzip content encoding.
+	 *
+	 * @param acceptEncoding
+	 *            the "Accept-Encoding" header value, or {@code null} for none
+	 * @return {@code true} if gzip is acceptable, {@code false} otherwise
+	 */
+	static private boolean acceptsGzip (final String acceptEncoding) {
+		if (acceptEncoding == null) return false;
+
+		for (final String coding : acceptEncoding.split(",")) {
+			final String[] elements = coding.trim().split(";");
+			if (!"gzip".equalsIgnoreCase(elements[0].trim())) continue;
+			return elements.length == 1 || !elements[1].trim().matches("q=0(\\.0*)?");
+		}
+		return false;
+	}
+
+
+	/**
+	 * Returns whether or not the given "If-None-Match" header value matches
+	 * the given entity tag.
+	 *
+	 * @param ifNoneMatch
+	 *            the "If-None-Match" header value, or {@code null} for none
+	 * @param entityTag
+	 *            the quoted entity tag
+	 * @return {@code true} if the entity tag matches, {@code false} otherwise
+	 */
+	static private boolean matchesEntityTag (final String ifNoneMatch, final String entityTag) {
+		if (ifNoneMatch == null) return false;
+
+		for (final String element : ifNoneMatch.split(",")) {
+			final String tag = element.trim().replaceFirst("^W/", "");
+			if (tag.equals("*") || tag.equals(entityTag)) return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Returns the content type matching the given asset path's file
+	 * extension.
+	 *
+	 * @param assetPath
+	 *            the asset path
+	 * @return the content type
+	 */
+	static private String contentType (final String assetPath) {
+		final int dotOffset = assetPath.lastIndexOf('.');
+		final String contentType = dotOffset == -1 ? null : CONTENT_TYPES.get(assetPath.substring(dotOffset + 1).toLowerCase());
+		if (contentType != null) return contentType;
+
+		final String guessedContentType = URLConnection.guessContentTypeFromName(assetPath);
+		return guessedContentType == null ? "application/octet-stream" : guessedContentType;
+	}
+
+
+	/**
+	 * Returns the remaining content of the given byte source.
+	 *
+	 * @param byteSource
+	 *            the byte source
+	 * @return the content
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	static private byte[] readAll (final InputStream byteSource) throws IOException {
+		final ByteArrayOutputStream byteSink = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[0x10000];
+		for (int bytesRead = byteSource.read(buffer); bytesRead != -1; bytesRead = byteSource.read(buffer)) {
+			byteSink.write(buffer, 0, bytesRead);
+		}
+		return byteSink.toByteArray();
+	}
+
+
+
+	/**
+	 * Abstraction of an HTTP exchange, independent of the server front end.
+	 */
+	static public interface Exchange {
+
+		/**
+		 * Returns the request method.
+		 *
+		 * @return the request method
+		 */
+		String getRequestMethod ();
+
+
+		/**
+		 * Returns the request path, including the context path.
+		 *
+		 * @return the decoded request path
+		 */
+		String getRequestPath ();
+
+
+		/**
+		 * Returns the first value of the given request header.
+		 *
+		 * @param name
+		 *            the header name
+		 * @return the header value, or {@code null} for none
+		 */
+		String getRequestHeader (String name);
+
+
+		/**
+		 * Sets the given response header.
+		 *
+		 * @param name
+		 *            the header name
+		 * @param value
+		 *            the header value
+		 */
+		void setResponseHeader (String name, String value);
+
+
+		/**
+		 * Sends the response status and headers.
+		 *
+		 * @param status
+		 *            the response status
+		 * @param contentLength
+		 *            the response content length, or {@code -1} for no
+		 *            response body
+		 * @return the response body stream, or {@code null} for none
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		OutputStream sendResponseHeaders (int status, long contentLength) throws IOException;
+	}
+
+
+
+	/**
+	 * Instances of this inner class model immutable in-memory assets.
+	 */
+	static private final class Asset {
+		private final String contentType;
+		private final byte[] content;
+		private final byte[] compressedContent;
+		private final String entityTag;
+		private final long contentLength;
+		private final long lastModified;
+
+
+		/**
+		 * Creates a new instance, precompressing the given content if it's
+		 * type is textual and the result is smaller.
+		 *
+		 * @param contentType
+		 *            the content type
+		 * @param content
+		 *            the content
+		 * @param contentLength
+		 *            the content length reported by the asset's origin
+		 * @param lastModified
+		 *            the modification timestamp reported by the asset's
+		 *            origin
+		 * @throws IOException
+		 *             if there is an I/O related problem
+		 */
+		public Asset (final String contentType, final byte[] content, final long contentLength, final long lastModified) throws IOException {
+			this.contentType = contentType;
+			this.content = content;
+			this.contentLength = contentLength;
+			this.lastModified = lastModified;
+			this.entityTag = "\"" + HashTools.toHexString(HashTools.sha256HashCode(content)).substring(0, 32) + "\"";
+
+			final boolean compressible = contentType.startsWith("text/") || contentType.startsWith("application/javascript") || contentType.startsWith("application/json") || contentType.startsWith("application/xml") || contentType.startsWith("image/svg+xml");
+			if (compressible && content.length >= MINIMUM_COMPRESSED_ASSET_SIZE) {
+				final ByteArrayOutputStream byteSink = new ByteArrayOutputStream(content.length / 2);
+				try (GZIPOutputStream compressedSink = new GZIPOutputStream(byteSink)) {
+					compressedSink.write(content);
+				}
+				this.compressedContent = byteSink.size() < content.length ? byteSink.toByteArray() : null;
+			} else {
+				this.compressedContent = null;
+			}
+		}
+
+
+		public String getContentType () {
+			return this.contentType;
+		}
+
+
+		public byte[] getContent () {
+			return this.content;
+		}
+
+
+		public byte[] getCompressedContent () {
+			return this.compressedContent;
+		}
+
+
+		public String getEntityTag () {
+			return this.entityTag;
+		}
+
+
+		public String getCompressedEntityTag () {
+			return this.entityTag.substring(0, this.entityTag.length() - 1) + "-gzip\"";
+		}
+
+
+		public long getContentLength () {
+			return this.contentLength;
+		}
+
+
+		public long getLastModified () {
+			return this.lastModified;
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package de.sb.radio.rest;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import com.zaxxer.hikari.util.DriverDataSource;
+
+
+/**
+ * Factory and metrics tracker for pooled JDBC data sources based on HikariCP.
+ * The pool is configured by a class loader resource in HikariCP's property
+ * format, including pool limits, acquisition timeout, leak detection threshold
+ * and driver properties like MariaDB's prepared statement cache. The database
+ * URL, driver and credentials are not part of said resource, but taken from
+ * the <tt>javax.persistence.jdbc.*</tt> properties of the persistence unit
+ * served, which keeps them in one place. System properties prefixed with
+ * <tt>radio.pool.</tt> override both, for example
+ * <tt>-Dradio.pool.password=secret</tt>.
+ * <p>
+ * Pool saturation, acquisition wait times, timeouts and the prepared statement
+ * cache hit ratio are registered with {@link ServiceMetrics}, using the metric
+ * name prefix <tt>radio_db_</tt>. As the driver exposes no cache statistics of
+ * it's own, statement preparations are counted client-side, per physical
+ * connection, against a least-recently-used set of the same capacity as the
+ * driver's cache.
+ */
+public class JdbcConnectionPool implements IMetricsTracker {
+	static private final String OVERRIDE_PREFIX = "radio.pool.";
+	static private final String PERSISTENCE_RESOURCE_NAME = "META-INF/persistence.xml";
+	static private final Map<String, String> PERSISTENCE_PROPERTY_KEYS = new LinkedHashMap<>();
+	static {
+		PERSISTENCE_PROPERTY_KEYS.put("javax.persistence.jdbc.driver", "driverClassName");
+		PERSISTENCE_PROPERTY_KEYS.put("javax.persistence.jdbc.url", "jdbcUrl");
+		PERSISTENCE_PROPERTY_KEYS.put("javax.persistence.jdbc.user", "username");
+		PERSISTENCE_PROPERTY_KEYS.put("javax.persistence.jdbc.password", "password");
+	}
+
+	private final AtomicLong acquisitionCount;
+	private final AtomicLong acquisitionNanos;
+	private final AtomicLong acquisitionMaxNanos;
+	private final AtomicLong timeoutCount;
+	private final AtomicLong prepareCount;
+	private final AtomicLong prepareHitCount;
+	private volatile PoolStats poolStatistics;
+
+
+	/**
+	 * Returns a new pooled data source for the given persistence unit,
+	 * configured by the given class loader resource, the persistence unit's
+	 * JDBC properties, and any overriding system properties, and registers
+	 * it's gauges.
+	 *
+	 * @param resourceName
+	 *            the name of the pool properties resource
+	 * @param persistenceUnitName
+	 *            the name of the persistence unit providing the database URL,
+	 *            driver and credentials
+	 * @return the data source created
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 * @throws FileNotFoundException
+	 *             if the given resource cannot be found
+	 * @throws IOException
+	 *             if there is an I/O related problem, or if the persistence
+	 *             unit descriptor cannot be parsed
+	 * @throws RuntimeException
+	 *             if the pool cannot be initialized, for example because the
+	 *             database is not reachable
+	 */
+	static public HikariDataSource newInstance (final String resourceName, final String persistenceUnitName) throws NullPointerException, FileNotFoundException, IOException {
+		final Properties properties = new Properties();
+		try (InputStream byteSource = JdbcConnectionPool.class.getClassLoader().getResourceAsStream(resourceName)) {
+			if (byteSource == null) throw new FileNotFoundException(resourceName);
+			properties.load(byteSource);
+		}
+		for (final Map.Entry<String, String> entry : persistenceUnitProperties(persistenceUnitName).entrySet()) {
+			final String key = PERSISTENCE_PROPERTY_KEYS.get(entry.getKey());
+			if (key != null) properties.setProperty(key, entry.getValue());
+		}
+		for (final String key : System.getProperties().stringPropertyNames()) {
+			if (key.startsWith(OVERRIDE_PREFIX)) properties.setProperty(key.substring(OVERRIDE_PREFIX.length()), System.getProperty(key));
+		}
+
+		// the connection properties are passed to the driver data source, which in turn is decorated to count statement preparations
+		final String driverClassName = (String) properties.remove("driverClassName");
+		final String jdbcUrl = (String) properties.remove("jdbcUrl");
+		final String username = (String) properties.remove("username");
+		final String password = (String) properties.remove("password");
+		final HikariConfig configuration = new HikariConfig(properties);
+		final Properties driverProperties = configuration.getDataSourceProperties();
+		final boolean statementCaching = Boolean.parseBoolean(driverProperties.getProperty("useServerPrepStmts")) && Boolean.parseBoolean(driverProperties.getProperty("cachePrepStmts"));
+		final int statementCacheSize = statementCaching ? Integer.parseInt(driverProperties.getProperty("prepStmtCacheSize", "250")) : 0;
+
+		final JdbcConnectionPool tracker = new JdbcConnectionPool();
+		configuration.setDataSource(tracker.new CountingDataSource(new DriverDataSource(jdbcUrl, driverClassName, driverProperties, username, password), statementCacheSize));
+		configuration.setMetricsTrackerFactory((poolName, poolStatistics) -> {
+			tracker.poolStatistics = poolStatistics;
+			return tracker;
+		});
+
+		final HikariDataSource dataSource = new HikariDataSource(configuration);
+		ServiceMetrics.register("radio_db_pool_connections_total", () -> tracker.poolStatistics.getTotalConnections());
+		ServiceMetrics.register("radio_db_pool_connections_active", () -> tracker.poolStatistics.getActiveConnections());
+		ServiceMetrics.register("radio_db_pool_connections_idle", () -> tracker.poolStatistics.getIdleConnections());
+		ServiceMetrics.register("radio_db_pool_connections_max", () -> tracker.poolStatistics.getMaxConnections());
+		ServiceMetrics.register("radio_db_pool_pending_threads", () -> tracker.poolStatistics.getPendingThreads());
+		ServiceMetrics.register("radio_db_pool_saturation", tracker::getSaturation);
+		ServiceMetrics.register("radio_db_pool_acquisitions_total", tracker.acquisitionCount::get);
+		ServiceMetrics.register("radio_db_pool_acquire_seconds_total", () -> tracker.acquisitionNanos.get() * 1E-9);
+		ServiceMetrics.register("radio_db_pool_acquire_seconds_max", () -> tracker.acquisitionMaxNanos.get() * 1E-9);
+		ServiceMetrics.register("radio_db_pool_timeouts_total", tracker.timeoutCount::get);
+		ServiceMetrics.register("radio_db_statement_prepares_total", tracker.prepareCount::get);
+		ServiceMetrics.register("radio_db_statement_cache_hit_ratio", tracker::getStatementCacheHitRatio);
+		return dataSource;
+	}
+
+
+	/**
+	 * Creates a new instance.
+	 */
+	private JdbcConnectionPool () {
+		this.acquisitionCount = new AtomicLong();
+		this.acquisitionNanos = new AtomicLong();
+		this.acquisitionMaxNanos = new AtomicLong();
+		this.timeoutCount = new AtomicLong();
+		this.prepareCount = new AtomicLong();
+		this.prepareHitCount = new AtomicLong();
+	}
+
+
+	/**
+	 * Returns the ratio of active connections to the maximum pool size.
+	 *
+	 * @return the pool saturation within range [0, 1]
+	 */
+	public double getSaturation () {
+		final PoolStats poolStatistics = this.poolStatistics;
+		return poolStatistics.getMaxConnections() == 0 ? 0 : (double) poolStatistics.getActiveConnections() / poolStatistics.getMaxConnections();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void recordConnectionAcquiredNanos (final long elapsedNanos) {
+		this.acquisitionCount.incrementAndGet();
+		this.acquisitionNanos.addAndGet(elapsedNanos);
+		this.acquisitionMaxNanos.accumulateAndGet(elapsedNanos, Math::max);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void recordConnectionTimeout () {
+		this.timeoutCount.incrementAndGet();
+	}
+
+
+	/**
+	 * Returns the ratio of statement preparations served from the driver's
+	 * prepared statement cache to all statement preparations.
+	 *
+	 * @return the statement cache hit ratio within range [0, 1]
+	 */
+	public double getStatementCacheHitRatio () {
+		final long prepareCount = this.prepareCount.get();
+		return prepareCount == 0 ? 0 : (double) this.prepareHitCount.get() / prepareCount;
+	}
+
+
+	/**
+	 * Returns the properties of the given persistence unit, as defined by the
+	 * first persistence unit descriptor declaring it.
+	 *
+	 * @param persistenceUnitName
+	 *            the persistence unit name
+	 * @return the persistence unit properties, empty if there is no such
+	 *         persistence unit
+	 * @throws NullPointerException
+	 *             if the given name is {@code null}
+	 * @throws IOException
+	 *             if there is an I/O related problem, or if a persistence
+	 *             unit descriptor cannot be parsed
+	 */
+	static private Map<String, String> persistenceUnitProperties (final String persistenceUnitName) throws NullPointerException, IOException {
+		if (persistenceUnitName == null) throw new NullPointerException();
+
+		try {
+			final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			for (final URL resource : Collections.list(JdbcConnectionPool.class.getClassLoader().getResources(PERSISTENCE_RESOURCE_NAME))) {
+				final NodeList unitElements;
+				try (InputStream byteSource = resource.openStream()) {
+					unitElements = factory.newDocumentBuilder().parse(byteSource).getElementsByTagNameNS("*", "persistence-unit");
+				}
+
+				for (int unitIndex = 0; unitIndex < unitElements.getLength(); ++unitIndex) {
+					final Element unitElement = (Element) unitElements.item(unitIndex);
+					if (!persistenceUnitName.equals(unitElement.getAttribute("name"))) continue;
+
+					final Map<String, String> properties = new LinkedHashMap<>();
+					final NodeList propertyElements = unitElement.getElementsByTagNameNS("*", "property");
+					for (int propertyIndex = 0; propertyIndex < propertyElements.getLength(); ++propertyIndex) {
+						final Element propertyElement = (Element) propertyElements.item(propertyIndex);
+						properties.put(propertyElement.getAttribute("name"), propertyElement.getAttribute("value"));
+					}
+					return properties;
+				}
+			}
+			return Collections.emptyMap();
+		} catch (final ParserConfigurationException | SAXException exception) {
+			throw new IOException(exception);
+		}
+	}
+
+
+
+	/**
+	 * Data source decorator that counts the statement preparations of it's
+	 * connections. Each connection tracks the SQL it prepared within a
+	 * least-recently-used set of the given capacity, mirroring the driver's
+	 * per-connection prepared statement cache; preparations of SQL within
+	 * said set count as cache hits.
+	 */
+	private class CountingDataSource implements DataSource {
+		private final DataSource delegate;
+		private final int statementCacheSize;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param delegate
+		 *            the data source providing physical connections
+		 * @param statementCacheSize
+		 *            the driver's prepared statement cache capacity, or zero
+		 *            if statement caching is disabled
+		 */
+		public CountingDataSource (final DataSource delegate, final int statementCacheSize) {
+			this.delegate = delegate;
+			this.statementCacheSize = statementCacheSize;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Connection getConnection () throws SQLException {
+			return this.decorate(this.delegate.getConnection());
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Connection getConnection (final String username, final String password) throws SQLException {
+			return this.decorate(this.delegate.getConnection(username, password));
+		}
+
+
+		/**
+		 * Returns a decorator for the given physical connection that counts
+		 * it's statement preparations. Note that a pooled physical connection
+		 * is used by one thread at a time, therefore it's statement set does
+		 * not require synchronization.
+		 *
+		 * @param connection
+		 *            the physical connection
+		 * @return the connection decorator
+		 */
+		@SuppressWarnings("serial")
+		private Connection decorate (final Connection connection) {
+			final int statementCacheSize = this.statementCacheSize;
+			final Map<String, Boolean> preparedStatements = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry (final Map.Entry<String, Boolean> eldest) {
+					return this.size() > statementCacheSize;
+				}
+			};
+
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+				if ("prepareStatement".equals(method.getName())) {
+					JdbcConnectionPool.this.prepareCount.incrementAndGet();
+					if (preparedStatements.put((String) args[0], Boolean.TRUE) != null) JdbcConnectionPool.this.prepareHitCount.incrementAndGet();
+				}
+
+				try {
+					return method.invoke(connection, args);
+				} catch (final InvocationTargetException exception) {
+					throw exception.getCause();
+				}
+			});
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public PrintWriter getLogWriter () throws SQLException {
+			return this.delegate.getLogWriter();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setLogWriter (final PrintWriter writer) throws SQLException {
+			this.delegate.setLogWriter(writer);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setLoginTimeout (final int seconds) throws SQLException {
+			this.delegate.setLoginTimeout(seconds);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int getLoginTimeout () throws SQLException {
+			return this.delegate.getLoginTimeout();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Logger getParentLogger () throws SQLFeatureNotSupportedException {
+			return this.delegate.getParentLogger();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public <T> T unwrap (final Class<T> type) throws SQLException {
+			return this.delegate.unwrap(type);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean isWrapperFor (final Class<?> type) throws SQLException {
+			return this.delegate.isWrapperFor(type);
+		}
+	}
+}
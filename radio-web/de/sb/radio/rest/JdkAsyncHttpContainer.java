@@ -0,0 +1,271 @@
+package de.sb.radio.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.SecurityContext;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerException;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerResponseWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsExchange;
+
+
+/**
+ * Jersey container for the JDK's HTTP server that supports suspended
+ * requests, as opposed to Jersey's own {@code JdkHttpHandlerContainer}. The
+ * JDK's HTTP server does not require an exchange to be completed by the thread
+ * handling it; therefore, suspending a request simply returns the handling
+ * thread to the server's executor, while the exchange is completed later by
+ * whichever thread resumes the request.
+ */
+public class JdkAsyncHttpContainer implements HttpHandler, Container {
+	static private final ScheduledExecutorService TIMEOUT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "http-suspend-timeout");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile ApplicationHandler applicationHandler;
+
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param configuration
+	 *            the REST configuration
+	 * @throws NullPointerException
+	 *             if the given configuration is {@code null}
+	 */
+	public JdkAsyncHttpContainer (final ResourceConfig configuration) throws NullPointerException {
+		this.applicationHandler = new ApplicationHandler(configuration);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public ResourceConfig getConfiguration () {
+		return this.applicationHandler.getConfiguration();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public ApplicationHandler getApplicationHandler () {
+		return this.applicationHandler;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void reload () {
+		this.reload(this.getConfiguration());
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void reload (final ResourceConfig configuration) {
+		this.applicationHandler.onShutdown(this);
+		this.applicationHandler = new ApplicationHandler(configuration);
+		this.applicationHandler.onReload(this);
+		this.applicationHandler.onStartup(this);
+	}
+
+
+	/**
+	 * Passes the given exchange to the application handler. The exchange is
+	 * closed once it's response is committed, which may happen after this
+	 * method returns if the request is suspended.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @throws IOException
+	 *             if there is an I/O related problem
+	 */
+	public void handle (final HttpExchange exchange) throws IOException {
+		final URI baseURI, requestURI;
+		try {
+			final String scheme = exchange instanceof HttpsExchange ? "https" : "http";
+			final String contextPath = exchange.getHttpContext().getPath();
+			final String host = exchange.getRequestHeaders().containsKey("Host") ? exchange.getRequestHeaders().getFirst("Host") : hostAddress(exchange.getLocalAddress());
+			baseURI = new URI(scheme + "://" + host + (contextPath.endsWith("/") ? contextPath : contextPath + "/"));
+			requestURI = baseURI.resolve(exchange.getRequestURI());
+		} catch (final URISyntaxException | IllegalArgumentException exception) {
+			try {
+				exchange.sendResponseHeaders(400, -1);
+			} finally {
+				exchange.close();
+			}
+			return;
+		}
+
+		final ContainerRequest request = new ContainerRequest(baseURI, requestURI, exchange.getRequestMethod(), newSecurityContext(exchange), new MapPropertiesDelegate());
+		request.setEntityStream(exchange.getRequestBody());
+		request.getHeaders().putAll(exchange.getRequestHeaders());
+		request.setWriter(new ResponseWriter(exchange));
+		this.applicationHandler.handle(request);
+	}
+
+
+	/**
+	 * Returns the host and port of the given socket address.
+	 *
+	 * @param address
+	 *            the socket address
+	 * @return the host address
+	 */
+	static private String hostAddress (final InetSocketAddress address) {
+		final String host = address.getHostString();
+		return (host.indexOf(':') == -1 ? host : "[" + host + "]") + ":" + address.getPort();
+	}
+
+
+	/**
+	 * Returns a new security context for the given exchange.
+	 *
+	 * @param exchange
+	 *            the HTTP exchange
+	 * @return the security context created
+	 */
+	static private SecurityContext newSecurityContext (final HttpExchange exchange) {
+		final Principal principal = exchange.getPrincipal();
+		final boolean secure = exchange instanceof HttpsExchange;
+
+		return new SecurityContext() {
+			public Principal getUserPrincipal () {
+				return principal;
+			}
+
+			public boolean isUserInRole (final String role) {
+				return false;
+			}
+
+			public boolean isSecure () {
+				return secure;
+			}
+
+			public String getAuthenticationScheme () {
+				return null;
+			}
+		};
+	}
+
+
+
+	/**
+	 * Response writer completing an exchange, possibly from a thread other
+	 * than the one handling it.
+	 */
+	static private class ResponseWriter implements ContainerResponseWriter {
+		private final HttpExchange exchange;
+		private TimeoutHandler timeoutHandler;
+		private ScheduledFuture<?> timeoutFuture;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param exchange
+		 *            the HTTP exchange
+		 */
+		public ResponseWriter (final HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public OutputStream writeResponseStatusAndHeaders (final long contentLength, final ContainerResponse response) throws ContainerException {
+			for (final Map.Entry<String, List<String>> entry : response.getStringHeaders().entrySet()) {
+				for (final String value : entry.getValue())
+					this.exchange.getResponseHeaders().add(entry.getKey(), value);
+			}
+
+			// Jersey uses -1 for unknown length, while the JDK server uses 0 for
+			// chunked transfer and -1 for no content
+			final int status = response.getStatus();
+			final boolean empty = contentLength == 0 || status == 204 || status == 304 || "HEAD".equals(this.exchange.getRequestMethod());
+			try {
+				this.exchange.sendResponseHeaders(status, empty ? -1 : (contentLength == -1 ? 0 : contentLength));
+			} catch (final IOException exception) {
+				throw new ContainerException(exception);
+			}
+			return this.exchange.getResponseBody();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public synchronized boolean suspend (final long timeout, final TimeUnit unit, final TimeoutHandler timeoutHandler) {
+			this.timeoutHandler = timeoutHandler;
+			this.setSuspendTimeout(timeout, unit);
+			return true;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public synchronized void setSuspendTimeout (final long timeout, final TimeUnit unit) {
+			if (this.timeoutFuture != null) this.timeoutFuture.cancel(false);
+			this.timeoutFuture = timeout <= 0 || this.timeoutHandler == null
+				? null
+				: TIMEOUT_SCHEDULER.schedule(() -> this.timeoutHandler.onTimeout(this), timeout, unit);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void commit () {
+			synchronized (this) {
+				if (this.timeoutFuture != null) this.timeoutFuture.cancel(false);
+			}
+			this.exchange.close();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void failure (final Throwable exception) {
+			try {
+				if (this.exchange.getResponseCode() == -1) this.exchange.sendResponseHeaders(500, -1);
+			} catch (final IOException nestedException) {
+				// nothing more to be done
+			} finally {
+				this.commit();
+			}
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public boolean enableResponseBuffering () {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,572 @@
+package de.sb.radio.rest;
+
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+
+/**
+ * SSL context decorator that applies fixed SSL parameters to every SSL engine
+ * created, and counts the TLS handshakes completed by said engines. A
+ * handshake counts as resumption if it's session was created before the
+ * handshake began, which is the case for both TLS 1.2 session-ID and TLS 1.3
+ * pre-shared-key resumption. Handshake count, resumption count, resumption
+ * ratio and cached session count are registered with {@link ServiceMetrics}.
+ * The engines delegate ALPN negotiation, passing themselves to any protocol
+ * selector installed. Copies of the fixed SSL parameters are also returned as
+ * the context's default parameters, as the JDK's HTTPS server applies these to
+ * every connection; callers modifying them therefore never affect other
+ * connections.
+ */
+public class MeteredSSLContext extends SSLContext {
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param delegate
+	 *            the initialized SSL context to be decorated
+	 * @param parameters
+	 *            the SSL parameters to be applied to every SSL engine, which
+	 *            are copied
+	 * @throws NullPointerException
+	 *             if any of the given arguments is {@code null}
+	 */
+	public MeteredSSLContext (final SSLContext delegate, final SSLParameters parameters) throws NullPointerException {
+		super(new MeteredSpi(delegate, parameters), delegate.getProvider(), delegate.getProtocol());
+	}
+
+
+
+	/**
+	 * Returns a copy of the given SSL parameters, as the latter are mutable.
+	 *
+	 * @param parameters
+	 *            the SSL parameters
+	 * @return the copy created
+	 * @throws NullPointerException
+	 *             if the given parameters are {@code null}
+	 */
+	static private SSLParameters copy (final SSLParameters parameters) throws NullPointerException {
+		final SSLParameters copy = new SSLParameters(parameters.getCipherSuites(), parameters.getProtocols());
+		if (parameters.getNeedClientAuth()) {
+			copy.setNeedClientAuth(true);
+		} else {
+			copy.setWantClientAuth(parameters.getWantClientAuth());
+		}
+		copy.setAlgorithmConstraints(parameters.getAlgorithmConstraints());
+		copy.setEndpointIdentificationAlgorithm(parameters.getEndpointIdentificationAlgorithm());
+		if (parameters.getServerNames() != null) copy.setServerNames(parameters.getServerNames());
+		if (parameters.getSNIMatchers() != null) copy.setSNIMatchers(parameters.getSNIMatchers());
+		copy.setUseCipherSuitesOrder(parameters.getUseCipherSuitesOrder());
+		copy.setEnableRetransmissions(parameters.getEnableRetransmissions());
+		copy.setMaximumPacketSize(parameters.getMaximumPacketSize());
+		copy.setApplicationProtocols(parameters.getApplicationProtocols());
+		return copy;
+	}
+
+
+
+	/**
+	 * SSL context SPI delegating to an initialized SSL context.
+	 */
+	static private class MeteredSpi extends SSLContextSpi {
+		private final SSLContext delegate;
+		private final SSLParameters parameters;
+		private final AtomicLong handshakeCount;
+		private final AtomicLong resumptionCount;
+
+
+		/**
+		 * Creates a new instance, and registers it's gauges.
+		 *
+		 * @param delegate
+		 *            the initialized SSL context
+		 * @param parameters
+		 *            the SSL parameters
+		 * @throws NullPointerException
+		 *             if any of the given arguments is {@code null}
+		 */
+		public MeteredSpi (final SSLContext delegate, final SSLParameters parameters) throws NullPointerException {
+			if (delegate == null | parameters == null) throw new NullPointerException();
+
+			this.delegate = delegate;
+			this.parameters = copy(parameters);
+			this.handshakeCount = new AtomicLong();
+			this.resumptionCount = new AtomicLong();
+
+			ServiceMetrics.register("radio_tls_handshakes_total", this.handshakeCount::get);
+			ServiceMetrics.register("radio_tls_resumptions_total", this.resumptionCount::get);
+			ServiceMetrics.register("radio_tls_resumption_ratio", this::getResumptionRatio);
+			ServiceMetrics.register("radio_tls_session_cache_size", this::getSessionCount);
+		}
+
+
+		/**
+		 * Returns the ratio of resumed handshakes to all handshakes.
+		 *
+		 * @return the resumption ratio within range [0, 1]
+		 */
+		public double getResumptionRatio () {
+			final long handshakeCount = this.handshakeCount.get();
+			return handshakeCount == 0 ? 0 : (double) this.resumptionCount.get() / handshakeCount;
+		}
+
+
+		/**
+		 * Returns the number of sessions currently held by the server session
+		 * cache. Note that the latter's capacity is not a suitable gauge, as
+		 * it stays constant regardless of the number of sessions cached.
+		 *
+		 * @return the server session count
+		 */
+		public long getSessionCount () {
+			return Collections.list(this.delegate.getServerSessionContext().getIds()).size();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected void engineInit (final KeyManager[] keyManagers, final TrustManager[] trustManagers, final SecureRandom random) throws KeyManagementException {
+			throw new KeyManagementException("already initialized");
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected SSLSocketFactory engineGetSocketFactory () {
+			return this.delegate.getSocketFactory();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected SSLServerSocketFactory engineGetServerSocketFactory () {
+			return this.delegate.getServerSocketFactory();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected SSLEngine engineCreateSSLEngine () {
+			return this.engineCreateSSLEngine(null, -1);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected SSLEngine engineCreateSSLEngine (final String peerHost, final int peerPort) {
+			final SSLEngine engine = this.delegate.createSSLEngine(peerHost, peerPort);
+			engine.setSSLParameters(this.parameters);
+			return new MeteredEngine(engine, this.handshakeCount, this.resumptionCount);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected SSLSessionContext engineGetServerSessionContext () {
+			return this.delegate.getServerSessionContext();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected SSLSessionContext engineGetClientSessionContext () {
+			return this.delegate.getClientSessionContext();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected SSLParameters engineGetDefaultSSLParameters () {
+			return copy(this.parameters);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected SSLParameters engineGetSupportedSSLParameters () {
+			return this.delegate.getSupportedSSLParameters();
+		}
+	}
+
+
+
+	/**
+	 * SSL engine decorator that counts it's first completed handshake. As
+	 * servers may wrap and unwrap on different threads, the handshake state
+	 * is updated atomically, which guarantees the handshake is counted once.
+	 */
+	static private class MeteredEngine extends SSLEngine {
+		private final SSLEngine delegate;
+		private final AtomicLong handshakeCount;
+		private final AtomicLong resumptionCount;
+		private final AtomicLong handshakeTimestamp;
+		private final AtomicBoolean handshakeCounted;
+		private BiFunction<SSLEngine, List<String>, String> applicationProtocolSelector;
+
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param delegate
+		 *            the SSL engine
+		 * @param handshakeCount
+		 *            the handshake counter
+		 * @param resumptionCount
+		 *            the resumption counter
+		 */
+		public MeteredEngine (final SSLEngine delegate, final AtomicLong handshakeCount, final AtomicLong resumptionCount) {
+			super(delegate.getPeerHost(), delegate.getPeerPort());
+			this.delegate = delegate;
+			this.handshakeCount = handshakeCount;
+			this.resumptionCount = resumptionCount;
+			this.handshakeTimestamp = new AtomicLong();
+			this.handshakeCounted = new AtomicBoolean();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public SSLEngineResult wrap (final ByteBuffer[] sources, final int offset, final int length, final ByteBuffer sink) throws SSLException {
+			this.beforeOperation();
+			return this.afterOperation(this.delegate.wrap(sources, offset, length, sink));
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public SSLEngineResult unwrap (final ByteBuffer source, final ByteBuffer[] sinks, final int offset, final int length) throws SSLException {
+			this.beforeOperation();
+			return this.afterOperation(this.delegate.unwrap(source, sinks, offset, length));
+		}
+
+
+		/**
+		 * Records the handshake start time before the first operation.
+		 */
+		private void beforeOperation () {
+			if (this.handshakeTimestamp.get() == 0) this.handshakeTimestamp.compareAndSet(0, System.currentTimeMillis());
+		}
+
+
+		/**
+		 * Counts the first completed handshake, and whether or not it resumed
+		 * a session created before the handshake began.
+		 *
+		 * @param result
+		 *            the operation result
+		 * @return the given result
+		 */
+		private SSLEngineResult afterOperation (final SSLEngineResult result) {
+			if (result.getHandshakeStatus() == HandshakeStatus.FINISHED && this.handshakeCounted.compareAndSet(false, true)) {
+				this.handshakeCount.incrementAndGet();
+
+				final SSLSession session = this.delegate.getSession();
+				if (session.getCreationTime() < this.handshakeTimestamp.get()) this.resumptionCount.incrementAndGet();
+			}
+			return result;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Runnable getDelegatedTask () {
+			return this.delegate.getDelegatedTask();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void closeInbound () throws SSLException {
+			this.delegate.closeInbound();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean isInboundDone () {
+			return this.delegate.isInboundDone();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void closeOutbound () {
+			this.delegate.closeOutbound();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean isOutboundDone () {
+			return this.delegate.isOutboundDone();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String[] getSupportedCipherSuites () {
+			return this.delegate.getSupportedCipherSuites();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String[] getEnabledCipherSuites () {
+			return this.delegate.getEnabledCipherSuites();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setEnabledCipherSuites (final String[] suites) {
+			this.delegate.setEnabledCipherSuites(suites);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String[] getSupportedProtocols () {
+			return this.delegate.getSupportedProtocols();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String[] getEnabledProtocols () {
+			return this.delegate.getEnabledProtocols();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setEnabledProtocols (final String[] protocols) {
+			this.delegate.setEnabledProtocols(protocols);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public SSLSession getSession () {
+			return this.delegate.getSession();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public SSLSession getHandshakeSession () {
+			return this.delegate.getHandshakeSession();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void beginHandshake () throws SSLException {
+			this.delegate.beginHandshake();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public HandshakeStatus getHandshakeStatus () {
+			return this.delegate.getHandshakeStatus();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setUseClientMode (final boolean mode) {
+			this.delegate.setUseClientMode(mode);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean getUseClientMode () {
+			return this.delegate.getUseClientMode();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setNeedClientAuth (final boolean need) {
+			this.delegate.setNeedClientAuth(need);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean getNeedClientAuth () {
+			return this.delegate.getNeedClientAuth();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setWantClientAuth (final boolean want) {
+			this.delegate.setWantClientAuth(want);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean getWantClientAuth () {
+			return this.delegate.getWantClientAuth();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setEnableSessionCreation (final boolean flag) {
+			this.delegate.setEnableSessionCreation(flag);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean getEnableSessionCreation () {
+			return this.delegate.getEnableSessionCreation();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public SSLParameters getSSLParameters () {
+			return this.delegate.getSSLParameters();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setSSLParameters (final SSLParameters parameters) {
+			this.delegate.setSSLParameters(parameters);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String getApplicationProtocol () {
+			return this.delegate.getApplicationProtocol();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String getHandshakeApplicationProtocol () {
+			return this.delegate.getHandshakeApplicationProtocol();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setHandshakeApplicationProtocolSelector (final BiFunction<SSLEngine, List<String>, String> selector) {
+			this.applicationProtocolSelector = selector;
+			this.delegate.setHandshakeApplicationProtocolSelector(selector == null ? null : (engine, protocols) -> selector.apply(this, protocols));
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public BiFunction<SSLEngine, List<String>, String> getHandshakeApplicationProtocolSelector () {
+			return this.applicationProtocolSelector;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package de.sb.radio.rest;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+
+/**
+ * Executor for HTTP exchanges, based either on a bounded pool of platform
+ * threads, or on virtual threads if the JVM supports them. Admission is
+ * limited to a configurable number of concurrent exchanges plus a bounded
+ * number of queued ones. Exchanges exceeding this limit, or rejected by the
+ * underlying executor, are handed to a small dedicated overload pool instead,
+ * which executes them in overload mode; this causes the
+ * {@linkplain #newOverloadFilter() overload filter} to answer them with HTTP
+ * 503 without invoking the context's handler, while the server's dispatcher
+ * thread remains free to accept connections. Only if the overload pool is
+ * saturated as well, the dispatcher thread answers exchanges itself. Active,
+ * queued, completed and rejected exchange counts are registered with
+ * {@link ServiceMetrics}.
+ */
+public class RequestExecutor implements java.util.concurrent.Executor {
+	static private final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+	static private final int OVERLOAD_THREAD_COUNT = 2;
+	static private final int OVERLOAD_QUEUE_CAPACITY = 1024;
+
+	private final ExecutorService delegate;
+	private final ExecutorService overloadExecutor;
+	private final Semaphore admission;
+	private final AtomicInteger activeCount;
+	private final AtomicLong admittedCount;
+	private final AtomicLong startedCount;
+	private final AtomicLong completedCount;
+	private final AtomicLong rejectedCount;
+
+
+	/**
+	 * Returns a new instance based on a fixed pool of platform threads.
+	 *
+	 * @param threadCount
+	 *            the number of threads, i.e. the maximum number of concurrently
+	 *            executed exchanges
+	 * @param queueLimit
+	 *            the maximum number of queued exchanges
+	 * @return the executor created
+	 * @throws IllegalArgumentException
+	 *             if the given thread count is not positive, or the given queue
+	 *             limit is negative
+	 */
+	static public RequestExecutor newPlatformInstance (final int threadCount, final int queueLimit) throws IllegalArgumentException {
+		if (threadCount <= 0 | queueLimit < 0) throw new IllegalArgumentException();
+
+		final AtomicInteger threadNumber = new AtomicInteger();
+		final ThreadFactory threadFactory = runnable -> {
+			final Thread thread = new Thread(runnable, "http-worker-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return new RequestExecutor(Executors.newFixedThreadPool(threadCount, threadFactory), threadCount + queueLimit);
+	}
+
+
+	/**
+	 * Returns a new instance that executes every exchange within it's own
+	 * virtual thread.
+	 *
+	 * @param concurrencyLimit
+	 *            the maximum number of concurrently executed exchanges
+	 * @param queueLimit
+	 *            the maximum number of exchanges exceeding the concurrency
+	 *            limit; as virtual threads are never queued, this simply adds
+	 *            to the former
+	 * @return the executor created
+	 * @throws IllegalArgumentException
+	 *             if the given concurrency limit is not positive, or the given
+	 *             queue limit is negative
+	 * @throws UnsupportedOperationException
+	 *             if the JVM does not support virtual threads
+	 */
+	static public RequestExecutor newVirtualInstance (final int concurrencyLimit, final int queueLimit) throws IllegalArgumentException, UnsupportedOperationException {
+		if (concurrencyLimit <= 0 | queueLimit < 0) throw new IllegalArgumentException();
+
+		final ExecutorService delegate;
+		try {
+			delegate = (ExecutorService) MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class)).invoke();
+		} catch (final NoSuchMethodException | IllegalAccessException exception) {
+			throw new UnsupportedOperationException("virtual threads require Java 21 or later", exception);
+		} catch (final RuntimeException | Error exception) {
+			throw exception;
+		} catch (final Throwable exception) {
+			throw new AssertionError(exception);
+		}
+		return new RequestExecutor(delegate, concurrencyLimit + queueLimit);
+	}
+
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param delegate
+	 *            the executor service running the admitted exchanges
+	 * @param admissionLimit
+	 *            the maximum number of admitted exchanges, either active or
+	 *            queued
+	 */
+	private RequestExecutor (final ExecutorService delegate, final int admissionLimit) {
+		this.delegate = delegate;
+		this.overloadExecutor = DaemonExecutors.newInstance("http-overload", OVERLOAD_THREAD_COUNT, OVERLOAD_QUEUE_CAPACITY, Thread.NORM_PRIORITY);
+		this.admission = new Semaphore(admissionLimit);
+		this.activeCount = new AtomicInteger();
+		this.admittedCount = new AtomicLong();
+		this.startedCount = new AtomicLong();
+		this.completedCount = new AtomicLong();
+		this.rejectedCount = new AtomicLong();
+
+		ServiceMetrics.register("radio_http_requests_active", this::getActiveCount);
+		ServiceMetrics.register("radio_http_requests_queued", this::getQueuedCount);
+		ServiceMetrics.register("radio_http_requests_completed_total", this::getCompletedCount);
+		ServiceMetrics.register("radio_http_requests_rejected_total", this::getRejectedCount);
+	}
+
+
+	/**
+	 * Returns the number of exchanges currently executing.
+	 *
+	 * @return the active exchange count
+	 */
+	public int getActiveCount () {
+		return this.activeCount.get();
+	}
+
+
+	/**
+	 * Returns the number of exchanges admitted, but not yet executing.
+	 *
+	 * @return the queued exchange count
+	 */
+	public long getQueuedCount () {
+		return Math.max(0, this.admittedCount.get() - this.startedCount.get());
+	}
+
+
+	/**
+	 * Returns the number of exchanges completed since this executor's
+	 * creation.
+	 *
+	 * @return the completed exchange count
+	 */
+	public long getCompletedCount () {
+		return this.completedCount.get();
+	}
+
+
+	/**
+	 * Returns the number of exchanges rejected because of overload since this
+	 * executor's creation.
+	 *
+	 * @return the rejected exchange count
+	 */
+	public long getRejectedCount () {
+		return this.rejectedCount.get();
+	}
+
+
+	/**
+	 * Executes the given exchange task asynchronously if it can be admitted,
+	 * otherwise executes it in overload mode.
+	 *
+	 * @param task
+	 *            the exchange task
+	 * @throws NullPointerException
+	 *             if the given task is {@code null}
+	 */
+	public void execute (final Runnable task) throws NullPointerException {
+		if (task == null) throw new NullPointerException();
+
+		if (!this.admission.tryAcquire()) {
+			this.executeOverloaded(task);
+			return;
+		}
+
+		this.admittedCount.incrementAndGet();
+		try {
+			this.delegate.execute(() -> {
+				this.startedCount.incrementAndGet();
+				this.activeCount.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					this.activeCount.decrementAndGet();
+					this.completedCount.incrementAndGet();
+					this.admission.release();
+				}
+			});
+		} catch (final RejectedExecutionException exception) {
+			this.admittedCount.decrementAndGet();
+			this.admission.release();
+			this.executeOverloaded(task);
+		}
+	}
+
+
+	/**
+	 * Executes the given exchange task in overload mode, using the overload
+	 * pool if it has capacity left, or else the current thread.
+	 *
+	 * @param task
+	 *            the exchange task
+	 */
+	private void executeOverloaded (final Runnable task) {
+		this.rejectedCount.incrementAndGet();
+		final Runnable overloadedTask = () -> {
+			OVERLOADED.set(Boolean.TRUE);
+			try {
+				task.run();
+			} finally {
+				OVERLOADED.remove();
+			}
+		};
+
+		try {
+			this.overloadExecutor.execute(overloadedTask);
+		} catch (final RejectedExecutionException exception) {
+			overloadedTask.run();
+		}
+	}
+
+
+	/**
+	 * Shuts down this executor, waiting up to the given time for running
+	 * exchanges to complete.
+	 *
+	 * @param timeout
+	 *            the timeout in milliseconds
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting
+	 */
+	public void shutdown (final long timeout) throws InterruptedException {
+		this.delegate.shutdown();
+		this.overloadExecutor.shutdown();
+		this.delegate.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * Returns a new HTTP filter that answers exchanges executed in overload
+	 * mode with HTTP 503, and passes all other exchanges on to the filter
+	 * chain. Said filter must be added to every context of a server using this
+	 * executor.
+	 *
+	 * @return the filter created
+	 */
+	public Filter newOverloadFilter () {
+		return new Filter() {
+			public void doFilter (final HttpExchange exchange, final Chain chain) throws IOException {
+				if (OVERLOADED.get() == null) {
+					chain.doFilter(exchange);
+					return;
+				}
+
+				try {
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					exchange.sendResponseHeaders(503, -1);
+				} finally {
+					exchange.close();
+				}
+			}
+
+			public String description () {
+				return "answers exchanges with HTTP 503 while the request executor is overloaded";
+			}
+		};
+	}
+}